@@ -0,0 +1,119 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.metrics.MetricCollection;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of {@link OtelMetricPublisher#publish} for realistic collection trees.
+ * <p>
+ * With the {@code sync} executor the whole publishing path runs on the benchmark thread. With {@code forkjoin} and
+ * {@code pipeline} only the hand-off is measured, which is the cost paid by the SDK's completion threads. The
+ * {@code forkjoin} executor bounds the number of pending tasks, so that the benchmark thread is slowed down to the pace
+ * of the pool instead of measuring the growth of its queue. Run with {@code -prof gc} to report the bytes allocated
+ * per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OtelMetricPublisherBenchmark {
+    private static final int MAX_PENDING_TASKS = 65536;
+
+    @Param({"noop", "sdk"})
+    public String openTelemetry;
+
+    @Param({"sync", "forkjoin", "pipeline"})
+    public String executor;
+
+    private OtelMetricPublisher publisher;
+    private SdkMeterProvider meterProvider;
+    private MetricCollection[] collections;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        OpenTelemetry otel;
+        if ("sdk".equals(openTelemetry)) {
+            meterProvider = SdkMeterProvider.builder()
+                    .registerMetricReader(InMemoryMetricReader.create())
+                    .build();
+            otel = OpenTelemetrySdk.builder().setMeterProvider(meterProvider).build();
+        } else {
+            otel = OpenTelemetry.noop();
+        }
+
+        OtelMetricPublisher.Builder builder = OtelMetricPublisher.builder(otel)
+                .baseAttributes(Attributes.of(AttributeKey.stringKey("client"), "benchmark"));
+        switch (executor) {
+            case "sync":
+                builder.executor(null);
+                break;
+            case "forkjoin":
+                builder.executor(new BoundedExecutor(ForkJoinPool.commonPool(), MAX_PENDING_TASKS));
+                break;
+            case "pipeline":
+                builder.batchingPipeline(65536).overflowPolicy(OverflowPolicy.DROP_NEWEST);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+        publisher = builder.build();
+        collections = SyntheticMetricCollections.create(1024, 8, 0.1, 42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        publisher.close();
+        if (meterProvider != null) {
+            meterProvider.close();
+        }
+    }
+
+    @Benchmark
+    public void publish() {
+        publisher.publish(collections[next++ & (collections.length - 1)]);
+    }
+
+    /**
+     * Submits tasks to a delegate executor, blocking the submitting thread while too many tasks are pending.
+     */
+    private static final class BoundedExecutor implements Executor {
+        private final Executor delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(Executor delegate, int maxPendingTasks) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxPendingTasks);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            permits.acquireUninterruptibly();
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.metrics.MetricCollection;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes synchronously from many threads at once, so that every thread contends on the shared attribute cache and
+ * instruments. A wider operation name spread produces more distinct series and a colder cache. The pre-aggregated
+ * variant moves the OpenTelemetry SDK recording to the background flusher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class OtelMetricPublisherContentionBenchmark {
+
+    @Param({"noop", "sdk"})
+    public String openTelemetry;
+
+    @Param({"8", "512"})
+    public int operationCount;
+
+    @Param({"direct", "preaggregated"})
+    public String recording;
+
+    private OtelMetricPublisher publisher;
+    private SdkMeterProvider meterProvider;
+    private MetricCollection[] collections;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setUp() {
+        OpenTelemetry otel;
+        if ("sdk".equals(openTelemetry)) {
+            meterProvider = SdkMeterProvider.builder()
+                    .registerMetricReader(InMemoryMetricReader.create())
+                    .build();
+            otel = OpenTelemetrySdk.builder().setMeterProvider(meterProvider).build();
+        } else {
+            otel = OpenTelemetry.noop();
+        }
+        OtelMetricPublisher.Builder builder = OtelMetricPublisher.builder(otel).executor(null);
+        if ("preaggregated".equals(recording)) {
+            builder.preAggregation(Duration.ofSeconds(1));
+        }
+        publisher = builder.build();
+        collections = SyntheticMetricCollections.create(4096, operationCount, 0.2, 7);
+    }
+
+    @TearDown
+    public void tearDown() {
+        publisher.close();
+        if (meterProvider != null) {
+            meterProvider.close();
+        }
+    }
+
+    @Benchmark
+    public void publish(Cursor cursor) {
+        publisher.publish(collections[cursor.next++ & (collections.length - 1)]);
+    }
+}
@@ -0,0 +1,100 @@
+package com.appsflyer.otelawsmetrics;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+import java.time.Duration;
+import java.util.SplittableRandom;
+
+/**
+ * Builds realistic {@link MetricCollection} trees (per-request, per-attempt and HTTP levels) the way the SDK reports
+ * them, including retried attempts with throttling and server errors.
+ */
+final class SyntheticMetricCollections {
+    private static final String[] OPERATIONS = {
+            "GetItem", "PutItem", "Query", "UpdateItem", "BatchGetItem", "DeleteItem", "Scan", "BatchWriteItem"
+    };
+
+    private SyntheticMetricCollections() {
+    }
+
+    /**
+     * Creates {@code count} request collections over the given number of distinct operation names.
+     *
+     * @param retryRatio the ratio of requests that are retried at least once
+     */
+    static MetricCollection[] create(int count, int operationCount, double retryRatio, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        MetricCollection[] collections = new MetricCollection[count];
+        for (int i = 0; i < count; i++) {
+            String operationName = operationName(random.nextInt(operationCount));
+            int retryCount = random.nextDouble() < retryRatio ? 1 + random.nextInt(3) : 0;
+            boolean isSuccess = retryCount < 3;
+            collections[i] = createRequest(random, operationName, retryCount, isSuccess);
+        }
+        return collections;
+    }
+
+    static String operationName(int index) {
+        return index < OPERATIONS.length ? OPERATIONS[index] : "Operation" + index;
+    }
+
+    private static MetricCollection createRequest(SplittableRandom random, String operationName, int retryCount,
+                                                  boolean isSuccess) {
+        MetricCollector request = MetricCollector.create("ApiCall");
+        request.reportMetric(CoreMetric.SERVICE_ID, "DynamoDB");
+        request.reportMetric(CoreMetric.OPERATION_NAME, operationName);
+        request.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, isSuccess);
+        request.reportMetric(CoreMetric.RETRY_COUNT, retryCount);
+        request.reportMetric(CoreMetric.CREDENTIALS_FETCH_DURATION, nanos(random, 2_000, 20_000));
+        request.reportMetric(CoreMetric.ENDPOINT_RESOLVE_DURATION, nanos(random, 5_000, 50_000));
+        request.reportMetric(CoreMetric.MARSHALLING_DURATION, nanos(random, 10_000, 100_000));
+
+        long apiCallNanos = 0;
+        for (int attempt = 0; attempt <= retryCount; attempt++) {
+            boolean lastAttempt = attempt == retryCount;
+            boolean failed = !lastAttempt || !isSuccess;
+            apiCallNanos += reportAttempt(random, request.createChild("ApiCallAttempt"), attempt, failed);
+        }
+        request.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofNanos(apiCallNanos + 150_000));
+        return request.collect();
+    }
+
+    private static long reportAttempt(SplittableRandom random, MetricCollector attempt, int attemptNumber,
+                                      boolean failed) {
+        Duration backoff = attemptNumber == 0 ? Duration.ZERO : nanos(random, 10_000_000, 100_000_000);
+        Duration serviceCall = nanos(random, 1_000_000, 20_000_000);
+        attempt.reportMetric(CoreMetric.BACKOFF_DELAY_DURATION, backoff);
+        attempt.reportMetric(CoreMetric.SIGNING_DURATION, nanos(random, 20_000, 200_000));
+        attempt.reportMetric(CoreMetric.SERVICE_CALL_DURATION, serviceCall);
+        attempt.reportMetric(CoreMetric.TIME_TO_FIRST_BYTE, serviceCall.minusNanos(100_000));
+        attempt.reportMetric(CoreMetric.TIME_TO_LAST_BYTE, serviceCall.plusNanos(200_000));
+        attempt.reportMetric(CoreMetric.READ_THROUGHPUT, 1_000_000 + random.nextDouble() * 10_000_000);
+        attempt.reportMetric(CoreMetric.AWS_REQUEST_ID, "REQUEST-ID");
+        int statusCode = 200;
+        if (failed) {
+            boolean throttled = random.nextBoolean();
+            attempt.reportMetric(CoreMetric.ERROR_TYPE, throttled ? "Throttling" : "ServerError");
+            statusCode = throttled ? 400 : 503;
+        } else {
+            attempt.reportMetric(CoreMetric.UNMARSHALLING_DURATION, nanos(random, 10_000, 200_000));
+        }
+
+        MetricCollector http = attempt.createChild("HttpClient");
+        http.reportMetric(HttpMetric.HTTP_CLIENT_NAME, "NettyNio");
+        http.reportMetric(HttpMetric.HTTP_STATUS_CODE, statusCode);
+        http.reportMetric(HttpMetric.MAX_CONCURRENCY, 50);
+        int leased = random.nextInt(50);
+        http.reportMetric(HttpMetric.LEASED_CONCURRENCY, leased);
+        http.reportMetric(HttpMetric.AVAILABLE_CONCURRENCY, 50 - leased);
+        http.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, leased == 49 ? random.nextInt(10) : 0);
+        http.reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, nanos(random, 1_000, 1_000_000));
+        return backoff.toNanos() + serviceCall.toNanos() + 300_000;
+    }
+
+    private static Duration nanos(SplittableRandom random, long origin, long bound) {
+        return Duration.ofNanos(random.nextLong(origin, bound));
+    }
+}
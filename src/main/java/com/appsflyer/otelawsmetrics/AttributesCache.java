@@ -0,0 +1,293 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.Attributes;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, lock-free cache from a primitive-packed key to the final {@link Attributes} of a series.
+ * <p>
+ * The key packs every dimension of a series into a single {@code long}, so a lookup hashes one primitive and usually
+ * costs one probe. A second {@code long}, the scope, holds the view id of the publisher, since publishers sharing a
+ * cache through an {@link OtelMetricPublisherRegistry} each have their own base attributes, along with the ids of the
+ * optional service endpoint and HTTP client name dimensions. Entries live in an open-addressing table and are found
+ * within a short probe window. When the cache is full, an insert evicts an entry of its window with the CLOCK (second
+ * chance) policy: a hit marks an entry as referenced, and the eviction scan clears those marks before picking an
+ * unreferenced victim.
+ * <p>
+ * Ids are never reclaimed, so once a {@link StringIdTable} is full, or when a value does not fit its field, a series
+ * cannot be packed into a key. Such series are cached in a bounded overflow map keyed by their values instead, which
+ * costs a small key allocation per lookup but still saves building their attributes; the overflow map is cleared when
+ * it is full. {@link AttributesCacheStats#overflowCount()} tells how often this happens.
+ */
+final class AttributesCache {
+    static final int LEVEL_PER_REQUEST = 0;
+    static final int LEVEL_PER_ATTEMPT = 1;
+    static final int LEVEL_HTTP = 2;
+    /**
+     * The attributes of the per-request counters: the operation name and whether the call succeeded.
+     */
+    static final int LEVEL_REQUEST_COUNTERS = 3;
+    /**
+     * The attributes of the per-attempt counters: the operation name.
+     */
+    static final int LEVEL_ATTEMPT_COUNTERS = 4;
+    /**
+     * The attributes of the error counter: the operation name and the error type.
+     */
+    static final int LEVEL_ERROR_COUNTERS = 5;
+
+    /**
+     * Returned by {@link #key} when a dimension does not fit its field; such series are not cached.
+     */
+    static final long UNCACHEABLE = -1L;
+
+    /**
+     * The largest number of distinct operation names or error types that can be packed into a key.
+     */
+    static final int MAX_IDS = 1 << 20;
+
+    /**
+     * The largest number of distinct service endpoints or HTTP client names that can be packed into a scope.
+     */
+    static final int MAX_SCOPE_IDS = 1 << 16;
+
+    private static final int LEVEL_BITS = 3;
+    private static final int SUCCESS_BITS = 1;
+    private static final int RETRY_COUNT_BITS = 8;
+    private static final int STATUS_CODE_BITS = 10;
+    private static final int ID_BITS = 20;
+    private static final int SUCCESS_SHIFT = LEVEL_BITS;
+    private static final int RETRY_COUNT_SHIFT = SUCCESS_SHIFT + SUCCESS_BITS;
+    private static final int STATUS_CODE_SHIFT = RETRY_COUNT_SHIFT + RETRY_COUNT_BITS;
+    private static final int ERROR_TYPE_SHIFT = STATUS_CODE_SHIFT + STATUS_CODE_BITS;
+    private static final int OPERATION_SHIFT = ERROR_TYPE_SHIFT + ID_BITS;
+    private static final int SERVICE_ENDPOINT_SHIFT = 32;
+    private static final int HTTP_CLIENT_NAME_SHIFT = 48;
+
+    private static final int PROBE_WINDOW = 8;
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final int maximumSize;
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ConcurrentHashMap<OverflowKey, Attributes> overflow = new ConcurrentHashMap<>();
+    private final LongAdder overflowLookups = new LongAdder();
+
+    AttributesCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive, but was " + maximumSize);
+        }
+        int capacity = Integer.highestOneBit(Math.max(PROBE_WINDOW, maximumSize) - 1) << 1;
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Packs the dimensions of a series into a cache key.
+     *
+     * @return the key, or {@link #UNCACHEABLE} if an id is missing or a value does not fit its field
+     */
+    static long key(int level, int operationId, boolean isSuccess, int retryCount, int errorTypeId,
+                    int httpStatusCode) {
+        if (operationId < 0 || errorTypeId < 0
+                || retryCount < 0 || retryCount >= 1 << RETRY_COUNT_BITS
+                || httpStatusCode < 0 || httpStatusCode >= 1 << STATUS_CODE_BITS) {
+            return UNCACHEABLE;
+        }
+        return level
+                | (isSuccess ? 1L : 0L) << SUCCESS_SHIFT
+                | (long) retryCount << RETRY_COUNT_SHIFT
+                | (long) httpStatusCode << STATUS_CODE_SHIFT
+                | (long) errorTypeId << ERROR_TYPE_SHIFT
+                | (long) operationId << OPERATION_SHIFT;
+    }
+
+    /**
+     * Packs the view id and the optional dimensions of a series into a cache scope.
+     *
+     * @return the scope, or {@link #UNCACHEABLE} if an id is missing or does not fit its field
+     */
+    static long scope(int viewId, int serviceEndpointId, int httpClientNameId) {
+        if (serviceEndpointId < 0 || serviceEndpointId >= MAX_SCOPE_IDS
+                || httpClientNameId < 0 || httpClientNameId >= MAX_SCOPE_IDS) {
+            return UNCACHEABLE;
+        }
+        return (viewId & 0xFFFFFFFFL)
+                | (long) serviceEndpointId << SERVICE_ENDPOINT_SHIFT
+                | (long) httpClientNameId << HTTP_CLIENT_NAME_SHIFT;
+    }
+
+    Attributes get(long key) {
+        return get(key, 0);
+    }
+
+    /**
+     * Returns the cached attributes for the key within the given scope, or {@code null} on a miss.
+     */
+    Attributes get(long key, long scope) {
+        int index = indexFor(key, scope);
+        for (int probe = 0; probe < PROBE_WINDOW; probe++) {
+            Entry entry = table.get((index + probe) & mask);
+            if (entry != null && entry.key == key && entry.scope == scope) {
+                if (!entry.referenced) {
+                    entry.referenced = true;
+                }
+                hits.increment();
+                return entry.attributes;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(long key, Attributes attributes) {
+        put(key, 0, attributes);
+    }
+
+    /**
+     * Caches the attributes for the key within the given scope, evicting an entry if the cache is full. Racing inserts
+     * of the same key may both succeed; the duplicate is harmless and eventually evicted.
+     */
+    void put(long key, long scope, Attributes attributes) {
+        Entry newEntry = new Entry(key, scope, attributes);
+        int index = indexFor(key, scope);
+        for (int probe = 0; probe < PROBE_WINDOW; probe++) {
+            int slot = (index + probe) & mask;
+            Entry entry = table.get(slot);
+            if (entry == null) {
+                if (size.get() < maximumSize && table.compareAndSet(slot, null, newEntry)) {
+                    size.incrementAndGet();
+                    return;
+                }
+            } else if (entry.key == key && entry.scope == scope) {
+                return;
+            }
+        }
+
+        // Second chance: clear the reference marks of the window until an unreferenced entry is found
+        for (int probe = 0; probe < 2 * PROBE_WINDOW; probe++) {
+            int slot = (index + probe % PROBE_WINDOW) & mask;
+            Entry entry = table.get(slot);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else if (table.compareAndSet(slot, entry, newEntry)) {
+                evictions.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the cached attributes of a series that could not be packed into a key, or {@code null} on a miss.
+     */
+    Attributes getOverflow(OverflowKey key) {
+        overflowLookups.increment();
+        return overflow.get(key);
+    }
+
+    void putOverflow(OverflowKey key, Attributes attributes) {
+        if (overflow.size() >= maximumSize) {
+            overflow.clear();
+        }
+        overflow.put(key, attributes);
+    }
+
+    AttributesCacheStats stats() {
+        return new AttributesCacheStats(size.get(), hits.sum(), misses.sum(), evictions.sum(), overflowLookups.sum());
+    }
+
+    private int indexFor(long key, long scope) {
+        // The finalizer of MurmurHash3, spreading every key bit over the index
+        long hash = key ^ scope * 0x9e3779b97f4a7c15L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3f99b9ab4f6L;
+        hash ^= hash >>> 33;
+        return (int) hash & mask;
+    }
+
+    /**
+     * The dimension values of a series that could not be packed into a key. Dimensions that the level does not carry
+     * are {@code null} or zero.
+     */
+    static final class OverflowKey {
+        private final int level;
+        private final int viewId;
+        private final String operationName;
+        private final boolean isSuccess;
+        private final int retryCount;
+        private final String errorType;
+        private final int httpStatusCode;
+        private final String serviceEndpoint;
+        private final String httpClientName;
+
+        OverflowKey(int level, int viewId, String operationName, boolean isSuccess, int retryCount, String errorType,
+                    int httpStatusCode, String serviceEndpoint, String httpClientName) {
+            this.level = level;
+            this.viewId = viewId;
+            this.operationName = operationName;
+            this.isSuccess = isSuccess;
+            this.retryCount = retryCount;
+            this.errorType = errorType;
+            this.httpStatusCode = httpStatusCode;
+            this.serviceEndpoint = serviceEndpoint;
+            this.httpClientName = httpClientName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof OverflowKey)) {
+                return false;
+            }
+            OverflowKey other = (OverflowKey) o;
+            return level == other.level && viewId == other.viewId && isSuccess == other.isSuccess
+                    && retryCount == other.retryCount && httpStatusCode == other.httpStatusCode
+                    && Objects.equals(operationName, other.operationName) && Objects.equals(errorType, other.errorType)
+                    && Objects.equals(serviceEndpoint, other.serviceEndpoint)
+                    && Objects.equals(httpClientName, other.httpClientName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = level;
+            result = 31 * result + viewId;
+            result = 31 * result + Objects.hashCode(operationName);
+            result = 31 * result + (isSuccess ? 1 : 0);
+            result = 31 * result + retryCount;
+            result = 31 * result + Objects.hashCode(errorType);
+            result = 31 * result + httpStatusCode;
+            result = 31 * result + Objects.hashCode(serviceEndpoint);
+            result = 31 * result + Objects.hashCode(httpClientName);
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        private final long key;
+        private final long scope;
+        private final Attributes attributes;
+        private volatile boolean referenced;
+
+        private Entry(long key, long scope, Attributes attributes) {
+            this.key = key;
+            this.scope = scope;
+            this.attributes = attributes;
+        }
+    }
+}
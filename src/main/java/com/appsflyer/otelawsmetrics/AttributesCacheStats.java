@@ -0,0 +1,63 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * A point-in-time snapshot of the attribute cache of an {@link OtelMetricPublisher}.
+ */
+public final class AttributesCacheStats {
+    private final int size;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long overflowCount;
+
+    AttributesCacheStats(int size, long hitCount, long missCount, long evictionCount, long overflowCount) {
+        this.size = size;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.overflowCount = overflowCount;
+    }
+
+    /**
+     * The number of cached attribute sets.
+     */
+    public int size() {
+        return size;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * The number of lookups of series that could not be packed into a cache key, because the table of operation
+     * names, error types, service endpoints or HTTP client names was full, or a value did not fit its field. Such
+     * series are served by a slower overflow map; a growing count means the attribute cache maximum size is too small
+     * for the cardinality of these dimensions.
+     */
+    public long overflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * The ratio of lookups that were served from the cache, or 1 if there were no lookups yet.
+     */
+    public double hitRatio() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 1.0 : (double) hitCount / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "AttributesCacheStats{size=" + size + ", hitCount=" + hitCount + ", missCount=" + missCount
+                + ", evictionCount=" + evictionCount + ", overflowCount=" + overflowCount + "}";
+    }
+}
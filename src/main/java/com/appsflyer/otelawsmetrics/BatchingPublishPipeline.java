@@ -0,0 +1,238 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.metrics.MetricCollection;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hands {@link MetricCollection}s from the SDK's completion threads to a few dedicated consumer threads through a
+ * {@link BoundedMpmcQueue}. Consumers drain the queue in batches, and spin briefly once it is empty before parking
+ * without a deadline, so that idle consumers cost nothing. A producer pays for a single enqueue and a volatile read,
+ * and only unparks a consumer when one is parked.
+ * <p>
+ * Consumers only exit once the pipeline is closed: a collection whose publication throws is logged and counted as
+ * dropped, and a stray interrupt is cleared.
+ *
+ * @param <E> the type of the queued elements, a {@link MetricCollection} or a collection along with its publisher
+ */
+final class BatchingPublishPipeline<E> {
+    private static final Logger log = LoggerFactory.getLogger(BatchingPublishPipeline.class);
+    private static final int SPIN_ROUNDS = 16;
+
+    private final BoundedMpmcQueue<E> queue;
+    private final Consumer<E> sink;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final Thread[] consumers;
+    private final LongAdder droppedCollections = new LongAdder();
+    private final AtomicBoolean dropReported = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * Whether each consumer is parked, or about to park, waiting for a producer to unpark it.
+     */
+    private final AtomicIntegerArray parked;
+    private final AtomicInteger parkedConsumers = new AtomicInteger();
+    /**
+     * Set once the consumers are gone, so that producers that passed the closed check drop what they enqueued.
+     */
+    private volatile boolean terminated;
+    private volatile long drainDeadlineNanos = Long.MAX_VALUE;
+
+    BatchingPublishPipeline(Consumer<E> sink, int queueCapacity, int consumerThreads, int batchSize,
+                            OverflowPolicy overflowPolicy, String threadNamePrefix) {
+        this.queue = new BoundedMpmcQueue<>(queueCapacity);
+        this.sink = sink;
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.consumers = new Thread[consumerThreads];
+        this.parked = new AtomicIntegerArray(consumerThreads);
+        for (int i = 0; i < consumerThreads; i++) {
+            int index = i;
+            Thread consumer = new Thread(() -> consume(index), threadNamePrefix + i);
+            consumer.setDaemon(true);
+            consumers[i] = consumer;
+        }
+        for (Thread consumer : consumers) {
+            consumer.start();
+        }
+    }
+
+    void submit(E metricCollection) {
+        if (closed.get()) {
+            drop("the publisher is closed");
+            return;
+        }
+        if (offer(metricCollection)) {
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case CALLER_RUNS:
+                sink.accept(metricCollection);
+                break;
+            case DROP_OLDEST:
+                // Evict until there is room; another producer may take the freed slot, so retry a bounded number of times
+                for (int attempt = 0; attempt < 4; attempt++) {
+                    if (queue.poll() != null) {
+                        drop("the publishing queue is full");
+                    }
+                    if (offer(metricCollection)) {
+                        return;
+                    }
+                }
+                drop("the publishing queue is full");
+                break;
+            case DROP_NEWEST:
+            default:
+                drop("the publishing queue is full");
+                break;
+        }
+    }
+
+    private boolean offer(E metricCollection) {
+        if (!queue.offer(metricCollection)) {
+            return false;
+        }
+        if (parkedConsumers.get() > 0) {
+            unparkOne();
+        }
+        if (terminated) {
+            // The consumers exited after this producer checked the closed flag
+            for (E dropped = queue.poll(); dropped != null; dropped = queue.poll()) {
+                drop("the publisher is closed");
+            }
+        }
+        return true;
+    }
+
+    private void unparkOne() {
+        for (int i = 0; i < consumers.length; i++) {
+            if (parked.compareAndSet(i, 1, 0)) {
+                parkedConsumers.decrementAndGet();
+                LockSupport.unpark(consumers[i]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new collections and waits until the consumers have drained the queue or the timeout elapses.
+     * Collections still queued at the deadline are dropped.
+     */
+    void close(Duration timeout) {
+        if (closed.get()) {
+            return;
+        }
+        // The deadline must be visible before consumers can observe the closed flag
+        long deadline = System.nanoTime() + timeout.toNanos();
+        drainDeadlineNanos = deadline;
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        for (Thread consumer : consumers) {
+            LockSupport.unpark(consumer);
+        }
+        try {
+            for (Thread consumer : consumers) {
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos > 0) {
+                    TimeUnit.NANOSECONDS.timedJoin(consumer, remainingNanos);
+                }
+                if (consumer.isAlive()) {
+                    consumer.interrupt();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        terminated = true;
+        int remaining = 0;
+        while (queue.poll() != null) {
+            remaining++;
+        }
+        if (remaining > 0) {
+            droppedCollections.add(remaining);
+            log.warn("{} AWS SDK client-side metric collections were dropped because they were not published within {}.",
+                    remaining, timeout);
+        }
+    }
+
+    long droppedCollections() {
+        return droppedCollections.sum();
+    }
+
+    int queueSize() {
+        return queue.size();
+    }
+
+    private void consume(int index) {
+        @SuppressWarnings("unchecked")
+        E[] batch = (E[]) new Object[batchSize];
+        int idleRounds = 0;
+        while (true) {
+            // Only close() stops the consumers, by setting the closed flag before interrupting them
+            Thread.interrupted();
+            int drained = queue.drain(batch, batchSize);
+            if (drained > 0) {
+                idleRounds = 0;
+                for (int i = 0; i < drained; i++) {
+                    E metricCollection = batch[i];
+                    batch[i] = null;
+                    accept(metricCollection);
+                }
+                if (closed.get() && System.nanoTime() - drainDeadlineNanos > 0) {
+                    return;
+                }
+            } else if (closed.get()) {
+                return;
+            } else if (idleRounds++ < SPIN_ROUNDS) {
+                Thread.yield();
+            } else {
+                park(index);
+            }
+        }
+    }
+
+    private void accept(E metricCollection) {
+        try {
+            sink.accept(metricCollection);
+        } catch (Throwable t) {
+            droppedCollections.increment();
+            log.error("An AWS SDK client-side metric collection was dropped because its publication failed.", t);
+        }
+    }
+
+    /**
+     * Parks the given consumer until a producer enqueues a collection or the pipeline is closed.
+     */
+    private void park(int index) {
+        parked.set(index, 1);
+        parkedConsumers.incrementAndGet();
+        // Re-check after announcing the park: a producer that enqueued before reading the announcement is seen here
+        if (queue.isEmpty() && !closed.get()) {
+            LockSupport.park(this);
+        }
+        if (parked.compareAndSet(index, 1, 0)) {
+            parkedConsumers.decrementAndGet();
+        }
+    }
+
+    private void drop(String reason) {
+        droppedCollections.increment();
+        if (dropReported.compareAndSet(false, true)) {
+            log.warn("Some AWS SDK client-side metrics have been dropped because {}. Further drops are only counted.",
+                    reason);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer array queue (Dmitry Vyukov's algorithm).
+ * <p>
+ * Every slot carries a sequence number that tells producers and consumers whether it is free for the current lap.
+ * An offer or a poll costs a single CAS on the uncontended path and never allocates. The queue is multi-consumer so
+ * that producers may evict the oldest element themselves when it is full.
+ */
+final class BoundedMpmcQueue<E> {
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    BoundedMpmcQueue(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2, but was " + requestedCapacity);
+        }
+        int capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.elements = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Inserts the element if the queue is not full.
+     *
+     * @return {@code false} if the queue is full
+     */
+    boolean offer(E element) {
+        while (true) {
+            long index = producerIndex.get();
+            int slot = (int) index & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == index) {
+                if (producerIndex.compareAndSet(index, index + 1)) {
+                    elements[slot] = element;
+                    // Publishes the element to consumers
+                    sequences.set(slot, index + 1);
+                    return true;
+                }
+            } else if (sequence < index) {
+                return false;
+            }
+            // Another producer claimed the slot, retry with a fresh index
+        }
+    }
+
+    /**
+     * Removes the oldest element.
+     *
+     * @return the oldest element, or {@code null} if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        while (true) {
+            long index = consumerIndex.get();
+            int slot = (int) index & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == index + 1) {
+                if (consumerIndex.compareAndSet(index, index + 1)) {
+                    E element = (E) elements[slot];
+                    elements[slot] = null;
+                    // Hands the slot back to producers for the next lap
+                    sequences.set(slot, index + elements.length);
+                    return element;
+                }
+            } else if (sequence < index + 1) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code limit} elements into {@code batch}, starting at index zero.
+     *
+     * @return the number of elements moved
+     */
+    int drain(E[] batch, int limit) {
+        int count = 0;
+        while (count < limit) {
+            E element = poll();
+            if (element == null) {
+                break;
+            }
+            batch[count++] = element;
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        return (int) Math.max(0, Math.min(size, elements.length));
+    }
+
+    int capacity() {
+        return elements.length;
+    }
+}
@@ -0,0 +1,52 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * A point-in-time snapshot of the cardinality limit of a dimension of an {@link OtelMetricPublisher}.
+ */
+public final class CardinalityLimitStats {
+    private final int maxValues;
+    private final int admittedValues;
+    private final long foldedCount;
+    private final long promotionCount;
+
+    CardinalityLimitStats(int maxValues, int admittedValues, long foldedCount, long promotionCount) {
+        this.maxValues = maxValues;
+        this.admittedValues = admittedValues;
+        this.foldedCount = foldedCount;
+        this.promotionCount = promotionCount;
+    }
+
+    /**
+     * The maximum number of values reported as themselves, or 0 if the dimension is not limited.
+     */
+    public int maxValues() {
+        return maxValues;
+    }
+
+    /**
+     * The number of values currently reported as themselves.
+     */
+    public int admittedValues() {
+        return admittedValues;
+    }
+
+    /**
+     * The number of occurrences of values that were reported as {@code other}.
+     */
+    public long foldedCount() {
+        return foldedCount;
+    }
+
+    /**
+     * The number of times a value became frequent enough to replace the least frequent admitted value.
+     */
+    public long promotionCount() {
+        return promotionCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CardinalityLimitStats{maxValues=" + maxValues + ", admittedValues=" + admittedValues
+                + ", foldedCount=" + foldedCount + ", promotionCount=" + promotionCount + "}";
+    }
+}
@@ -0,0 +1,252 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of distinct values of a dimension, keeping the most frequent ones and folding the others into
+ * {@link #OTHER}.
+ * <p>
+ * The first {@code maxValues} distinct values are admitted as they come. Once the limit is reached, the values that are
+ * not admitted are folded, and counted in a space-saving sketch of as many candidates: a new candidate replaces the
+ * least frequent one and inherits its count as its error. A candidate whose guaranteed count, its count minus its
+ * error, exceeds the count of the least frequent admitted value takes its place, so the admitted values converge to
+ * the most frequent ones while only a bounded number of values are ever reported.
+ * <p>
+ * Admitted values cost a map lookup and a {@link LongAdder} increment. Folded values update the sketch under a lock
+ * that is only tried, so that a burst of new values never blocks the publishing threads; the values folded while the
+ * lock is contended are not counted in the sketch. The candidates are kept in a min-heap, so counting a folded value
+ * costs {@code O(log maxValues)}. Looking for the least frequent admitted value scans them all, in
+ * {@code O(maxValues)}, but only when a candidate's guaranteed count exceeds the last known minimum.
+ */
+final class CardinalityLimiter {
+    /**
+     * The value reported instead of the values that are not admitted.
+     */
+    static final String OTHER = "other";
+
+    private final int maxValues;
+    private final ConcurrentHashMap<String, LongAdder> admitted = new ConcurrentHashMap<>();
+    private final LongAdder foldedCount = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * The candidates of the space-saving sketch by value, guarded by {@link #lock}.
+     */
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    /**
+     * The candidates ordered by count in a binary min-heap, guarded by {@link #lock}.
+     */
+    private final Candidate[] heap;
+    private int heapSize;
+    /**
+     * A lower bound of the count of the least frequent admitted value, guarded by {@link #lock}.
+     */
+    private long admissionThreshold;
+    private volatile long promotionCount;
+
+    CardinalityLimiter(int maxValues) {
+        this.maxValues = maxValues;
+        this.heap = new Candidate[maxValues];
+    }
+
+    /**
+     * Returns the given value if it is admitted, or {@link #OTHER}.
+     */
+    String limit(String value) {
+        LongAdder hits = admitted.get(value);
+        if (hits != null) {
+            hits.increment();
+            return value;
+        }
+        return admitOrFold(value);
+    }
+
+    /**
+     * Returns the given value if it is admitted, or {@link #OTHER}, without counting an occurrence. A value that is not
+     * admitted yet is admitted with no occurrences while there is room, so it is the first to be replaced by a frequent
+     * value.
+     */
+    String admitUncounted(String value) {
+        if (admitted.containsKey(value)) {
+            return value;
+        }
+        lock.lock();
+        try {
+            if (admitted.containsKey(value)) {
+                return value;
+            }
+            if (admitted.size() < maxValues) {
+                admitted.put(value, new LongAdder());
+                return value;
+            }
+            return OTHER;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    CardinalityLimitStats stats() {
+        return new CardinalityLimitStats(maxValues, admitted.size(), foldedCount.sum(), promotionCount);
+    }
+
+    private String admitOrFold(String value) {
+        if (admitted.size() < maxValues) {
+            lock.lock();
+        } else if (!lock.tryLock()) {
+            foldedCount.increment();
+            return OTHER;
+        }
+        try {
+            LongAdder hits = admitted.get(value);
+            if (hits == null && admitted.size() < maxValues) {
+                hits = new LongAdder();
+                admitted.put(value, hits);
+            }
+            if (hits != null) {
+                hits.increment();
+                return value;
+            }
+            Candidate candidate = offer(value);
+            if (candidate.count - candidate.error > admissionThreshold && promote(candidate)) {
+                return value;
+            }
+            foldedCount.increment();
+            return OTHER;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts an occurrence of the given value in the sketch.
+     *
+     * @return the candidate of the value
+     */
+    private Candidate offer(String value) {
+        Candidate candidate = candidates.get(value);
+        if (candidate != null) {
+            candidate.count++;
+            siftDown(candidate.index);
+            return candidate;
+        }
+        if (heapSize < maxValues) {
+            candidate = new Candidate(value, 1, 0);
+            candidates.put(value, candidate);
+            add(candidate);
+            return candidate;
+        }
+        // Replace the least frequent candidate, which inherits its count as its error
+        candidate = heap[0];
+        candidates.remove(candidate.value);
+        candidate.value = value;
+        candidate.error = candidate.count;
+        candidate.count++;
+        candidates.put(value, candidate);
+        siftDown(0);
+        return candidate;
+    }
+
+    /**
+     * Admits the given candidate in place of the least frequent admitted value, if the candidate is more frequent.
+     */
+    private boolean promote(Candidate candidate) {
+        String leastFrequent = null;
+        long minimumCount = Long.MAX_VALUE;
+        for (Map.Entry<String, LongAdder> entry : admitted.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count < minimumCount) {
+                leastFrequent = entry.getKey();
+                minimumCount = count;
+            }
+        }
+        long guaranteedCount = candidate.count - candidate.error;
+        if (leastFrequent == null || guaranteedCount <= minimumCount) {
+            admissionThreshold = minimumCount;
+            return false;
+        }
+        admitted.remove(leastFrequent);
+        candidates.remove(candidate.value);
+        remove(candidate);
+        Candidate demoted = new Candidate(leastFrequent, minimumCount, 0);
+        candidates.put(leastFrequent, demoted);
+        add(demoted);
+        LongAdder hits = new LongAdder();
+        hits.add(guaranteedCount);
+        admitted.put(candidate.value, hits);
+        admissionThreshold = Math.min(minimumCount, guaranteedCount);
+        promotionCount++;
+        return true;
+    }
+
+    private void add(Candidate candidate) {
+        candidate.index = heapSize;
+        heap[heapSize++] = candidate;
+        siftUp(candidate.index);
+    }
+
+    private void remove(Candidate candidate) {
+        Candidate last = heap[--heapSize];
+        heap[heapSize] = null;
+        if (last != candidate) {
+            place(last, candidate.index);
+            siftDown(last.index);
+            siftUp(last.index);
+        }
+    }
+
+    private void siftUp(int index) {
+        Candidate candidate = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= candidate.count) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(candidate, index);
+    }
+
+    private void siftDown(int index) {
+        Candidate candidate = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (candidate.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(candidate, index);
+    }
+
+    private void place(Candidate candidate, int index) {
+        heap[index] = candidate;
+        candidate.index = index;
+    }
+
+    /**
+     * A value of the space-saving sketch, with its count, the error of that count, and its index in the heap.
+     */
+    private static final class Candidate {
+        private String value;
+        private long count;
+        private long error;
+        private int index;
+
+        private Candidate(String value, long count, long error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+/**
+ * Tracks the latest connection pool state of every HTTP client in lock-free cells, and reports it through observable
+ * gauges that are only read when metrics are collected.
+ * <p>
+ * Pool state describes the HTTP client rather than the request, so the gauges carry the base attributes and the
+ * {@code http_client_name} only. Optionally, the maximum of the leased concurrency and of the pending acquires since
+ * the previous collection is reported as well, so that saturation spikes shorter than the collection interval are not
+ * lost. The maximum is reset on every collection, so it is only meaningful with a single metric reader.
+ * <p>
+ * Every publisher sharing the gauges keeps the pools of its HTTP clients in its own {@link Cells}.
+ */
+final class ConnectionPoolGauges {
+    static final int AVAILABLE_CONCURRENCY = 0;
+    static final int LEASED_CONCURRENCY = 1;
+    static final int MAX_CONCURRENCY = 2;
+    static final int PENDING_CONCURRENCY_ACQUIRES = 3;
+    static final int GAUGE_COUNT = 4;
+    /**
+     * Marks a gauge that was not reported.
+     */
+    static final long NO_VALUE = Long.MIN_VALUE;
+
+    private static final String UNKNOWN_CLIENT = "";
+
+    private final boolean trackIntervalMaximum;
+    private final Predicate<SdkMetric<?>> enabled;
+    private final List<Cells> cells = new CopyOnWriteArrayList<>();
+    private final List<ObservableLongGauge> gauges = new ArrayList<>();
+
+    /**
+     * @param enabled whether the gauge of a connection pool metric is registered
+     */
+    ConnectionPoolGauges(Meter meter, String metricPrefix, boolean trackIntervalMaximum,
+                         Predicate<SdkMetric<?>> enabled) {
+        this.trackIntervalMaximum = trackIntervalMaximum;
+        this.enabled = enabled;
+
+        gauge(meter, HttpMetric.AVAILABLE_CONCURRENCY, metricPrefix + "available_concurrency",
+                "The number of remaining concurrent requests that can be supported by the HTTP client without needing to establish another connection",
+                AVAILABLE_CONCURRENCY, false);
+        gauge(meter, HttpMetric.LEASED_CONCURRENCY, metricPrefix + "leased_concurrency",
+                "The number of request currently being executed by the HTTP client",
+                LEASED_CONCURRENCY, false);
+        gauge(meter, HttpMetric.MAX_CONCURRENCY, metricPrefix + "max_concurrency",
+                "The max number of concurrent requests supported by the HTTP client",
+                MAX_CONCURRENCY, false);
+        gauge(meter, HttpMetric.PENDING_CONCURRENCY_ACQUIRES, metricPrefix + "pending_concurrency_acquires",
+                "The number of requests that are blocked, waiting for another TCP connection or a new stream to be available from the connection pool",
+                PENDING_CONCURRENCY_ACQUIRES, false);
+        if (trackIntervalMaximum) {
+            gauge(meter, HttpMetric.LEASED_CONCURRENCY, metricPrefix + "leased_concurrency_max",
+                    "The maximum number of requests executed concurrently by the HTTP client since the previous collection",
+                    LEASED_CONCURRENCY, true);
+            gauge(meter, HttpMetric.PENDING_CONCURRENCY_ACQUIRES, metricPrefix + "pending_concurrency_acquires_max",
+                    "The maximum number of requests waiting for a connection or a stream since the previous collection",
+                    PENDING_CONCURRENCY_ACQUIRES, true);
+        }
+    }
+
+    /**
+     * The index of the gauge that tracks the given metric, or -1 if the metric is not a connection pool metric.
+     */
+    static int indexOf(SdkMetric<?> metric) {
+        if (metric == HttpMetric.AVAILABLE_CONCURRENCY) {
+            return AVAILABLE_CONCURRENCY;
+        } else if (metric == HttpMetric.LEASED_CONCURRENCY) {
+            return LEASED_CONCURRENCY;
+        } else if (metric == HttpMetric.MAX_CONCURRENCY) {
+            return MAX_CONCURRENCY;
+        } else if (metric == HttpMetric.PENDING_CONCURRENCY_ACQUIRES) {
+            return PENDING_CONCURRENCY_ACQUIRES;
+        }
+        return -1;
+    }
+
+    /**
+     * Creates the cells of a publisher, whose gauges carry the given base attributes.
+     */
+    Cells newCells(Attributes baseAttributes) {
+        Cells created = new Cells(baseAttributes);
+        cells.add(created);
+        return created;
+    }
+
+    /**
+     * Stops reporting the pools of the given cells.
+     */
+    void remove(Cells removed) {
+        cells.remove(removed);
+    }
+
+    /**
+     * Unregisters the gauges, which are no longer reported.
+     */
+    void close() {
+        for (ObservableLongGauge gauge : gauges) {
+            gauge.close();
+        }
+    }
+
+    private void gauge(Meter meter, SdkMetric<?> metric, String name, String description, int gauge,
+                       boolean intervalMaximum) {
+        if (!enabled.test(metric)) {
+            return;
+        }
+        gauges.add(meter.gaugeBuilder(name)
+                .setDescription(description)
+                .ofLongs()
+                .buildWithCallback(measurement -> observe(measurement, gauge, intervalMaximum)));
+    }
+
+    private void observe(ObservableLongMeasurement measurement, int gauge, boolean intervalMaximum) {
+        for (Cells publisherCells : cells) {
+            publisherCells.observe(measurement, gauge, intervalMaximum);
+        }
+    }
+
+    /**
+     * The pools of the HTTP clients of one publisher.
+     */
+    final class Cells {
+        private final Attributes baseAttributes;
+        private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+        private Cells(Attributes baseAttributes) {
+            this.baseAttributes = baseAttributes;
+        }
+
+        /**
+         * Updates the state of the given HTTP client's pool.
+         *
+         * @param values the reported values indexed by gauge, {@link #NO_VALUE} for gauges that were not reported
+         */
+        void update(String httpClientName, long[] values) {
+            String key = httpClientName == null ? UNKNOWN_CLIENT : httpClientName;
+            Pool pool = pools.get(key);
+            if (pool == null) {
+                pool = pools.computeIfAbsent(key, this::newPool);
+            }
+            for (int gauge = 0; gauge < GAUGE_COUNT; gauge++) {
+                long value = values[gauge];
+                if (value != NO_VALUE) {
+                    pool.latest.set(gauge, value);
+                    if (trackIntervalMaximum) {
+                        long maximum;
+                        while (value > (maximum = pool.maximums.get(gauge))
+                                && !pool.maximums.compareAndSet(gauge, maximum, value)) {
+                            // Retry with the updated maximum
+                        }
+                    }
+                }
+            }
+        }
+
+        private Pool newPool(String httpClientName) {
+            Attributes attributes = httpClientName.isEmpty()
+                    ? baseAttributes
+                    : baseAttributes.toBuilder().put("http_client_name", httpClientName).build();
+            return new Pool(attributes);
+        }
+
+        private void observe(ObservableLongMeasurement measurement, int gauge, boolean intervalMaximum) {
+            for (Pool pool : pools.values()) {
+                long latest = pool.latest.get(gauge);
+                if (latest == NO_VALUE) {
+                    continue;
+                }
+                if (intervalMaximum) {
+                    // Start the next interval from the latest value, which is still current
+                    long maximum = pool.maximums.getAndSet(gauge, latest);
+                    measurement.record(Math.max(maximum, latest), pool.attributes);
+                } else {
+                    measurement.record(latest, pool.attributes);
+                }
+            }
+        }
+    }
+
+    private static final class Pool {
+        private final Attributes attributes;
+        private final AtomicLongArray latest = new AtomicLongArray(GAUGE_COUNT);
+        private final AtomicLongArray maximums = new AtomicLongArray(GAUGE_COUNT);
+
+        private Pool(Attributes attributes) {
+            this.attributes = attributes;
+            for (int gauge = 0; gauge < GAUGE_COUNT; gauge++) {
+                latest.set(gauge, NO_VALUE);
+                maximums.set(gauge, NO_VALUE);
+            }
+        }
+    }
+}
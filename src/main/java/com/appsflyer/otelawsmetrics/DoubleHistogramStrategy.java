@@ -12,9 +12,13 @@ public class DoubleHistogramStrategy implements MetricStrategy {
     private final DoubleHistogram histogram;
 
     public DoubleHistogramStrategy(Meter meter, String metricName, String description) {
-        this.histogram = meter.histogramBuilder(metricName)
+        this(meter.histogramBuilder(metricName)
                 .setDescription(description)
-                .build();
+                .build());
+    }
+
+    public DoubleHistogramStrategy(DoubleHistogram histogram) {
+        this.histogram = histogram;
     }
 
     @Override
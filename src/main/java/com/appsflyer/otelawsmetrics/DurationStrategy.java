@@ -1,6 +1,7 @@
 package com.appsflyer.otelawsmetrics;
 
 import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
 import org.slf4j.Logger;
@@ -8,26 +9,55 @@ import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.metrics.MetricRecord;
 
 import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Records durations either as whole nanoseconds into a {@link LongHistogram}, or as fractional units (for example
+ * milliseconds or seconds) into a {@link DoubleHistogram}.
+ */
 public class DurationStrategy implements MetricStrategy {
     private static final Logger log = LoggerFactory.getLogger(DurationStrategy.class);
     private final LongHistogram histogram;
+    private final DoubleHistogram unitHistogram;
+    private final double nanosPerUnit;
 
     public DurationStrategy(Meter meter, String metricName, String description) {
-        this.histogram = meter.histogramBuilder(metricName)
+        this(meter.histogramBuilder(metricName)
                 .setDescription(description)
                 .setUnit("ns")
                 .ofLongs()
-                .build();
+                .build());
+    }
+
+    public DurationStrategy(LongHistogram histogram) {
+        this.histogram = histogram;
+        this.unitHistogram = null;
+        this.nanosPerUnit = 1;
+    }
+
+    public DurationStrategy(DoubleHistogram histogram, TimeUnit unit) {
+        this.histogram = null;
+        this.unitHistogram = histogram;
+        this.nanosPerUnit = unit.toNanos(1);
     }
 
     @Override
     public void record(MetricRecord<?> metricRecord, Attributes attributes) {
         if (metricRecord.value() instanceof Duration) {
-            Duration duration = (Duration) metricRecord.value();
-            histogram.record(duration.toNanos(), attributes);
+            recordNanos(((Duration) metricRecord.value()).toNanos(), attributes);
         } else {
             log.warn("Invalid value type for duration metric: {}", metricRecord.metric().name());
         }
     }
+
+    /**
+     * Records a duration computed by the publisher rather than reported by the SDK.
+     */
+    void recordNanos(long nanos, Attributes attributes) {
+        if (histogram != null) {
+            histogram.record(nanos, attributes);
+        } else {
+            unitHistogram.record(nanos / nanosPerUnit, attributes);
+        }
+    }
 }
@@ -0,0 +1,304 @@
+package com.appsflyer.otelawsmetrics;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricRecord;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the slowest calls of every operation, and the most recent failed or slow calls, with the duration of every
+ * phase of each call.
+ * <p>
+ * Admission only reads the top-level records of a collection and compares the call duration with the shortest call
+ * kept for its operation; the collection tree is only flattened into a {@link RecordedCall} for the calls that are
+ * kept. Both structures are lock-free and bounded: the slowest calls replace the shortest kept call with a
+ * compare-and-set, and the recent calls overwrite the oldest slot of a ring buffer.
+ */
+public final class FlightRecorder {
+    private static final Comparator<RecordedCall> SLOWEST_FIRST =
+            Comparator.comparingLong(RecordedCall::durationNanos).reversed();
+    /**
+     * Bounds the operations tracked, in case operation names are not the SDK's.
+     */
+    private static final int MAX_OPERATIONS = 1024;
+    private static final String UNKNOWN_OPERATION = "unknown";
+
+    private final int slowestCallsPerOperation;
+    private final long slowCallThresholdNanos;
+    private final ConcurrentMap<String, SlowestCalls> slowestCalls = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<RecordedCall> recentCalls;
+    private final AtomicLong recentCallsSequence = new AtomicLong();
+
+    /**
+     * @param slowestCallsPerOperation the number of slowest calls kept per operation
+     * @param recentCalls              the number of recent failed or slow calls kept
+     * @param slowCallThreshold        the duration above which a call is kept as a recent call, or {@code null} to
+     *                                 only keep failed calls
+     */
+    FlightRecorder(int slowestCallsPerOperation, int recentCalls, Duration slowCallThreshold) {
+        this.slowestCallsPerOperation = slowestCallsPerOperation;
+        this.recentCalls = new AtomicReferenceArray<>(recentCalls);
+        this.slowCallThresholdNanos = slowCallThreshold == null ? Long.MAX_VALUE : slowCallThreshold.toNanos();
+    }
+
+    /**
+     * Keeps the given call if it is one of the slowest of its operation, or if it failed or was slow.
+     */
+    void record(MetricCollection requestMetrics) {
+        String operationName = UNKNOWN_OPERATION;
+        long durationNanos = -1;
+        boolean isSuccess = true;
+        int retryCount = 0;
+        for (MetricRecord<?> metricRecord : requestMetrics) {
+            SdkMetric<?> metric = metricRecord.metric();
+            Object value = metricRecord.value();
+            if (metric == CoreMetric.OPERATION_NAME) {
+                if (value instanceof String) {
+                    operationName = (String) value;
+                }
+            } else if (metric == CoreMetric.API_CALL_DURATION) {
+                if (value instanceof Duration) {
+                    durationNanos = ((Duration) value).toNanos();
+                }
+            } else if (metric == CoreMetric.API_CALL_SUCCESSFUL) {
+                isSuccess = !Boolean.FALSE.equals(value);
+            } else if (metric == CoreMetric.RETRY_COUNT) {
+                if (value instanceof Integer) {
+                    retryCount = (Integer) value;
+                }
+            }
+        }
+
+        SlowestCalls operationCalls = durationNanos < 0 ? null : slowestCallsOf(operationName);
+        boolean isSlowest = operationCalls != null && durationNanos > operationCalls.thresholdNanos;
+        boolean isRecent = recentCalls.length() > 0 && (!isSuccess || durationNanos > slowCallThresholdNanos);
+        if (!isSlowest && !isRecent) {
+            return;
+        }
+
+        RecordedCall call = flatten(requestMetrics, operationName, Math.max(durationNanos, 0), isSuccess, retryCount);
+        if (isSlowest) {
+            operationCalls.offer(call);
+        }
+        if (isRecent) {
+            long sequence = recentCallsSequence.getAndIncrement();
+            recentCalls.set((int) (sequence % recentCalls.length()), call);
+        }
+    }
+
+    /**
+     * The slowest calls kept for the given operation, slowest first.
+     */
+    public List<RecordedCall> slowestCalls(String operationName) {
+        SlowestCalls operationCalls = slowestCalls.get(operationName);
+        return operationCalls == null ? Collections.emptyList() : operationCalls.snapshot();
+    }
+
+    /**
+     * The slowest calls kept for every operation, slowest first, by operation name.
+     */
+    public Map<String, List<RecordedCall>> slowestCalls() {
+        Map<String, List<RecordedCall>> snapshot = new TreeMap<>();
+        for (Map.Entry<String, SlowestCalls> entry : slowestCalls.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * The most recent failed or slow calls, most recent first.
+     */
+    public List<RecordedCall> recentCalls() {
+        int capacity = recentCalls.length();
+        long end = recentCallsSequence.get();
+        List<RecordedCall> snapshot = new ArrayList<>(capacity);
+        for (long sequence = end - 1; sequence >= 0 && sequence >= end - capacity; sequence--) {
+            RecordedCall call = recentCalls.get((int) (sequence % capacity));
+            if (call != null) {
+                snapshot.add(call);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Dumps the kept calls as a JSON object with the {@code slowestCalls} by operation and the {@code recentCalls}.
+     * Phase durations are in nanoseconds.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"slowestCalls\":{");
+        boolean firstOperation = true;
+        for (Map.Entry<String, List<RecordedCall>> entry : slowestCalls().entrySet()) {
+            if (!firstOperation) {
+                json.append(',');
+            }
+            firstOperation = false;
+            appendJsonString(json, entry.getKey());
+            json.append(':');
+            appendJsonArray(json, entry.getValue());
+        }
+        json.append("},\"recentCalls\":");
+        appendJsonArray(json, recentCalls());
+        return json.append('}').toString();
+    }
+
+    private SlowestCalls slowestCallsOf(String operationName) {
+        if (slowestCallsPerOperation == 0) {
+            return null;
+        }
+        SlowestCalls operationCalls = slowestCalls.get(operationName);
+        if (operationCalls == null && slowestCalls.size() < MAX_OPERATIONS) {
+            operationCalls = slowestCalls.computeIfAbsent(operationName, name -> new SlowestCalls(slowestCallsPerOperation));
+        }
+        return operationCalls;
+    }
+
+    private static RecordedCall flatten(MetricCollection requestMetrics, String operationName, long durationNanos,
+                                        boolean isSuccess, int retryCount) {
+        Map<String, Duration> phases = new LinkedHashMap<>();
+        String errorType = flatten(requestMetrics, "", phases, null);
+        return new RecordedCall(operationName, Instant.now(), durationNanos, isSuccess, retryCount, errorType, phases);
+    }
+
+    /**
+     * Adds the durations of the given collection and its children to the phases, and returns the error type of the
+     * last failed attempt.
+     */
+    private static String flatten(MetricCollection collection, String path, Map<String, Duration> phases,
+                                  String errorType) {
+        for (MetricRecord<?> metricRecord : collection) {
+            Object value = metricRecord.value();
+            if (value instanceof Duration) {
+                phases.put(path + metricRecord.metric().name(), (Duration) value);
+            } else if (metricRecord.metric() == CoreMetric.ERROR_TYPE && value instanceof String) {
+                errorType = (String) value;
+            }
+        }
+        Map<String, Integer> siblings = new LinkedHashMap<>();
+        for (MetricCollection child : collection.children()) {
+            int index = siblings.merge(child.name(), 1, Integer::sum) - 1;
+            errorType = flatten(child, path + child.name() + "[" + index + "].", phases, errorType);
+        }
+        return errorType;
+    }
+
+    private static void appendJsonArray(StringBuilder json, List<RecordedCall> calls) {
+        json.append('[');
+        for (int i = 0; i < calls.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            calls.get(i).appendJson(json);
+        }
+        json.append(']');
+    }
+
+    static void appendJsonString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * The slowest calls of one operation. The threshold is the duration of the shortest kept call, or -1 while there
+     * are free slots, so that most calls are rejected with a single volatile read.
+     */
+    private static final class SlowestCalls {
+        private final AtomicReferenceArray<RecordedCall> slots;
+        private volatile long thresholdNanos = -1;
+
+        private SlowestCalls(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        private void offer(RecordedCall call) {
+            while (true) {
+                int shortestSlot = 0;
+                RecordedCall shortest = null;
+                long shortestNanos = Long.MAX_VALUE;
+                for (int slot = 0; slot < slots.length(); slot++) {
+                    RecordedCall kept = slots.get(slot);
+                    long keptNanos = kept == null ? -1 : kept.durationNanos();
+                    if (keptNanos < shortestNanos) {
+                        shortestSlot = slot;
+                        shortest = kept;
+                        shortestNanos = keptNanos;
+                    }
+                }
+                if (call.durationNanos() <= shortestNanos) {
+                    return;
+                }
+                if (slots.compareAndSet(shortestSlot, shortest, call)) {
+                    updateThreshold();
+                    return;
+                }
+                // Another call took the slot, look for the shortest call again
+            }
+        }
+
+        private void updateThreshold() {
+            long shortestNanos = Long.MAX_VALUE;
+            for (int slot = 0; slot < slots.length(); slot++) {
+                RecordedCall kept = slots.get(slot);
+                shortestNanos = Math.min(shortestNanos, kept == null ? -1 : kept.durationNanos());
+            }
+            thresholdNanos = shortestNanos;
+        }
+
+        private List<RecordedCall> snapshot() {
+            List<RecordedCall> snapshot = new ArrayList<>(slots.length());
+            for (int slot = 0; slot < slots.length(); slot++) {
+                RecordedCall kept = slots.get(slot);
+                if (kept != null) {
+                    snapshot.add(kept);
+                }
+            }
+            snapshot.sort(SLOWEST_FIRST);
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The kinds of histograms reported by {@link OtelMetricPublisher}, each with its own bucket boundaries.
+ */
+public enum HistogramType {
+    /**
+     * Durations such as {@code api_call_duration} and {@code time_to_first_byte}. The default boundaries span 100
+     * microseconds to 60 seconds, the range of AWS API call latencies.
+     */
+    DURATION(Arrays.asList(
+            0.1, 0.25, 0.5, 1d, 2.5, 5d, 10d, 25d, 50d, 100d, 250d, 500d, 1_000d, 2_500d, 5_000d, 10_000d, 30_000d,
+            60_000d)),
+
+    /**
+     * Connection pool concurrency, such as {@code leased_concurrency} and {@code pending_concurrency_acquires}.
+     */
+    CONCURRENCY(Arrays.asList(
+            0d, 1d, 2d, 5d, 10d, 25d, 50d, 100d, 250d, 500d, 1_000d, 2_500d, 5_000d)),
+
+    /**
+     * Throughput in bytes per second, such as {@code read_throughput}. The default boundaries span 1 KiB/s to 1 GiB/s.
+     */
+    THROUGHPUT(Arrays.asList(
+            1_024d, 4_096d, 16_384d, 65_536d, 262_144d, 1_048_576d, 4_194_304d, 16_777_216d, 67_108_864d,
+            268_435_456d, 1_073_741_824d)),
+
+    /**
+     * HTTP/2 flow-control window sizes in bytes, such as {@code local_stream_window_size}. The default boundaries span
+     * 0 to 16 MiB, the range of HTTP/2 stream windows.
+     */
+    WINDOW_SIZE(Arrays.asList(
+            0d, 1_024d, 4_096d, 16_384d, 65_535d, 131_072d, 262_144d, 524_288d, 1_048_576d, 2_097_152d, 4_194_304d,
+            8_388_608d, 16_777_216d));
+
+    private final List<Double> defaultBoundaries;
+
+    /**
+     * @param defaultBoundaries the default boundaries; in milliseconds for durations
+     */
+    HistogramType(List<Double> defaultBoundaries) {
+        this.defaultBoundaries = Collections.unmodifiableList(defaultBoundaries);
+    }
+
+    /**
+     * The default bucket boundaries of this type. Duration boundaries are expressed in the given duration unit.
+     */
+    List<Double> defaultBoundaries(TimeUnit durationUnit) {
+        if (this != DURATION) {
+            return defaultBoundaries;
+        }
+        double nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+        double nanosPerUnit = durationUnit.toNanos(1);
+        List<Double> boundaries = new ArrayList<>(defaultBoundaries.size());
+        for (Double boundary : defaultBoundaries) {
+            boundaries.add(boundary * nanosPerMilli / nanosPerUnit);
+        }
+        return Collections.unmodifiableList(boundaries);
+    }
+}
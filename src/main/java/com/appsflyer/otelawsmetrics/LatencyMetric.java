@@ -0,0 +1,19 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * The latencies tracked by {@link LiveLatencies}.
+ */
+public enum LatencyMetric {
+    /**
+     * {@code CoreMetric.API_CALL_DURATION}, inclusive of all retries.
+     */
+    API_CALL_DURATION,
+    /**
+     * {@code CoreMetric.SERVICE_CALL_DURATION} of every attempt.
+     */
+    SERVICE_CALL_DURATION,
+    /**
+     * {@code CoreMetric.TIME_TO_FIRST_BYTE} of every attempt.
+     */
+    TIME_TO_FIRST_BYTE
+}
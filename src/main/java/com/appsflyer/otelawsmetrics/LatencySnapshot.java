@@ -0,0 +1,78 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.time.Duration;
+
+/**
+ * The latency distribution of an operation over the window of {@link LiveLatencies}. Percentiles are accurate to
+ * about 3%; the maximum is exact.
+ */
+public final class LatencySnapshot {
+    static final LatencySnapshot EMPTY = new LatencySnapshot(new long[SlidingWindowHistogram.BUCKETS], 0);
+
+    private final long[] counts;
+    private final long count;
+    private final long maximumNanos;
+
+    LatencySnapshot(long[] counts, long maximumNanos) {
+        this.counts = counts;
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        this.count = total;
+        this.maximumNanos = maximumNanos;
+    }
+
+    /**
+     * The number of values recorded over the window.
+     */
+    public long count() {
+        return count;
+    }
+
+    public Duration p50() {
+        return valueAtPercentile(50);
+    }
+
+    public Duration p90() {
+        return valueAtPercentile(90);
+    }
+
+    public Duration p99() {
+        return valueAtPercentile(99);
+    }
+
+    public Duration max() {
+        return Duration.ofNanos(maximumNanos);
+    }
+
+    /**
+     * The value below which the given percentage of the values fall, or {@link Duration#ZERO} if no value was
+     * recorded.
+     *
+     * @param percentile a percentage in [0, 100]
+     */
+    public Duration valueAtPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile must be in [0, 100], but was " + percentile);
+        }
+        if (count == 0) {
+            return Duration.ZERO;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Duration.ofNanos(Math.min(SlidingWindowHistogram.highestValueOf(bucket), maximumNanos));
+            }
+        }
+        return max();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{count=" + count + ", p50=" + p50() + ", p90=" + p90() + ", p99=" + p99()
+                + ", max=" + max() + "}";
+    }
+}
@@ -0,0 +1,143 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Current latency percentiles of every operation, computed in process over a sliding window, for example to derive
+ * attempt timeouts or hedging delays from live latencies.
+ * <p>
+ * Every operation, and optionally every HTTP status code of an operation, has a {@link SlidingWindowHistogram} per
+ * {@link LatencyMetric}, allocated when its first value is recorded. The series live in a bounded open-addressing
+ * table keyed by primitive ids, so recording is wait-free and never allocates once a series exists; values of series
+ * beyond the maximum number of series, or that do not fit in the table, are not tracked. Queries scan the table, so
+ * their cost depends on its capacity but not on the traffic.
+ * <p>
+ * Each histogram holds 4 slices of 1056 long counts, about 33 KiB, so the memory used is bounded by about 100 KiB per
+ * series.
+ */
+public final class LiveLatencies {
+    private static final int PROBE_LIMIT = 16;
+    private static final int MAX_STATUS_CODE = 1023;
+    private static final LatencyMetric[] METRICS = LatencyMetric.values();
+
+    private final long windowNanos;
+    private final boolean byStatusCode;
+    private final AtomicReferenceArray<Series> series;
+    private final int mask;
+    private final int maximumSeries;
+    private final AtomicInteger seriesCount = new AtomicInteger();
+
+    /**
+     * @param maximumSeries the maximum number of tracked operations, or operation and status code pairs
+     */
+    LiveLatencies(Duration window, boolean byStatusCode, int maximumSeries) {
+        this.windowNanos = window.toNanos();
+        this.byStatusCode = byStatusCode;
+        int capacity = Integer.highestOneBit(Math.max(PROBE_LIMIT, maximumSeries * 2) - 1) << 1;
+        this.series = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.maximumSeries = maximumSeries;
+    }
+
+    /**
+     * Records a latency of the given operation.
+     *
+     * @param operationId the id of the operation, or {@link StringIdTable#NO_ID} to skip the value
+     * @param statusCode  the HTTP status code of the call or attempt, or 0 if unknown
+     */
+    void record(int operationId, String operationName, int statusCode, LatencyMetric metric, long nanos,
+                long nowNanos) {
+        if (operationId == StringIdTable.NO_ID || nanos < 0) {
+            return;
+        }
+        int trackedStatusCode = byStatusCode && statusCode > 0 && statusCode <= MAX_STATUS_CODE ? statusCode : 0;
+        Series target = seriesFor(operationId, operationName, trackedStatusCode);
+        if (target != null) {
+            target.histogram(metric, windowNanos).record(nanos, nowNanos);
+        }
+    }
+
+    /**
+     * The latencies of the given operation over the current window, across all status codes.
+     */
+    public LatencySnapshot snapshot(String operationName, LatencyMetric metric) {
+        return snapshot(operationName, -1, metric);
+    }
+
+    /**
+     * The latencies of the given operation and HTTP status code over the current window. Only available when the
+     * latencies are tracked by status code.
+     */
+    public LatencySnapshot snapshot(String operationName, int statusCode, LatencyMetric metric) {
+        long nowNanos = System.nanoTime();
+        long[] counts = null;
+        long maximum = 0;
+        for (int i = 0; i < series.length(); i++) {
+            Series entry = series.get(i);
+            if (entry == null || !entry.operationName.equals(operationName)
+                    || (statusCode >= 0 && entry.statusCode != statusCode)) {
+                continue;
+            }
+            SlidingWindowHistogram histogram = entry.histograms.get(metric.ordinal());
+            if (histogram != null) {
+                if (counts == null) {
+                    counts = new long[SlidingWindowHistogram.BUCKETS];
+                }
+                maximum = Math.max(maximum, histogram.addTo(counts, nowNanos));
+            }
+        }
+        return counts == null ? LatencySnapshot.EMPTY : new LatencySnapshot(counts, maximum);
+    }
+
+    private Series seriesFor(int operationId, String operationName, int statusCode) {
+        long key = (long) operationId << 10 | statusCode;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int index = (int) (hash ^ (hash >>> 32)) & mask;
+        for (int probe = 0; probe < PROBE_LIMIT; probe++) {
+            Series entry = series.get(index);
+            if (entry == null) {
+                if (seriesCount.get() >= maximumSeries) {
+                    return null;
+                }
+                Series created = new Series(key, operationName, statusCode);
+                if (series.compareAndSet(index, null, created)) {
+                    seriesCount.incrementAndGet();
+                    return created;
+                }
+                entry = series.get(index);
+            }
+            if (entry.key == key) {
+                return entry;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private static final class Series {
+        private final long key;
+        private final String operationName;
+        private final int statusCode;
+        private final AtomicReferenceArray<SlidingWindowHistogram> histograms =
+                new AtomicReferenceArray<>(METRICS.length);
+
+        private Series(long key, String operationName, int statusCode) {
+            this.key = key;
+            this.operationName = operationName;
+            this.statusCode = statusCode;
+        }
+
+        private SlidingWindowHistogram histogram(LatencyMetric metric, long windowNanos) {
+            SlidingWindowHistogram histogram = histograms.get(metric.ordinal());
+            if (histogram == null) {
+                SlidingWindowHistogram created = new SlidingWindowHistogram(windowNanos);
+                histogram = histograms.compareAndSet(metric.ordinal(), null, created)
+                        ? created
+                        : histograms.get(metric.ordinal());
+            }
+            return histogram;
+        }
+    }
+}
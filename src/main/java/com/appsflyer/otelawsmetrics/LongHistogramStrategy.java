@@ -12,10 +12,14 @@ public class LongHistogramStrategy implements MetricStrategy {
     private final LongHistogram histogram;
 
     public LongHistogramStrategy(Meter meter, String metricName, String description) {
-        this.histogram = meter.histogramBuilder(metricName)
+        this(meter.histogramBuilder(metricName)
                 .setDescription(description)
                 .ofLongs()
-                .build();
+                .build());
+    }
+
+    public LongHistogramStrategy(LongHistogram histogram) {
+        this.histogram = histogram;
     }
 
     @Override
@@ -0,0 +1,444 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCategory;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricRecord;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Appends the raw {@link MetricCollection}s given to a publisher to memory-mapped segment files, so that they can be
+ * replayed offline with {@link MetricCaptureReplayer}.
+ * <p>
+ * A segment starts with {@link #MAGIC} and {@link #VERSION}, followed by entries that each start with a tag. Metrics
+ * and low-cardinality strings, the collection names and the values of {@code OPERATION_NAME}, {@code SERVICE_ID},
+ * {@code ERROR_TYPE} and {@code HTTP_CLIENT_NAME}, are written once per segment as definitions, and collections refer
+ * to them by id, so a record is a metric id, a value type and a primitive value. Other strings and URIs, such as
+ * request ids, are written inline. The definitions are bounded to a quarter of a segment, so that every new segment
+ * has room for collections. A segment ends at its first zero tag. When a collection does not fit in the current
+ * segment, a new segment is started, and the oldest segments are deleted beyond the configured count.
+ * <p>
+ * Collections are encoded on the publishing thread into a thread-local buffer, strings included, without allocating;
+ * only copying the encoded bytes, and the definitions a segment is still missing, happen under a lock. That lock is
+ * shared by every publishing thread, so they take turns for a copy of a few hundred bytes per collection, and wait
+ * longer for the one that maps a new segment. Collections that do not fit in an empty segment, or that fail to be
+ * written, are dropped.
+ */
+final class MetricCapture {
+    private static final Logger log = LoggerFactory.getLogger(MetricCapture.class);
+
+    static final int MAGIC = 0x4F41574D;
+    static final byte VERSION = 1;
+    static final String SEGMENT_PREFIX = "capture-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    static final byte TAG_END = 0;
+    static final byte TAG_METRIC = 1;
+    static final byte TAG_STRING = 2;
+    static final byte TAG_COLLECTION = 3;
+
+    static final byte VALUE_NULL = 0;
+    static final byte VALUE_BOOLEAN = 1;
+    static final byte VALUE_INTEGER = 2;
+    static final byte VALUE_LONG = 3;
+    static final byte VALUE_DOUBLE = 4;
+    static final byte VALUE_DURATION = 5;
+    static final byte VALUE_INSTANT = 6;
+    static final byte VALUE_STRING = 7;
+    static final byte VALUE_URI = 8;
+    static final byte VALUE_INLINE_STRING = 9;
+    static final byte VALUE_INLINE_URI = 10;
+
+    /**
+     * The maximum number of strings given an id; the other strings are written inline.
+     */
+    private static final int MAX_STRINGS = 4096;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int STRING_DEFINITION_OVERHEAD = 1 + Integer.BYTES + 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long startMillis = System.currentTimeMillis();
+    private final ConcurrentHashMap<SdkMetric<?>, Integer> metricIds = new ConcurrentHashMap<>();
+    private final List<SdkMetric<?>> metrics = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, Integer> stringIds = new ConcurrentHashMap<>();
+    private final List<String> strings = new CopyOnWriteArrayList<>();
+    /**
+     * The bytes taken by the definitions of all strings, guarded by {@link #strings}.
+     */
+    private int stringDefinitionBytes;
+    private final int maxStringDefinitionBytes;
+    private final ThreadLocal<ByteBuffer> encodeBuffer;
+    private final LongAdder droppedCollections = new LongAdder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * The segment files, oldest first, guarded by {@link #lock}.
+     */
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private int definedMetrics;
+    private int definedStrings;
+    private boolean closed;
+
+    MetricCapture(Path directory, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.maxStringDefinitionBytes = segmentSize / 4;
+        this.encodeBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(Math.min(segmentSize, 1 << 16)));
+        try {
+            Files.createDirectories(directory);
+            startSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot capture metric collections to " + directory, e);
+        }
+    }
+
+    void capture(MetricCollection metricCollection) {
+        ByteBuffer buffer = encode(metricCollection);
+        if (buffer == null) {
+            droppedCollections.increment();
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            int maxMetricId = metrics.size();
+            int maxStringId = strings.size();
+            if (!fits(buffer.remaining(), maxMetricId, maxStringId)) {
+                startSegment();
+                if (!fits(buffer.remaining(), maxMetricId, maxStringId)) {
+                    droppedCollections.increment();
+                    return;
+                }
+            }
+            writeDefinitions(maxMetricId, maxStringId);
+            segment.put(buffer);
+        } catch (IOException | RuntimeException e) {
+            droppedCollections.increment();
+            log.warn("Failed to capture a metric collection", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long droppedCollections() {
+        return droppedCollections.sum();
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (!closed) {
+                closed = true;
+                segment.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encodes the given collection into the thread-local buffer, or returns {@code null} if it does not fit.
+     */
+    private ByteBuffer encode(MetricCollection metricCollection) {
+        ByteBuffer buffer = encodeBuffer.get();
+        buffer.clear();
+        try {
+            buffer.put(TAG_COLLECTION);
+            int lengthPosition = buffer.position();
+            buffer.putInt(0);
+            encodeCollection(metricCollection, buffer);
+            buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+        } catch (BufferOverflowException e) {
+            return null;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void encodeCollection(MetricCollection metricCollection, ByteBuffer buffer) {
+        putString(metricCollection.name(), buffer);
+        buffer.putLong(metricCollection.creationTime().toEpochMilli());
+        int countPosition = buffer.position();
+        buffer.putInt(0);
+        int recordCount = 0;
+        for (MetricRecord<?> metricRecord : metricCollection) {
+            int recordPosition = buffer.position();
+            SdkMetric<?> metric = metricRecord.metric();
+            buffer.putInt(metricIdOf(metric));
+            if (putValue(metricRecord.value(), isInterned(metric), buffer)) {
+                recordCount++;
+            } else {
+                buffer.position(recordPosition);
+            }
+        }
+        buffer.putInt(countPosition, recordCount);
+        List<MetricCollection> children = metricCollection.children();
+        buffer.putInt(children.size());
+        for (int i = 0, size = children.size(); i < size; i++) {
+            encodeCollection(children.get(i), buffer);
+        }
+    }
+
+    /**
+     * Whether the string values of the given metric take few distinct values, and are worth a definition.
+     */
+    private static boolean isInterned(SdkMetric<?> metric) {
+        return metric == CoreMetric.OPERATION_NAME || metric == CoreMetric.SERVICE_ID
+                || metric == CoreMetric.ERROR_TYPE || metric == HttpMetric.HTTP_CLIENT_NAME;
+    }
+
+    /**
+     * Writes the type and value of a record, or returns {@code false} if its type cannot be captured.
+     *
+     * @param interned whether a string value is written as a reference to its definition, rather than inline
+     */
+    private boolean putValue(Object value, boolean interned, ByteBuffer buffer) {
+        if (value == null) {
+            buffer.put(VALUE_NULL);
+        } else if (value instanceof Boolean) {
+            buffer.put(VALUE_BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof Integer) {
+            buffer.put(VALUE_INTEGER).putInt((Integer) value);
+        } else if (value instanceof Long) {
+            buffer.put(VALUE_LONG).putLong((Long) value);
+        } else if (value instanceof Double) {
+            buffer.put(VALUE_DOUBLE).putDouble((Double) value);
+        } else if (value instanceof Duration) {
+            buffer.put(VALUE_DURATION).putLong(((Duration) value).toNanos());
+        } else if (value instanceof Instant) {
+            Instant instant = (Instant) value;
+            buffer.put(VALUE_INSTANT).putLong(instant.getEpochSecond()).putInt(instant.getNano());
+        } else if (value instanceof String) {
+            if (interned) {
+                putString((String) value, buffer);
+            } else {
+                buffer.put(VALUE_INLINE_STRING);
+                putUtf8((String) value, buffer);
+            }
+        } else if (value instanceof URI) {
+            buffer.put(VALUE_INLINE_URI);
+            putUtf8(value.toString(), buffer);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void putString(String value, ByteBuffer buffer) {
+        int id = stringIdOf(value);
+        if (id == StringIdTable.NO_ID) {
+            buffer.put(VALUE_INLINE_STRING);
+            putUtf8(value, buffer);
+        } else {
+            buffer.put(VALUE_STRING).putInt(id);
+        }
+    }
+
+    private int metricIdOf(SdkMetric<?> metric) {
+        Integer id = metricIds.get(metric);
+        if (id != null) {
+            return id;
+        }
+        synchronized (metrics) {
+            return metricIds.computeIfAbsent(metric, m -> {
+                metrics.add(m);
+                return metrics.size() - 1;
+            });
+        }
+    }
+
+    private int stringIdOf(String value) {
+        if (value.length() > MAX_STRING_BYTES / 3) {
+            return StringIdTable.NO_ID;
+        }
+        Integer id = stringIds.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (strings) {
+            id = stringIds.get(value);
+            if (id != null) {
+                return id;
+            }
+            int definitionBytes = STRING_DEFINITION_OVERHEAD + utf8Length(value);
+            if (strings.size() >= MAX_STRINGS || stringDefinitionBytes + definitionBytes > maxStringDefinitionBytes) {
+                return StringIdTable.NO_ID;
+            }
+            stringDefinitionBytes += definitionBytes;
+            strings.add(value);
+            stringIds.put(value, strings.size() - 1);
+            return strings.size() - 1;
+        }
+    }
+
+    /**
+     * Whether an entry of the given length, and the definitions it may refer to, fit in the current segment.
+     */
+    private boolean fits(int length, int maxMetricId, int maxStringId) {
+        long needed = length;
+        for (int id = definedMetrics; id < maxMetricId; id++) {
+            needed += definitionLength(metrics.get(id));
+        }
+        for (int id = definedStrings; id < maxStringId; id++) {
+            needed += STRING_DEFINITION_OVERHEAD + utf8Length(strings.get(id));
+        }
+        // Leave room for the end tag
+        return needed < segment.remaining();
+    }
+
+    private void writeDefinitions(int maxMetricId, int maxStringId) {
+        for (; definedMetrics < maxMetricId; definedMetrics++) {
+            SdkMetric<?> metric = metrics.get(definedMetrics);
+            segment.put(TAG_METRIC).putInt(definedMetrics);
+            putUtf8(metric.name(), segment);
+            putUtf8(metric.valueClass().getName(), segment);
+            putUtf8(metric.level().name(), segment);
+            segment.put((byte) metric.categories().size());
+            for (MetricCategory category : metric.categories()) {
+                putUtf8(category.name(), segment);
+            }
+        }
+        for (; definedStrings < maxStringId; definedStrings++) {
+            segment.put(TAG_STRING).putInt(definedStrings);
+            putUtf8(strings.get(definedStrings), segment);
+        }
+    }
+
+    private static int definitionLength(SdkMetric<?> metric) {
+        int length = 1 + Integer.BYTES + 2 + utf8Length(metric.name()) + 2 + utf8Length(metric.valueClass().getName())
+                + 2 + utf8Length(metric.level().name()) + 1;
+        for (MetricCategory category : metric.categories()) {
+            length += 2 + utf8Length(category.name());
+        }
+        return length;
+    }
+
+    private void startSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        Path file = directory.resolve(String.format("%s%d-%06d%s", SEGMENT_PREFIX, startMillis, segmentIndex++,
+                SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segment.putInt(MAGIC).put(VERSION);
+        definedMetrics = 0;
+        definedStrings = 0;
+        segments.addLast(file);
+        while (segments.size() > maxSegments) {
+            Files.deleteIfExists(segments.removeFirst());
+        }
+    }
+
+    /**
+     * Writes the length and the UTF-8 bytes of the given string, as {@link String#getBytes} would encode them, but
+     * directly into the buffer.
+     */
+    private static void putUtf8(String value, ByteBuffer buffer) {
+        int lengthPosition = buffer.position();
+        buffer.putShort((short) 0);
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (isSurrogatePair(value, i)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18))
+                        .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                        .put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced, as the UTF-8 encoder does
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12))
+                        .put((byte) (0x80 | c >> 6 & 0x3F))
+                        .put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        int byteCount = buffer.position() - lengthPosition - Short.BYTES;
+        if (byteCount > MAX_STRING_BYTES) {
+            throw new BufferOverflowException();
+        }
+        buffer.putShort(lengthPosition, (short) byteCount);
+    }
+
+    private static int utf8Length(String value) {
+        int byteCount = 0;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byteCount++;
+            } else if (c < 0x800) {
+                byteCount += 2;
+            } else if (isSurrogatePair(value, i)) {
+                byteCount += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                byteCount++;
+            } else {
+                byteCount += 3;
+            }
+        }
+        return byteCount;
+    }
+
+    private static boolean isSurrogatePair(String value, int index) {
+        return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    /**
+     * Lists the segment files of the given directory in the order they were written, or the given file itself.
+     */
+    static List<Path> segmentsOf(Path path) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(path)) {
+            files.add(path);
+            return files;
+        }
+        try (Stream<Path> entries = Files.list(path)) {
+            entries.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(files::add);
+        }
+        return files;
+    }
+}
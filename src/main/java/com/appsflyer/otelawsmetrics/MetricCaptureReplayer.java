@@ -0,0 +1,250 @@
+package com.appsflyer.otelawsmetrics;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.Http2Metric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCategory;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.metrics.MetricLevel;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Reads the {@link MetricCollection}s captured with {@link OtelMetricPublisher.Builder#capture(Path, int, int)} back,
+ * for example to replay production traffic into a publisher in a benchmark or a regression test:
+ * <pre>{@code
+ * MetricCaptureReplayer.replay(Paths.get("/tmp/aws-metrics-capture"), publisher);
+ * }</pre>
+ * <p>
+ * Captured metrics are resolved by name to the metrics of {@link CoreMetric}, {@link HttpMetric} and
+ * {@link Http2Metric}; other metrics are created with their captured level and categories, and their records are
+ * skipped if the application already created a metric of the same name. Replayed collections have their captured names
+ * and values, but their creation time is the time they are replayed.
+ */
+public final class MetricCaptureReplayer {
+    private static final Map<String, SdkMetric<?>> KNOWN_METRICS = new ConcurrentHashMap<>();
+
+    static {
+        registerMetrics(CoreMetric.class);
+        registerMetrics(HttpMetric.class);
+        registerMetrics(Http2Metric.class);
+    }
+
+    private MetricCaptureReplayer() {
+    }
+
+    /**
+     * Publishes the collections captured in the given segment file, or in the segment files of the given directory, to
+     * the given publisher, in the order they were captured.
+     *
+     * @return the number of replayed collections
+     */
+    public static long replay(Path path, MetricPublisher publisher) throws IOException {
+        Objects.requireNonNull(publisher, "publisher must not be null");
+        long[] count = new long[1];
+        forEach(path, metricCollection -> {
+            publisher.publish(metricCollection);
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    /**
+     * Reads the collections captured in the given segment file, or in the segment files of the given directory, in the
+     * order they were captured.
+     */
+    public static List<MetricCollection> read(Path path) throws IOException {
+        List<MetricCollection> collections = new ArrayList<>();
+        forEach(path, collections::add);
+        return collections;
+    }
+
+    /**
+     * Gives the collections captured in the given segment file, or in the segment files of the given directory, to the
+     * given consumer, in the order they were captured.
+     */
+    public static void forEach(Path path, Consumer<MetricCollection> consumer) throws IOException {
+        Objects.requireNonNull(path, "path must not be null");
+        Objects.requireNonNull(consumer, "consumer must not be null");
+        for (Path segment : MetricCapture.segmentsOf(path)) {
+            readSegment(segment, consumer);
+        }
+    }
+
+    private static void readSegment(Path file, Consumer<MetricCollection> consumer) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < Integer.BYTES + 1 || buffer.getInt() != MetricCapture.MAGIC) {
+            throw new IOException("Not a metric capture segment: " + file);
+        }
+        byte version = buffer.get();
+        if (version != MetricCapture.VERSION) {
+            throw new IOException("Unsupported metric capture version " + version + " in " + file);
+        }
+        List<SdkMetric<?>> metrics = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            byte tag = buffer.get();
+            switch (tag) {
+                case MetricCapture.TAG_END:
+                    return;
+                case MetricCapture.TAG_METRIC:
+                    set(metrics, buffer.getInt(), readMetric(buffer));
+                    break;
+                case MetricCapture.TAG_STRING:
+                    set(strings, buffer.getInt(), getUtf8(buffer));
+                    break;
+                case MetricCapture.TAG_COLLECTION:
+                    int length = buffer.getInt();
+                    int end = buffer.position() + length;
+                    MetricCollector collector = MetricCollector.create(collectionName(buffer, strings));
+                    readCollection(collector, buffer, metrics, strings);
+                    buffer.position(end);
+                    consumer.accept(collector.collect());
+                    break;
+                default:
+                    throw new IOException("Corrupted metric capture segment " + file + " at " + (buffer.position() - 1));
+            }
+        }
+    }
+
+    private static void readCollection(MetricCollector collector, ByteBuffer buffer, List<SdkMetric<?>> metrics,
+                                       List<String> strings) {
+        int recordCount = buffer.getInt();
+        for (int i = 0; i < recordCount; i++) {
+            SdkMetric<?> metric = metrics.get(buffer.getInt());
+            Object value = readValue(buffer, strings);
+            if (metric != null && (value == null || metric.valueClass().isInstance(value))) {
+                report(collector, metric, value);
+            }
+        }
+        int childCount = buffer.getInt();
+        for (int i = 0; i < childCount; i++) {
+            MetricCollector child = collector.createChild(collectionName(buffer, strings));
+            readCollection(child, buffer, metrics, strings);
+        }
+    }
+
+    private static String collectionName(ByteBuffer buffer, List<String> strings) {
+        Object name = readValue(buffer, strings);
+        // The capture time is not replayed
+        buffer.getLong();
+        return String.valueOf(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void report(MetricCollector collector, SdkMetric<T> metric, Object value) {
+        collector.reportMetric(metric, (T) value);
+    }
+
+    private static Object readValue(ByteBuffer buffer, List<String> strings) {
+        byte type = buffer.get();
+        switch (type) {
+            case MetricCapture.VALUE_NULL:
+                return null;
+            case MetricCapture.VALUE_BOOLEAN:
+                return buffer.get() != 0;
+            case MetricCapture.VALUE_INTEGER:
+                return buffer.getInt();
+            case MetricCapture.VALUE_LONG:
+                return buffer.getLong();
+            case MetricCapture.VALUE_DOUBLE:
+                return buffer.getDouble();
+            case MetricCapture.VALUE_DURATION:
+                return Duration.ofNanos(buffer.getLong());
+            case MetricCapture.VALUE_INSTANT:
+                return Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+            case MetricCapture.VALUE_STRING:
+                return strings.get(buffer.getInt());
+            case MetricCapture.VALUE_URI:
+                return URI.create(strings.get(buffer.getInt()));
+            case MetricCapture.VALUE_INLINE_STRING:
+                return getUtf8(buffer);
+            case MetricCapture.VALUE_INLINE_URI:
+                return URI.create(getUtf8(buffer));
+            default:
+                throw new IllegalStateException("Unknown captured value type " + type);
+        }
+    }
+
+    private static SdkMetric<?> readMetric(ByteBuffer buffer) {
+        String name = getUtf8(buffer);
+        String valueClassName = getUtf8(buffer);
+        String levelName = getUtf8(buffer);
+        int categoryCount = buffer.get();
+        Set<MetricCategory> categories = EnumSet.noneOf(MetricCategory.class);
+        for (int i = 0; i < categoryCount; i++) {
+            String categoryName = getUtf8(buffer);
+            for (MetricCategory category : MetricCategory.values()) {
+                if (category.name().equals(categoryName)) {
+                    categories.add(category);
+                }
+            }
+        }
+        SdkMetric<?> metric = KNOWN_METRICS.get(name);
+        if (metric != null) {
+            return metric;
+        }
+        try {
+            Class<?> valueClass = Class.forName(valueClassName);
+            MetricLevel level = MetricLevel.valueOf(levelName);
+            if (categories.isEmpty()) {
+                categories.add(MetricCategory.CUSTOM);
+            }
+            return KNOWN_METRICS.computeIfAbsent(name, n -> SdkMetric.create(n, valueClass, level, categories));
+        } catch (ClassNotFoundException | RuntimeException e) {
+            // A metric of a class that is not on the classpath, or that the application created under the same name
+            return null;
+        }
+    }
+
+    private static void registerMetrics(Class<?> metricsClass) {
+        for (Field field : metricsClass.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && SdkMetric.class.isAssignableFrom(field.getType())) {
+                try {
+                    SdkMetric<?> metric = (SdkMetric<?>) field.get(null);
+                    KNOWN_METRICS.put(metric.name(), metric);
+                } catch (IllegalAccessException e) {
+                    // Not a public metric
+                }
+            }
+        }
+    }
+
+    private static <T> void set(List<T> list, int index, T value) {
+        while (list.size() <= index) {
+            list.add(null);
+        }
+        list.set(index, value);
+    }
+
+    private static String getUtf8(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
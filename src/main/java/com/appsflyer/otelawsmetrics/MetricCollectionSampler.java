@@ -0,0 +1,154 @@
+package com.appsflyer.otelawsmetrics;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricRecord;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which {@link MetricCollection}s are published, before they are queued or processed.
+ * <p>
+ * The decision only reads the top-level records of a collection. Calls whose {@link CoreMetric#API_CALL_SUCCESSFUL}
+ * is not {@code true}, including calls that do not report it, retried calls and calls slower than the slow call
+ * threshold are always kept, so that the publisher, which counts such calls as failures, never loses one. Every other collection is kept with the probability configured for its
+ * operation, or with the default probability. In adaptive mode, that probability is further capped so that at most the
+ * target number of collections per second are sampled; the cap is recomputed once per second from the number of
+ * candidates seen during the previous second.
+ * <p>
+ * Every sampled collection adds the inverse of its sampling probability to {@link SamplingStats#estimatedCount()}, and
+ * to the estimate of its operation, so that the total number of collections can be reconstructed even though the
+ * probability varies over time and by operation. At most {@value #MAX_ESTIMATED_OPERATIONS} operations are estimated
+ * separately; the others are estimated together under {@link CardinalityLimiter#OTHER}.
+ */
+final class MetricCollectionSampler {
+    private static final long ADAPTIVE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final int MAX_ESTIMATED_OPERATIONS = 1024;
+
+    private final double defaultRate;
+    private final Map<String, Double> operationRates;
+    private final long slowCallThresholdNanos;
+    private final int maxCollectionsPerSecond;
+
+    private final AtomicLong windowStart;
+    private final LongAdder windowCandidates = new LongAdder();
+    private volatile double adaptiveRate = 1.0;
+
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder alwaysSampledCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final DoubleAdder estimatedCount = new DoubleAdder();
+    private final ConcurrentHashMap<String, DoubleAdder> estimatedCountByOperation = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultRate             the probability of keeping a collection whose operation has no rate of its own
+     * @param operationRates          the probability of keeping a collection, by operation name
+     * @param slowCallThreshold       the API call duration above which a collection is always kept, or {@code null}
+     * @param maxCollectionsPerSecond the adaptive target, or 0 to disable adaptive sampling
+     */
+    MetricCollectionSampler(double defaultRate,
+                            Map<String, Double> operationRates,
+                            Duration slowCallThreshold,
+                            int maxCollectionsPerSecond) {
+        this.defaultRate = defaultRate;
+        this.operationRates = new HashMap<>(operationRates);
+        this.slowCallThresholdNanos = slowCallThreshold == null ? Long.MAX_VALUE : slowCallThreshold.toNanos();
+        this.maxCollectionsPerSecond = maxCollectionsPerSecond;
+        this.windowStart = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Whether the given collection should be published.
+     */
+    boolean sample(MetricCollection requestMetrics) {
+        String operationName = null;
+        boolean successful = false;
+        boolean alwaysSampled = false;
+        for (MetricRecord<?> metricRecord : requestMetrics) {
+            SdkMetric<?> metric = metricRecord.metric();
+            Object value = metricRecord.value();
+            if (metric == CoreMetric.OPERATION_NAME) {
+                if (value instanceof String) {
+                    operationName = (String) value;
+                }
+            } else if (metric == CoreMetric.API_CALL_SUCCESSFUL) {
+                successful = Boolean.TRUE.equals(value);
+            } else if (metric == CoreMetric.RETRY_COUNT) {
+                alwaysSampled |= value instanceof Integer && (Integer) value > 0;
+            } else if (metric == CoreMetric.API_CALL_DURATION) {
+                alwaysSampled |= value instanceof Duration && ((Duration) value).toNanos() > slowCallThresholdNanos;
+            }
+        }
+        if (alwaysSampled || !successful) {
+            alwaysSampledCount.increment();
+            estimateOf(operationName).add(1.0);
+            return true;
+        }
+
+        double rate = rateOf(operationName);
+        if (maxCollectionsPerSecond > 0) {
+            rate = Math.min(rate, adaptiveRate());
+        }
+        if (rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate) {
+            sampledCount.increment();
+            estimatedCount.add(1.0 / rate);
+            estimateOf(operationName).add(1.0 / rate);
+            return true;
+        }
+        droppedCount.increment();
+        return false;
+    }
+
+    SamplingStats stats() {
+        Map<String, Double> byOperation = new HashMap<>();
+        estimatedCountByOperation.forEach((operationName, estimate) -> byOperation.put(operationName, estimate.sum()));
+        return new SamplingStats(sampledCount.sum(), alwaysSampledCount.sum(), droppedCount.sum(),
+                estimatedCount.sum() + alwaysSampledCount.sum(), byOperation);
+    }
+
+    private DoubleAdder estimateOf(String operationName) {
+        String key = operationName == null ? "null" : operationName;
+        DoubleAdder estimate = estimatedCountByOperation.get(key);
+        if (estimate != null) {
+            return estimate;
+        }
+        if (estimatedCountByOperation.size() >= MAX_ESTIMATED_OPERATIONS) {
+            key = CardinalityLimiter.OTHER;
+        }
+        return estimatedCountByOperation.computeIfAbsent(key, k -> new DoubleAdder());
+    }
+
+    private double rateOf(String operationName) {
+        if (operationName != null) {
+            Double rate = operationRates.get(operationName);
+            if (rate != null) {
+                return rate;
+            }
+        }
+        return defaultRate;
+    }
+
+    private double adaptiveRate() {
+        windowCandidates.increment();
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        long elapsed = now - start;
+        if (elapsed >= ADAPTIVE_WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            // Only the thread that closed the window recomputes the cap
+            double candidatesPerSecond = windowCandidates.sumThenReset() * (double) ADAPTIVE_WINDOW_NANOS / elapsed;
+            adaptiveRate = candidatesPerSecond <= maxCollectionsPerSecond
+                    ? 1.0
+                    : maxCollectionsPerSecond / candidatesPerSecond;
+        }
+        return adaptiveRate;
+    }
+}
@@ -0,0 +1,78 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * The attributes that {@link OtelMetricPublisher} derives from the reported metrics. Base attributes are always added.
+ */
+public enum MetricDimension {
+    /**
+     * {@code request_operation_name}, available to every family.
+     */
+    OPERATION_NAME("request_operation_name", MetricFamily.PER_REQUEST, true),
+
+    /**
+     * {@code request_is_success}, available to every family.
+     */
+    IS_SUCCESS("request_is_success", MetricFamily.PER_REQUEST, true),
+
+    /**
+     * {@code request_retry_count}, available to every family.
+     */
+    RETRY_COUNT("request_retry_count", MetricFamily.PER_REQUEST, true),
+
+    /**
+     * {@code attempt_error_type}, available to the per-attempt and HTTP families.
+     */
+    ERROR_TYPE("attempt_error_type", MetricFamily.PER_ATTEMPT, true),
+
+    /**
+     * {@code http_status_code}, available to the HTTP family.
+     */
+    HTTP_STATUS_CODE("http_status_code", MetricFamily.HTTP, true),
+
+    /**
+     * {@code service_endpoint}, the scheme and authority of {@code CoreMetric.SERVICE_ENDPOINT}, available to every
+     * family. Not carried by default.
+     */
+    SERVICE_ENDPOINT("service_endpoint", MetricFamily.PER_REQUEST, false),
+
+    /**
+     * {@code http_client_name}, such as {@code Apache} or {@code NettyNio}, available to the HTTP family. Not carried by
+     * default.
+     */
+    HTTP_CLIENT_NAME("http_client_name", MetricFamily.HTTP, false);
+
+    private final String attributeName;
+    private final MetricFamily firstFamily;
+    private final boolean isDefault;
+
+    MetricDimension(String attributeName, MetricFamily firstFamily, boolean isDefault) {
+        this.attributeName = attributeName;
+        this.firstFamily = firstFamily;
+        this.isDefault = isDefault;
+    }
+
+    /**
+     * The name of the attribute.
+     */
+    public String attributeName() {
+        return attributeName;
+    }
+
+    /**
+     * Whether this dimension is known when metrics of the given family are recorded.
+     */
+    public boolean isAvailableTo(MetricFamily family) {
+        return family.ordinal() >= firstFamily.ordinal();
+    }
+
+    /**
+     * Whether families that have this dimension available carry it by default.
+     */
+    public boolean isDefault() {
+        return isDefault;
+    }
+
+    int bit() {
+        return 1 << ordinal();
+    }
+}
@@ -0,0 +1,71 @@
+package com.appsflyer.otelawsmetrics;
+
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.util.Map;
+
+/**
+ * An immutable lookup table from {@link SdkMetric} to a dense slot index and its {@link MetricStrategy}.
+ * <p>
+ * {@link SdkMetric} instances are singletons (the SDK refuses to create two metrics with the same name), so the table
+ * is keyed by identity and uses open addressing over {@link System#identityHashCode(Object)}. A lookup never allocates
+ * and never calls {@link Object#hashCode()} or {@link Object#equals(Object)} on the metric.
+ */
+final class MetricDispatchTable {
+    static final int NO_SLOT = -1;
+
+    private final SdkMetric<?>[] keys;
+    private final int[] slotsByKey;
+    private final int mask;
+    private final MetricStrategy[] strategies;
+
+    MetricDispatchTable(Map<SdkMetric<?>, MetricStrategy> strategiesByMetric) {
+        int size = strategiesByMetric.size();
+        int capacity = Integer.highestOneBit(Math.max(4, size * 4) - 1) << 1;
+        this.keys = new SdkMetric<?>[capacity];
+        this.slotsByKey = new int[capacity];
+        this.mask = capacity - 1;
+        this.strategies = new MetricStrategy[size];
+
+        int slot = 0;
+        for (Map.Entry<SdkMetric<?>, MetricStrategy> entry : strategiesByMetric.entrySet()) {
+            SdkMetric<?> metric = entry.getKey();
+            int index = indexFor(metric);
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = metric;
+            slotsByKey[index] = slot;
+            strategies[slot] = entry.getValue();
+            slot++;
+        }
+    }
+
+    /**
+     * Returns the slot assigned to the given metric, or {@link #NO_SLOT} if the metric is not part of this table.
+     */
+    int slotOf(SdkMetric<?> metric) {
+        int index = indexFor(metric);
+        SdkMetric<?> key;
+        while ((key = keys[index]) != null) {
+            if (key == metric) {
+                return slotsByKey[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return NO_SLOT;
+    }
+
+    int size() {
+        return strategies.length;
+    }
+
+    MetricStrategy strategy(int slot) {
+        return strategies[slot];
+    }
+
+    private int indexFor(SdkMetric<?> metric) {
+        int hash = System.identityHashCode(metric);
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,42 @@
+package com.appsflyer.otelawsmetrics;
+
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which metrics an {@link OtelMetricPublisher} reports. A metric is reported when it was explicitly enabled, or when
+ * its family is enabled and the metric was not explicitly disabled.
+ */
+final class MetricEnablement {
+    private final Set<MetricFamily> disabledFamilies = EnumSet.noneOf(MetricFamily.class);
+    private final Map<SdkMetric<?>, Boolean> overrides = new HashMap<>();
+
+    MetricEnablement() {
+    }
+
+    MetricEnablement(MetricEnablement other) {
+        this.disabledFamilies.addAll(other.disabledFamilies);
+        this.overrides.putAll(other.overrides);
+    }
+
+    void setFamilyEnabled(MetricFamily family, boolean enabled) {
+        if (enabled) {
+            disabledFamilies.remove(family);
+        } else {
+            disabledFamilies.add(family);
+        }
+    }
+
+    void setMetricEnabled(SdkMetric<?> metric, boolean enabled) {
+        overrides.put(metric, enabled);
+    }
+
+    boolean isEnabled(MetricFamily family, SdkMetric<?> metric) {
+        Boolean enabled = overrides.get(metric);
+        return enabled != null ? enabled : !disabledFamilies.contains(family);
+    }
+}
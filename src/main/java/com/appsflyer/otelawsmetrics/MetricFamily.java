@@ -0,0 +1,21 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * The families of metrics reported by {@link OtelMetricPublisher}, one per level of the AWS SDK metric collection tree.
+ */
+public enum MetricFamily {
+    /**
+     * Metrics reported once per API call, such as {@code api_call_duration}.
+     */
+    PER_REQUEST,
+
+    /**
+     * Metrics reported once per API call attempt, such as {@code service_call_duration}.
+     */
+    PER_ATTEMPT,
+
+    /**
+     * Metrics reported by the HTTP client once per attempt, such as {@code concurrency_acquire_duration}.
+     */
+    HTTP
+}
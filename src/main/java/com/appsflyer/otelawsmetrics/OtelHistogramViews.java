@@ -0,0 +1,46 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.sdk.metrics.Aggregation;
+import io.opentelemetry.sdk.metrics.InstrumentSelector;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProviderBuilder;
+import io.opentelemetry.sdk.metrics.View;
+
+import java.util.Objects;
+
+/**
+ * Registers OpenTelemetry SDK views for the histograms of an {@link OtelMetricPublisher}.
+ * <p>
+ * Explicit bucket boundaries are passed to the SDK as advice and need no view. Base-2 exponential histograms, however,
+ * can only be selected by the SDK, so this class needs {@code opentelemetry-sdk-metrics} on the classpath.
+ */
+public final class OtelHistogramViews {
+
+    private OtelHistogramViews() {
+    }
+
+    /**
+     * Aggregates every histogram reported by publishers with the given metric prefix as a base-2 exponential
+     * histogram. Exponential histograms adapt their scale to the recorded range, so they need no tuning and keep a
+     * bounded relative error across latencies that span several orders of magnitude.
+     *
+     * @param metricPrefix the metric prefix of the publishers, {@code aws.sdk} by default
+     * @param maxBuckets   the maximum number of buckets per positive or negative range, 160 by the SDK default
+     * @param maxScale     the maximum scale, between -10 and 20; the SDK default is 20
+     */
+    public static SdkMeterProviderBuilder registerBase2ExponentialHistograms(SdkMeterProviderBuilder builder,
+                                                                             String metricPrefix,
+                                                                             int maxBuckets,
+                                                                             int maxScale) {
+        Objects.requireNonNull(builder, "builder must not be null");
+        Objects.requireNonNull(metricPrefix, "metricPrefix must not be null");
+        return builder.registerView(
+                InstrumentSelector.builder()
+                        .setMeterName(metricPrefix + ".")
+                        .setType(InstrumentType.HISTOGRAM)
+                        .build(),
+                View.builder()
+                        .setAggregation(Aggregation.base2ExponentialBucketHistogram(maxBuckets, maxScale))
+                        .build());
+    }
+}
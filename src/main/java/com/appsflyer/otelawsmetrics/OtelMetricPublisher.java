@@ -2,22 +2,51 @@ package com.appsflyer.otelawsmetrics;
 
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.metrics.DoubleHistogramBuilder;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.LongHistogramBuilder;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkRequest;
 import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.Http2Metric;
 import software.amazon.awssdk.http.HttpMetric;
 import software.amazon.awssdk.metrics.MetricCollection;
 import software.amazon.awssdk.metrics.MetricPublisher;
 import software.amazon.awssdk.metrics.MetricRecord;
+import software.amazon.awssdk.metrics.SdkMetric;
 
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * A metrics reporter that reports AWS SDK metrics to OpenTelemetry.
@@ -26,17 +55,128 @@ import java.util.concurrent.RejectedExecutionException;
 public class OtelMetricPublisher implements MetricPublisher {
     private static final Logger log = LoggerFactory.getLogger(OtelMetricPublisher.class);
     private static final String DEFAULT_METRIC_PREFIX = "aws.sdk";
+    /**
+     * The default explicit bucket boundaries of the OpenTelemetry SDK, used to pre-aggregate histograms that are
+     * configured without bucket boundary advice.
+     */
+    private static final List<Double> DEFAULT_BUCKET_BOUNDARIES = Collections.unmodifiableList(Arrays.asList(
+            0d, 5d, 10d, 25d, 50d, 75d, 100d, 250d, 500d, 750d, 1_000d, 2_500d, 5_000d, 7_500d, 10_000d));
+    private static final int PRE_AGGREGATION_STRIPES = Math.min(16, Runtime.getRuntime().availableProcessors());
+    /**
+     * The {@link CoreMetric#ERROR_TYPE} of attempts that failed because the service throttled them.
+     */
+    private static final String THROTTLING_ERROR_TYPE = "Throttling";
+    /**
+     * The error types that {@link #warmUp(Collection)} prepares: the {@link CoreMetric#ERROR_TYPE}s of the AWS SDK.
+     */
+    private static final List<String> WARM_UP_ERROR_TYPES = Collections.unmodifiableList(Arrays.asList(
+            THROTTLING_ERROR_TYPE, "ServerError", "ConfiguredTimeout", "IO", "Other"));
+    private static final List<Integer> WARM_UP_STATUS_CODES = Collections.unmodifiableList(Arrays.asList(
+            200, 400, 403, 404, 429, 500, 502, 503));
+    private static final int WARM_UP_MAX_RETRY_COUNT = 3;
+    private static final FlightRecorder DISABLED_FLIGHT_RECORDER = new FlightRecorder(0, 0, null);
+    private static final LiveLatencies DISABLED_LIVE_LATENCIES = new LiveLatencies(Duration.ZERO, false, 0);
+    private static final int MAX_LIVE_LATENCY_SERIES = 1024;
+    private static final int MAX_PRE_AGGREGATED_SERIES = 256;
+    private static final int MIN_CAPTURE_SEGMENT_SIZE = 64 * 1024;
+    /**
+     * {@code CoreMetric.WRITE_THROUGHPUT}, or {@code null} if the AWS SDK on the classpath does not define it.
+     */
+    private static final SdkMetric<?> WRITE_THROUGHPUT = optionalMetric(CoreMetric.class, "WRITE_THROUGHPUT");
     private final Attributes baseAttributes;
 
-    private final Map<String, Map<Boolean, Map<Integer, Attributes>>> perRequestAttributesCache = new ConcurrentHashMap<>();
-    private final Map<Attributes, Map<String, Attributes>> perAttemptAttributesCache = new ConcurrentHashMap<>();
-    private final Map<Attributes, Map<Integer, Attributes>> perHttpAttributesCache = new ConcurrentHashMap<>();
+    private final AttributesCache attributesCache;
+    private final StringIdTable operationIds;
+    private final StringIdTable errorTypeIds;
+    private final StringIdTable serviceEndpointIds;
+    private final StringIdTable httpClientNameIds;
+    /**
+     * The scheme and authority of the service endpoints seen so far, by authority, so that they are not concatenated on
+     * every call.
+     */
+    private final ConcurrentHashMap<String, String> serviceEndpoints;
+    /**
+     * Bound the distinct operation names and error types, or {@code null} when they are not limited.
+     */
+    private final CardinalityLimiter operationNameLimiter;
+    private final CardinalityLimiter errorTypeLimiter;
 
     private final Executor executor;
+    /**
+     * Queues {@link MetricCollection}s of this publisher, or {@link QueuedPublish}es of the views sharing it.
+     */
+    private final BatchingPublishPipeline<Object> pipeline;
+    private final Duration closeTimeout;
     private final String metricPrefix;
-    private final Map<String, MetricStrategy> perRequestMetrics;
-    private final Map<String, MetricStrategy> perAttemptMetrics;
-    private final Map<String, MetricStrategy> httpMetrics;
+    private final MetricDispatchTable perRequestMetrics;
+    private final MetricDispatchTable perAttemptMetrics;
+    private final MetricDispatchTable httpMetrics;
+    private final ThreadLocal<PublishScratch> publishScratch;
+    private final int attributesCacheMaximumSize;
+    private final List<PreAggregatingLongHistogram> preAggregatedHistograms;
+    private final ScheduledExecutorService flushScheduler;
+    private final TimeUnit durationUnit;
+    private final Map<HistogramType, List<Double>> bucketBoundaries;
+    private final MetricCollectionSampler sampler;
+    private final ConnectionPoolGauges connectionPoolGauges;
+    private final MetricEnablement metricEnablement;
+    /**
+     * The bits of the dimensions carried by each level, indexed by {@link AttributesCache} level.
+     */
+    private final int[] dimensionMasks;
+    private final boolean processAttempts;
+    private final boolean processHttp;
+    /**
+     * Identifies the base attributes of this publisher in the attribute cache shared with other views of the same
+     * {@link OtelMetricPublisherRegistry}; 0 for a standalone publisher.
+     */
+    private final int viewId;
+    /**
+     * Whether this publisher is a view of a registry, whose shared state is closed by the registry.
+     */
+    private final boolean isView;
+    private final ConnectionPoolGauges.Cells connectionPoolCells;
+    /**
+     * The call, attempt, retry, throttling and error counters, or {@code null} when counters are disabled.
+     */
+    private final CallCounters callCounters;
+    /**
+     * The publisher's own metrics, or {@code null} when they are disabled.
+     */
+    private final PublisherSelfMetrics selfMetrics;
+    /**
+     * Captures the published collections, or {@code null} when capture is disabled.
+     */
+    private final MetricCapture capture;
+    /**
+     * The slowest and the recent failed or slow calls, or {@code null} when the flight recorder is disabled.
+     */
+    private final FlightRecorder flightRecorder;
+    /**
+     * The histograms derived from the whole collection tree, or {@code null} when they are disabled.
+     */
+    private final LatencyAttribution latencyAttribution;
+    /**
+     * The good and total call counters of the latency objectives, or {@code null} when no objective is set.
+     */
+    private final SloCounters sloCounters;
+    /**
+     * Whether the context of sampled spans is restored around the recordings, so that they can carry exemplars.
+     */
+    private final boolean propagateContext;
+    /**
+     * The live latency percentiles per operation, or {@code null} when they are disabled.
+     */
+    private final LiveLatencies liveLatencies;
+    /**
+     * The detector of saturated clients, or {@code null} when no saturation listener is registered.
+     */
+    private final SaturationDetector saturationDetector;
+    private final SaturationDetector.Client saturationClient;
+    /**
+     * The API call duration from which a call's context is restored, 0 to restore it for every call.
+     */
+    private final long exemplarThresholdNanos;
 
     public OtelMetricPublisher(OpenTelemetry openTelemetry) {
         this(openTelemetry, DEFAULT_METRIC_PREFIX,  ForkJoinPool.commonPool(), Attributes.empty());
@@ -52,250 +192,2078 @@ public class OtelMetricPublisher implements MetricPublisher {
 
     public OtelMetricPublisher(OpenTelemetry openTelemetry, String metricPrefix,
                                Executor executor, Attributes baseAttributes) {
-        Objects.requireNonNull(metricPrefix, "metricPrefix must not be null");
-        Objects.requireNonNull(openTelemetry, "openTelemetry must not be null");
-        Objects.requireNonNull(baseAttributes, "baseAttributes must not be null");
+        this(builder(openTelemetry)
+                .metricPrefix(metricPrefix)
+                .executor(executor)
+                .baseAttributes(baseAttributes));
+    }
 
-        if (executor == null) {
+    private OtelMetricPublisher(Builder builder) {
+        Objects.requireNonNull(builder.metricPrefix, "metricPrefix must not be null");
+        Objects.requireNonNull(builder.openTelemetry, "openTelemetry must not be null");
+        Objects.requireNonNull(builder.baseAttributes, "baseAttributes must not be null");
+
+        if (builder.executor == null && builder.pipelineQueueCapacity == 0) {
             log.warn("An executor is not provided. The metrics will be published synchronously on the calling thread.");
         }
-        this.metricPrefix = metricPrefix + ".";
-        this.executor = executor;
-        this.baseAttributes = baseAttributes;
+        this.metricPrefix = builder.metricPrefix + ".";
+        this.executor = builder.executor;
+        this.closeTimeout = builder.closeTimeout;
+        this.baseAttributes = builder.baseAttributes;
+        this.attributesCache = new AttributesCache(builder.attributesCacheMaximumSize);
+        this.operationIds = new StringIdTable(Math.min(builder.attributesCacheMaximumSize, AttributesCache.MAX_IDS));
+        this.errorTypeIds = new StringIdTable(Math.min(builder.attributesCacheMaximumSize, AttributesCache.MAX_IDS));
+        this.serviceEndpointIds = new StringIdTable(
+                Math.min(builder.attributesCacheMaximumSize, AttributesCache.MAX_SCOPE_IDS));
+        this.httpClientNameIds = new StringIdTable(
+                Math.min(builder.attributesCacheMaximumSize, AttributesCache.MAX_SCOPE_IDS));
+        this.serviceEndpoints = new ConcurrentHashMap<>();
+        this.operationNameLimiter = cardinalityLimiter(builder.cardinalityLimits.get(MetricDimension.OPERATION_NAME));
+        this.errorTypeLimiter = cardinalityLimiter(builder.cardinalityLimits.get(MetricDimension.ERROR_TYPE));
+        this.attributesCacheMaximumSize = builder.attributesCacheMaximumSize;
+        this.preAggregatedHistograms = builder.preAggregationFlushInterval == null ? null : new ArrayList<>();
+        this.durationUnit = builder.durationUnit;
+        this.bucketBoundaries = resolveBucketBoundaries(builder.bucketBoundaries, builder.durationUnit);
+        if (builder.samplingRate < 1.0 || !builder.operationSamplingRates.isEmpty()
+                || builder.maxSampledCollectionsPerSecond > 0) {
+            this.sampler = new MetricCollectionSampler(builder.samplingRate, builder.operationSamplingRates,
+                    builder.slowCallThreshold, builder.maxSampledCollectionsPerSecond);
+        } else {
+            this.sampler = null;
+        }
 
-        Meter meter = openTelemetry.getMeter(this.metricPrefix);
+        this.metricEnablement = new MetricEnablement(builder.metricEnablement);
+        this.dimensionMasks = new int[MetricFamily.values().length];
+        for (MetricFamily family : MetricFamily.values()) {
+            for (MetricDimension dimension : builder.dimensionsOf(family)) {
+                dimensionMasks[levelOf(family)] |= dimension.bit();
+            }
+        }
 
+        Meter meter = builder.openTelemetry.getMeter(this.metricPrefix);
+        this.connectionPoolGauges = builder.connectionPoolGauges
+                ? new ConnectionPoolGauges(meter, this.metricPrefix, builder.connectionPoolGaugeIntervalMaximum,
+                metric -> metricEnablement.isEnabled(MetricFamily.HTTP, metric))
+                : null;
+        this.connectionPoolCells = connectionPoolGauges == null ? null : connectionPoolGauges.newCells(baseAttributes);
+        this.viewId = 0;
+        this.isView = false;
+
+        this.callCounters = builder.counters ? new CallCounters(meter) : null;
+        this.flightRecorder = builder.slowestCallsPerOperation > 0 || builder.recentCalls > 0
+                ? new FlightRecorder(builder.slowestCallsPerOperation, builder.recentCalls, builder.slowCallThreshold)
+                : null;
+        this.capture = builder.captureDirectory == null
+                ? null
+                : new MetricCapture(builder.captureDirectory, builder.captureSegmentSize, builder.captureMaxSegments);
+        this.selfMetrics = builder.selfMetrics
+                ? new PublisherSelfMetrics(builder.openTelemetry.getMeter(PublisherSelfMetrics.INSTRUMENTATION_SCOPE),
+                this.metricPrefix, attributesCache, sampler)
+                : null;
+
+        propagateContext = builder.propagateContext;
+        exemplarThresholdNanos = builder.exemplarThreshold == null ? 0 : builder.exemplarThreshold.toNanos();
         perRequestMetrics = initializePerRequestStrategies(meter);
         perAttemptMetrics = initializeCoreStrategies(meter);
         httpMetrics = initializeHttpStrategies(meter);
+        latencyAttribution = builder.latencyAttribution ? new LatencyAttribution(meter) : null;
+        sloCounters = builder.sloLatencyThreshold == null && builder.operationSloLatencyThresholds.isEmpty()
+                ? null
+                : new SloCounters(meter, builder.sloLatencyThreshold, builder.operationSloLatencyThresholds);
+        liveLatencies = builder.liveLatencyWindow == null
+                ? null
+                : new LiveLatencies(builder.liveLatencyWindow, builder.liveLatenciesByStatusCode,
+                Math.min(builder.attributesCacheMaximumSize, MAX_LIVE_LATENCY_SERIES));
+        saturationDetector = builder.saturationListener == null
+                ? null
+                : new SaturationDetector(builder.saturationListener, builder.saturationWindow,
+                builder.pendingAcquireRatio, builder.acquireDurationThreshold, builder.throttlingRate);
+        saturationClient = saturationDetector == null ? null : saturationDetector.newClient(baseAttributes);
+        processHttp = httpMetrics.size() > 0 || connectionPoolGauges != null || latencyAttribution != null
+                || (liveLatencies != null && builder.liveLatenciesByStatusCode) || saturationDetector != null;
+        processAttempts = perAttemptMetrics.size() > 0 || processHttp || callCounters != null || liveLatencies != null;
+        publishScratch = ThreadLocal.withInitial(() -> new PublishScratch(perRequestMetrics, perAttemptMetrics, httpMetrics));
+
+        if (selfMetrics != null && (operationNameLimiter != null || errorTypeLimiter != null)) {
+            selfMetrics.observe(operationNameLimiter, errorTypeLimiter);
+        }
+
+        if (builder.pipelineQueueCapacity > 0) {
+            pipeline = new BatchingPublishPipeline<>(this::publishQueued, builder.pipelineQueueCapacity,
+                    builder.pipelineConsumerThreads, builder.pipelineBatchSize, builder.overflowPolicy,
+                    "otel-aws-metrics-publisher-");
+            if (selfMetrics != null) {
+                selfMetrics.observe(pipeline);
+            }
+        } else {
+            pipeline = null;
+        }
+
+        if (preAggregatedHistograms != null) {
+            long flushIntervalNanos = builder.preAggregationFlushInterval.toNanos();
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "otel-aws-metrics-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flushScheduler.scheduleAtFixedRate(this::flushPreAggregatedHistograms,
+                    flushIntervalNanos, flushIntervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            flushScheduler = null;
+        }
+    }
+
+    /**
+     * Creates a view of the given publisher that shares its instruments, caches, executor and pipeline, and only adds
+     * its own base attributes.
+     */
+    private OtelMetricPublisher(OtelMetricPublisher shared, Attributes baseAttributes, int viewId) {
+        this.baseAttributes = baseAttributes;
+        this.viewId = viewId;
+        this.isView = true;
+        this.connectionPoolCells = shared.connectionPoolGauges == null
+                ? null
+                : shared.connectionPoolGauges.newCells(baseAttributes);
+
+        this.attributesCache = shared.attributesCache;
+        this.operationIds = shared.operationIds;
+        this.errorTypeIds = shared.errorTypeIds;
+        this.serviceEndpointIds = shared.serviceEndpointIds;
+        this.httpClientNameIds = shared.httpClientNameIds;
+        this.serviceEndpoints = shared.serviceEndpoints;
+        this.operationNameLimiter = shared.operationNameLimiter;
+        this.errorTypeLimiter = shared.errorTypeLimiter;
+        this.executor = shared.executor;
+        this.pipeline = shared.pipeline;
+        this.closeTimeout = shared.closeTimeout;
+        this.metricPrefix = shared.metricPrefix;
+        this.perRequestMetrics = shared.perRequestMetrics;
+        this.perAttemptMetrics = shared.perAttemptMetrics;
+        this.httpMetrics = shared.httpMetrics;
+        this.publishScratch = shared.publishScratch;
+        this.attributesCacheMaximumSize = shared.attributesCacheMaximumSize;
+        this.preAggregatedHistograms = shared.preAggregatedHistograms;
+        this.flushScheduler = shared.flushScheduler;
+        this.durationUnit = shared.durationUnit;
+        this.bucketBoundaries = shared.bucketBoundaries;
+        this.sampler = shared.sampler;
+        this.connectionPoolGauges = shared.connectionPoolGauges;
+        this.metricEnablement = shared.metricEnablement;
+        this.dimensionMasks = shared.dimensionMasks;
+        this.processAttempts = shared.processAttempts;
+        this.processHttp = shared.processHttp;
+        this.callCounters = shared.callCounters;
+        this.selfMetrics = shared.selfMetrics;
+        this.capture = shared.capture;
+        this.flightRecorder = shared.flightRecorder;
+        this.latencyAttribution = shared.latencyAttribution;
+        this.sloCounters = shared.sloCounters;
+        this.propagateContext = shared.propagateContext;
+        this.liveLatencies = shared.liveLatencies;
+        this.saturationDetector = shared.saturationDetector;
+        this.saturationClient = shared.saturationDetector == null
+                ? null
+                : shared.saturationDetector.newClient(baseAttributes);
+        this.exemplarThresholdNanos = shared.exemplarThresholdNanos;
+    }
+
+    /**
+     * Creates a view of this publisher whose base attributes are this publisher's, followed by the given ones.
+     *
+     * @param viewId a positive id that no other view of this publisher uses
+     */
+    OtelMetricPublisher newView(Attributes attributes, int viewId) {
+        Attributes viewAttributes = baseAttributes.toBuilder().putAll(attributes).build();
+        return new OtelMetricPublisher(this, viewAttributes, viewId);
+    }
+
+    /**
+     * Creates a builder for an {@link OtelMetricPublisher} that reports to the given {@link OpenTelemetry}.
+     */
+    public static Builder builder(OpenTelemetry openTelemetry) {
+        return new Builder(openTelemetry);
     }
 
     @Override
     public void publish(MetricCollection metricCollection) {
+        if (capture != null) {
+            capture.capture(metricCollection);
+        }
+        if (sampler != null && !sampler.sample(metricCollection)) {
+            countUnsampled(metricCollection);
+            return;
+        }
+        Context context = propagateContext ? sampledContext() : null;
+        if (pipeline != null) {
+            if (selfMetrics != null || context != null || isView) {
+                long publishNanos = selfMetrics == null ? PublisherSelfMetrics.NOT_TIMED : System.nanoTime();
+                pipeline.submit(new QueuedPublish(this, metricCollection, publishNanos, context));
+            } else {
+                pipeline.submit(metricCollection);
+            }
+            return;
+        }
         if (executor == null) {
-            publishInternal(metricCollection);
+            publishInternal(metricCollection, PublisherSelfMetrics.NOT_TIMED, context);
             return;
         }
 
         try {
-            executor.execute(() -> publishInternal(metricCollection));
+            long publishNanos = selfMetrics == null ? PublisherSelfMetrics.NOT_TIMED : System.nanoTime();
+            executor.execute(() -> publishInternal(metricCollection, publishNanos, context));
         } catch (RejectedExecutionException ex) {
+            if (selfMetrics != null) {
+                selfMetrics.recordRejected();
+            }
             log.warn("Some AWS SDK client-side metrics have been dropped because an internal executor did not accept the task.", ex);
         }
     }
 
+    /**
+     * Closes the publisher. When the batching pipeline is enabled, the collections that are already queued are
+     * published before this method returns, for up to the configured close timeout. Pre-aggregated histograms are
+     * flushed one last time.
+     */
     @Override
     public void close() {
-        // This publisher does not allocate any resources that need to be cleaned up.
-    }
-
-    private Map<String, MetricStrategy> initializePerRequestStrategies(Meter meter) {
-        Map<String, MetricStrategy> strategyMap = new HashMap<>();
-        strategyMap.put(CoreMetric.API_CALL_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "api_call_duration",
-                "The total time taken to finish a request (inclusive of all retries)")));
-        strategyMap.put(CoreMetric.CREDENTIALS_FETCH_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "credentials_fetch_duration",
-                "The time taken to fetch AWS signing credentials for the request")));
-        strategyMap.put(CoreMetric.ENDPOINT_RESOLVE_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "endpoint_resolve_duration",
-                "The duration of time it took to resolve the endpoint used for the API call")));
-        strategyMap.put(CoreMetric.MARSHALLING_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "marshalling_duration",
-                "The time it takes to marshall an SDK request to an HTTP request")));
-        strategyMap.put(CoreMetric.TOKEN_FETCH_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "token_fetch_duration",
-                "The time taken to fetch token signing credentials for the request")));
-        return strategyMap;
-    }
-
-    private Map<String, MetricStrategy> initializeCoreStrategies(Meter meter) {
-
-        Map<String, MetricStrategy> strategyMap = new HashMap<>();
-        strategyMap.put(CoreMetric.BACKOFF_DELAY_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "backoff_delay_duration",
-                "The duration of time the SDK waited before this API call attempt")));
-        strategyMap.put(CoreMetric.READ_THROUGHPUT.name(), new MetricStrategyWithoutErrors(new DoubleHistogramStrategy(meter,
-                metricPrefix + "read_throughput",
-                "The read throughput of the client in bytes/second")));
-        strategyMap.put(CoreMetric.SERVICE_CALL_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "service_call_duration",
-                "The time it takes to connect to the service, send the request, and receive the HTTP status code and header from the response")));
-        strategyMap.put(CoreMetric.SIGNING_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "signing_duration",
-                "The time it takes to sign the HTTP request")));
-        strategyMap.put(CoreMetric.TIME_TO_FIRST_BYTE.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "time_to_first_byte",
-                "Elapsed time from sending the HTTP request (including acquiring a connection) to receiving the first byte of the headers in the response")));
-        strategyMap.put(CoreMetric.TIME_TO_LAST_BYTE.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "time_to_last_byte",
-                "Elapsed time from sending the HTTP request (including acquiring a connection) to receiving the last byte of the response")));
-        strategyMap.put(CoreMetric.UNMARSHALLING_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "unmarshalling_duration",
-                "The time it takes to unmarshall an HTTP response to an SDK response")));
-        return strategyMap;
-    }
-
-    private Map<String, MetricStrategy> initializeHttpStrategies(Meter meter) {
-        Map<String, MetricStrategy> strategyMap = new HashMap<>();
-        strategyMap.put(HttpMetric.AVAILABLE_CONCURRENCY.name(), new MetricStrategyWithoutErrors(new LongHistogramStrategy(meter,
-                metricPrefix + "available_concurrency",
-                "The number of remaining concurrent requests that can be supported by the HTTP client without needing to establish another connection")));
-        strategyMap.put(HttpMetric.CONCURRENCY_ACQUIRE_DURATION.name(), new MetricStrategyWithoutErrors(new DurationStrategy(meter,
-                metricPrefix + "concurrency_acquire_duration",
-                "The time taken to acquire a channel from the connection pool")));
-        strategyMap.put(HttpMetric.LEASED_CONCURRENCY.name(), new MetricStrategyWithoutErrors(new LongHistogramStrategy(meter,
-                metricPrefix + "leased_concurrency",
-                "The number of request currently being executed by the HTTP client")));
-        strategyMap.put(HttpMetric.MAX_CONCURRENCY.name(), new MetricStrategyWithoutErrors(new LongHistogramStrategy(meter,
-                metricPrefix + "max_concurrency",
-                "The max number of concurrent requests supported by the HTTP client")));
-        strategyMap.put(HttpMetric.PENDING_CONCURRENCY_ACQUIRES.name(), new MetricStrategyWithoutErrors(new LongHistogramStrategy(meter,
-                metricPrefix + "pending_concurrency_acquires",
-                "The number of requests that are blocked, waiting for another TCP connection or a new stream to be available from the connection pool")));
-        return strategyMap;
-    }
-
-    private void publishInternal(MetricCollection metricCollection) {
+        if (connectionPoolCells != null) {
+            connectionPoolGauges.remove(connectionPoolCells);
+        }
+        if (saturationClient != null) {
+            saturationDetector.remove(saturationClient);
+        }
+        if (isView) {
+            // The shared state is closed by the registry
+            return;
+        }
+        if (pipeline != null) {
+            pipeline.close(closeTimeout);
+        }
+        if (saturationDetector != null) {
+            saturationDetector.close();
+        }
+        if (connectionPoolGauges != null) {
+            connectionPoolGauges.close();
+        }
+        if (selfMetrics != null) {
+            selfMetrics.close();
+        }
+        if (capture != null) {
+            capture.close();
+        }
+        if (flushScheduler != null) {
+            flushScheduler.shutdown();
+            try {
+                flushScheduler.awaitTermination(closeTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushPreAggregatedHistograms();
+        }
+    }
+
+    /**
+     * Replays the histograms pre-aggregated since the previous flush into OpenTelemetry. This happens periodically
+     * when pre-aggregation is enabled; call it explicitly, for example right before a manual metric collection, to
+     * export the latest recordings. Does nothing when pre-aggregation is disabled.
+     */
+    public void flush() {
+        if (preAggregatedHistograms != null) {
+            flushPreAggregatedHistograms();
+        }
+    }
+
+    private MetricDispatchTable initializePerRequestStrategies(Meter meter) {
+        Map<SdkMetric<?>, Supplier<MetricStrategy>> strategyMap = new LinkedHashMap<>();
+        strategyMap.put(CoreMetric.API_CALL_DURATION, () -> durationStrategy(meter, "api_call_duration",
+                "The total time taken to finish a request (inclusive of all retries)"));
+        strategyMap.put(CoreMetric.CREDENTIALS_FETCH_DURATION, () -> durationStrategy(meter, "credentials_fetch_duration",
+                "The time taken to fetch AWS signing credentials for the request"));
+        strategyMap.put(CoreMetric.ENDPOINT_RESOLVE_DURATION, () -> durationStrategy(meter, "endpoint_resolve_duration",
+                "The duration of time it took to resolve the endpoint used for the API call"));
+        strategyMap.put(CoreMetric.MARSHALLING_DURATION, () -> durationStrategy(meter, "marshalling_duration",
+                "The time it takes to marshall an SDK request to an HTTP request"));
+        strategyMap.put(CoreMetric.TOKEN_FETCH_DURATION, () -> durationStrategy(meter, "token_fetch_duration",
+                "The time taken to fetch token signing credentials for the request"));
+        return dispatchTable(MetricFamily.PER_REQUEST, strategyMap);
+    }
+
+    private MetricDispatchTable initializeCoreStrategies(Meter meter) {
+        Map<SdkMetric<?>, Supplier<MetricStrategy>> strategyMap = new LinkedHashMap<>();
+        strategyMap.put(CoreMetric.BACKOFF_DELAY_DURATION, () -> durationStrategy(meter, "backoff_delay_duration",
+                "The duration of time the SDK waited before this API call attempt"));
+        strategyMap.put(CoreMetric.READ_THROUGHPUT, () -> doubleHistogramStrategy(meter, "read_throughput",
+                "The read throughput of the client in bytes/second"));
+        if (WRITE_THROUGHPUT != null) {
+            strategyMap.put(WRITE_THROUGHPUT, () -> doubleHistogramStrategy(meter, "write_throughput",
+                    "The write throughput of the client in bytes/second"));
+        }
+        strategyMap.put(CoreMetric.SERVICE_CALL_DURATION, () -> durationStrategy(meter, "service_call_duration",
+                "The time it takes to connect to the service, send the request, and receive the HTTP status code and header from the response"));
+        strategyMap.put(CoreMetric.SIGNING_DURATION, () -> durationStrategy(meter, "signing_duration",
+                "The time it takes to sign the HTTP request"));
+        strategyMap.put(CoreMetric.TIME_TO_FIRST_BYTE, () -> durationStrategy(meter, "time_to_first_byte",
+                "Elapsed time from sending the HTTP request (including acquiring a connection) to receiving the first byte of the headers in the response"));
+        strategyMap.put(CoreMetric.TIME_TO_LAST_BYTE, () -> durationStrategy(meter, "time_to_last_byte",
+                "Elapsed time from sending the HTTP request (including acquiring a connection) to receiving the last byte of the response"));
+        strategyMap.put(CoreMetric.UNMARSHALLING_DURATION, () -> durationStrategy(meter, "unmarshalling_duration",
+                "The time it takes to unmarshall an HTTP response to an SDK response"));
+        return dispatchTable(MetricFamily.PER_ATTEMPT, strategyMap);
+    }
+
+    private MetricDispatchTable initializeHttpStrategies(Meter meter) {
+        Map<SdkMetric<?>, Supplier<MetricStrategy>> strategyMap = new LinkedHashMap<>();
+        strategyMap.put(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, () -> durationStrategy(meter, "concurrency_acquire_duration",
+                "The time taken to acquire a channel from the connection pool"));
+        strategyMap.put(Http2Metric.LOCAL_STREAM_WINDOW_SIZE_IN_BYTES, () -> windowSizeStrategy(meter, "local_stream_window_size",
+                "The local HTTP/2 window size in bytes for the stream that this request was executed on"));
+        strategyMap.put(Http2Metric.REMOTE_STREAM_WINDOW_SIZE_IN_BYTES, () -> windowSizeStrategy(meter, "remote_stream_window_size",
+                "The remote HTTP/2 window size in bytes for the stream that this request was executed on"));
+        if (connectionPoolGauges != null) {
+            // Connection pool state is reported by observable gauges instead
+            return dispatchTable(MetricFamily.HTTP, strategyMap);
+        }
+        strategyMap.put(HttpMetric.AVAILABLE_CONCURRENCY, () -> longHistogramStrategy(meter, "available_concurrency",
+                "The number of remaining concurrent requests that can be supported by the HTTP client without needing to establish another connection"));
+        strategyMap.put(HttpMetric.LEASED_CONCURRENCY, () -> longHistogramStrategy(meter, "leased_concurrency",
+                "The number of request currently being executed by the HTTP client"));
+        strategyMap.put(HttpMetric.MAX_CONCURRENCY, () -> longHistogramStrategy(meter, "max_concurrency",
+                "The max number of concurrent requests supported by the HTTP client"));
+        strategyMap.put(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, () -> longHistogramStrategy(meter, "pending_concurrency_acquires",
+                "The number of requests that are blocked, waiting for another TCP connection or a new stream to be available from the connection pool"));
+        return dispatchTable(MetricFamily.HTTP, strategyMap);
+    }
+
+    /**
+     * Creates the strategies of the enabled metrics of the given family. The instruments of disabled metrics are never
+     * created, and their records are skipped by the dispatch table lookup.
+     */
+    private MetricDispatchTable dispatchTable(MetricFamily family, Map<SdkMetric<?>, Supplier<MetricStrategy>> strategyMap) {
+        Map<SdkMetric<?>, MetricStrategy> strategies = new LinkedHashMap<>();
+        for (Map.Entry<SdkMetric<?>, Supplier<MetricStrategy>> entry : strategyMap.entrySet()) {
+            if (metricEnablement.isEnabled(family, entry.getKey())) {
+                strategies.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        return new MetricDispatchTable(strategies);
+    }
+
+    private MetricStrategy durationStrategy(Meter meter, String name, String description) {
+        return withoutErrors(name, Duration.class, durationHistogram(meter, name, description));
+    }
+
+    private DurationStrategy durationHistogram(Meter meter, String name, String description) {
+        List<Double> boundaries = bucketBoundaries.get(HistogramType.DURATION);
+        if (durationUnit == TimeUnit.NANOSECONDS) {
+            LongHistogramBuilder builder = meter.histogramBuilder(metricPrefix + name)
+                    .setDescription(description)
+                    .setUnit("ns")
+                    .ofLongs();
+            if (boundaries != null) {
+                builder.setExplicitBucketBoundariesAdvice(toLongs(boundaries));
+            }
+            return new DurationStrategy(preAggregated(builder.build(), boundaries));
+        }
+        DoubleHistogramBuilder builder = meter.histogramBuilder(metricPrefix + name)
+                .setDescription(description)
+                .setUnit(unitOf(durationUnit));
+        if (boundaries != null) {
+            builder.setExplicitBucketBoundariesAdvice(boundaries);
+        }
+        return new DurationStrategy(builder.build(), durationUnit);
+    }
+
+    private MetricStrategy longHistogramStrategy(Meter meter, String name, String description) {
+        return longHistogramStrategy(meter, name, description, HistogramType.CONCURRENCY, "{request}");
+    }
+
+    private MetricStrategy windowSizeStrategy(Meter meter, String name, String description) {
+        return longHistogramStrategy(meter, name, description, HistogramType.WINDOW_SIZE, "By");
+    }
+
+    private MetricStrategy longHistogramStrategy(Meter meter, String name, String description, HistogramType type,
+                                                 String unit) {
+        List<Double> boundaries = bucketBoundaries.get(type);
+        LongHistogramBuilder builder = meter.histogramBuilder(metricPrefix + name)
+                .setDescription(description)
+                .setUnit(unit)
+                .ofLongs();
+        if (boundaries != null) {
+            builder.setExplicitBucketBoundariesAdvice(toLongs(boundaries));
+        }
+        return withoutErrors(name, Number.class, new LongHistogramStrategy(preAggregated(builder.build(), boundaries)));
+    }
+
+    private MetricStrategy doubleHistogramStrategy(Meter meter, String name, String description) {
+        List<Double> boundaries = bucketBoundaries.get(HistogramType.THROUGHPUT);
+        DoubleHistogramBuilder builder = meter.histogramBuilder(metricPrefix + name)
+                .setDescription(description);
+        if (boundaries != null) {
+            builder.setExplicitBucketBoundariesAdvice(boundaries);
+        }
+        return withoutErrors(name, Double.class, new DoubleHistogramStrategy(builder.build()));
+    }
+
+    /**
+     * Guards the given strategy against failures, and counts its type mismatches and failures when self metrics are
+     * enabled.
+     */
+    private MetricStrategy withoutErrors(String name, Class<?> valueType, MetricStrategy strategy) {
+        return new MetricStrategyWithoutErrors(selfMetrics == null
+                ? strategy
+                : selfMetrics.counting(metricPrefix + name, valueType, strategy));
+    }
+
+    private LongHistogram preAggregated(LongHistogram histogram, List<Double> boundaries) {
+        if (preAggregatedHistograms == null) {
+            return histogram;
+        }
+        PreAggregatingLongHistogram preAggregating = new PreAggregatingLongHistogram(histogram,
+                boundaries == null ? DEFAULT_BUCKET_BOUNDARIES : boundaries,
+                PRE_AGGREGATION_STRIPES, Math.min(attributesCacheMaximumSize, MAX_PRE_AGGREGATED_SERIES),
+                propagateContext);
+        preAggregatedHistograms.add(preAggregating);
+        return preAggregating;
+    }
+
+    /**
+     * Resolves the bucket boundary advice of every histogram type. A {@code null} value means no advice, so that the
+     * SDK (or a View) picks the boundaries. Boundaries of long histograms are rounded to whole numbers, so that
+     * pre-aggregation uses exactly the boundaries the SDK sees.
+     */
+    private static Map<HistogramType, List<Double>> resolveBucketBoundaries(Map<HistogramType, List<Double>> configured,
+                                                                           TimeUnit durationUnit) {
+        Map<HistogramType, List<Double>> resolved = new EnumMap<>(HistogramType.class);
+        for (HistogramType type : HistogramType.values()) {
+            List<Double> boundaries = configured.containsKey(type)
+                    ? configured.get(type)
+                    : type.defaultBoundaries(durationUnit);
+            if (boundaries.isEmpty()) {
+                continue;
+            }
+            boolean integral = type == HistogramType.CONCURRENCY || type == HistogramType.WINDOW_SIZE
+                    || (type == HistogramType.DURATION && durationUnit == TimeUnit.NANOSECONDS);
+            resolved.put(type, integral ? roundBoundaries(boundaries) : boundaries);
+        }
+        return resolved;
+    }
+
+    private static List<Double> roundBoundaries(List<Double> boundaries) {
+        List<Double> rounded = new ArrayList<>(boundaries.size());
+        for (Double boundary : boundaries) {
+            double value = Math.round(boundary);
+            if (rounded.isEmpty() || rounded.get(rounded.size() - 1) < value) {
+                rounded.add(value);
+            }
+        }
+        return Collections.unmodifiableList(rounded);
+    }
+
+    private static List<Long> toLongs(List<Double> boundaries) {
+        List<Long> longs = new ArrayList<>(boundaries.size());
+        for (Double boundary : boundaries) {
+            longs.add(boundary.longValue());
+        }
+        return longs;
+    }
+
+    private static String unitOf(TimeUnit timeUnit) {
+        switch (timeUnit) {
+            case NANOSECONDS:
+                return "ns";
+            case MICROSECONDS:
+                return "us";
+            case MILLISECONDS:
+                return "ms";
+            case SECONDS:
+                return "s";
+            default:
+                throw new IllegalArgumentException("Unsupported duration unit: " + timeUnit);
+        }
+    }
+
+    /**
+     * Resolves a metric that newer AWS SDK versions define, so that it is reported when available and costs nothing
+     * otherwise.
+     */
+    private static SdkMetric<?> optionalMetric(Class<?> metrics, String fieldName) {
+        try {
+            Object metric = metrics.getField(fieldName).get(null);
+            return metric instanceof SdkMetric ? (SdkMetric<?>) metric : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static CardinalityLimiter cardinalityLimiter(Integer maxValues) {
+        return maxValues == null ? null : new CardinalityLimiter(maxValues);
+    }
+
+    private static String limit(CardinalityLimiter limiter, String value) {
+        return limiter == null ? value : limiter.limit(value);
+    }
+
+    private static int levelOf(MetricFamily family) {
+        switch (family) {
+            case PER_REQUEST:
+                return AttributesCache.LEVEL_PER_REQUEST;
+            case PER_ATTEMPT:
+                return AttributesCache.LEVEL_PER_ATTEMPT;
+            default:
+                return AttributesCache.LEVEL_HTTP;
+        }
+    }
+
+    private void flushPreAggregatedHistograms() {
+        try {
+            for (PreAggregatingLongHistogram histogram : preAggregatedHistograms) {
+                histogram.flush();
+            }
+        } catch (Exception e) {
+            log.error("An error occurred while flushing pre-aggregated metrics", e);
+        }
+    }
+
+    /**
+     * Counts a collection that sampling dropped, on the publishing thread, so that counters, latency objectives, live
+     * latencies and saturation signals are not biased by sampling. Only successful calls without retries are dropped,
+     * so such a call counts as one successful call and one attempt per attempt collection, without errors.
+     */
+    private void countUnsampled(MetricCollection requestMetrics) {
+        if (saturationClient != null) {
+            recordUnsampledSaturation(requestMetrics);
+        }
+        if (callCounters == null && sloCounters == null && liveLatencies == null) {
+            return;
+        }
+        PublishScratch scratch = publishScratch.get();
+        try {
+            String operationName = null;
+            for (MetricRecord<?> metricRecord : requestMetrics) {
+                if (metricRecord.metric() == CoreMetric.OPERATION_NAME) {
+                    operationName = stringValue(metricRecord);
+                } else if (metricRecord.metric() == CoreMetric.API_CALL_DURATION) {
+                    scratch.apiCallNanos = durationNanos(metricRecord);
+                }
+            }
+            scratch.operationName = limit(operationNameLimiter, operationName == null ? "null" : operationName);
+            scratch.operationId = operationIds.idOf(scratch.operationName);
+            scratch.isSuccess = true;
+            if (callCounters != null) {
+                callCounters.apiCalls.add(1, counterAttributes(AttributesCache.LEVEL_REQUEST_COUNTERS, scratch));
+                int attempts = requestMetrics.children().size();
+                if (attempts > 0) {
+                    callCounters.attempts.add(attempts,
+                            counterAttributes(AttributesCache.LEVEL_ATTEMPT_COUNTERS, scratch));
+                }
+            }
+            if (sloCounters != null) {
+                sloCounters.record(operationName, scratch);
+            }
+            if (liveLatencies != null) {
+                recordUnsampledLatencies(requestMetrics, scratch);
+            }
+        } catch (Exception e) {
+            log.error("An error occurred while counting unsampled metrics", e);
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    private void recordUnsampledLatencies(MetricCollection requestMetrics, PublishScratch scratch) {
+        long nowNanos = liveLatencyNanos(scratch);
+        List<MetricCollection> attempts = requestMetrics.children();
+        for (int i = 0, size = attempts.size(); i < size; i++) {
+            MetricCollection attemptMetrics = attempts.get(i);
+            long serviceCallNanos = -1;
+            long timeToFirstByteNanos = -1;
+            for (MetricRecord<?> metricRecord : attemptMetrics) {
+                if (metricRecord.metric() == CoreMetric.SERVICE_CALL_DURATION) {
+                    serviceCallNanos = durationNanos(metricRecord);
+                } else if (metricRecord.metric() == CoreMetric.TIME_TO_FIRST_BYTE) {
+                    timeToFirstByteNanos = durationNanos(metricRecord);
+                }
+            }
+            scratch.lastStatusCode = 0;
+            List<MetricCollection> httpCollections = attemptMetrics.children();
+            for (int j = 0, httpSize = httpCollections.size(); j < httpSize; j++) {
+                for (MetricRecord<?> metricRecord : httpCollections.get(j)) {
+                    if (metricRecord.metric() == HttpMetric.HTTP_STATUS_CODE) {
+                        int httpStatusCode = intValue(metricRecord);
+                        if (httpStatusCode != 0) {
+                            scratch.lastStatusCode = httpStatusCode;
+                        }
+                    }
+                }
+            }
+            liveLatencies.record(scratch.operationId, scratch.operationName, scratch.lastStatusCode,
+                    LatencyMetric.SERVICE_CALL_DURATION, serviceCallNanos, nowNanos);
+            liveLatencies.record(scratch.operationId, scratch.operationName, scratch.lastStatusCode,
+                    LatencyMetric.TIME_TO_FIRST_BYTE, timeToFirstByteNanos, nowNanos);
+        }
+        liveLatencies.record(scratch.operationId, scratch.operationName, scratch.lastStatusCode,
+                LatencyMetric.API_CALL_DURATION, scratch.apiCallNanos, nowNanos);
+    }
+
+    private void recordUnsampledSaturation(MetricCollection requestMetrics) {
+        List<MetricCollection> attempts = requestMetrics.children();
+        for (int i = 0, size = attempts.size(); i < size; i++) {
+            saturationClient.recordAttempt(false);
+            List<MetricCollection> httpCollections = attempts.get(i).children();
+            for (int j = 0, httpSize = httpCollections.size(); j < httpSize; j++) {
+                long pendingAcquires = -1;
+                long acquireNanos = -1;
+                for (MetricRecord<?> metricRecord : httpCollections.get(j)) {
+                    if (metricRecord.metric() == HttpMetric.PENDING_CONCURRENCY_ACQUIRES) {
+                        pendingAcquires = intValue(metricRecord);
+                    } else if (metricRecord.metric() == HttpMetric.CONCURRENCY_ACQUIRE_DURATION) {
+                        acquireNanos = durationNanos(metricRecord);
+                    }
+                }
+                saturationClient.recordHttpRequest(pendingAcquires, acquireNanos);
+            }
+        }
+    }
+
+    private void publishQueued(Object queued) {
+        if (queued instanceof QueuedPublish) {
+            QueuedPublish queuedPublish = (QueuedPublish) queued;
+            queuedPublish.publisher.publishInternal(queuedPublish.metricCollection, queuedPublish.publishNanos,
+                    queuedPublish.context);
+        } else {
+            publishInternal((MetricCollection) queued, PublisherSelfMetrics.NOT_TIMED, null);
+        }
+    }
+
+    /**
+     * The current context if its span is sampled, or {@code null}. Contexts of unsampled spans are not captured, as
+     * their recordings cannot carry exemplars anyway.
+     */
+    private static Context sampledContext() {
+        Context context = Context.current();
+        return Span.fromContext(context).getSpanContext().isSampled() ? context : null;
+    }
+
+    /**
+     * @param publishNanos the {@link System#nanoTime()} at which the collection was published, or
+     *                     {@link PublisherSelfMetrics#NOT_TIMED}
+     * @param context      the context captured when the collection was published, or {@code null}
+     */
+    private void publishInternal(MetricCollection metricCollection, long publishNanos, Context context) {
+        if (!propagateContext) {
+            publishTimed(metricCollection, publishNanos);
+            return;
+        }
+        // Calls without a sampled context, or below the exemplar threshold, are recorded without any context
+        Context recordingContext = context != null && isExemplarCandidate(metricCollection) ? context : Context.root();
+        try (Scope ignored = recordingContext.makeCurrent()) {
+            publishTimed(metricCollection, publishNanos);
+        }
+    }
+
+    private boolean isExemplarCandidate(MetricCollection metricCollection) {
+        if (exemplarThresholdNanos == 0) {
+            return true;
+        }
+        for (MetricRecord<?> metricRecord : metricCollection) {
+            if (metricRecord.metric() == CoreMetric.API_CALL_DURATION) {
+                return durationNanos(metricRecord) >= exemplarThresholdNanos;
+            }
+        }
+        return false;
+    }
+
+    private void publishTimed(MetricCollection metricCollection, long publishNanos) {
+        if (selfMetrics == null) {
+            publishUntimed(metricCollection);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        publishUntimed(metricCollection);
+        selfMetrics.recordProcessed(startNanos, System.nanoTime(), publishNanos);
+    }
+
+    private void publishUntimed(MetricCollection metricCollection) {
+        PublishScratch scratch = publishScratch.get();
         try {
             // Start processing from the root per-request metrics
-            processPerRequestMetrics(metricCollection);
+            processPerRequestMetrics(metricCollection, scratch);
+            if (flightRecorder != null) {
+                flightRecorder.record(metricCollection);
+            }
         } catch (Exception e) {
             log.error("An error occurred while publishing metrics", e);
+        } finally {
+            scratch.clear();
         }
     }
 
-    private void recordMetrics(Map<String, MetricRecord<?>> metricsMap,
-                               Attributes attributes,
-                               Map<String, MetricStrategy> metricStrategies) {
-        for (Map.Entry<String, MetricStrategy> entry : metricStrategies.entrySet()) {
-            MetricRecord<?> metricRecord = metricsMap.get(entry.getKey());
+    private static void recordMetrics(MetricRecord<?>[] records,
+                                      Attributes attributes,
+                                      MetricDispatchTable metricStrategies) {
+        for (int slot = 0; slot < records.length; slot++) {
+            MetricRecord<?> metricRecord = records[slot];
             if (metricRecord != null) {
-                entry.getValue().record(metricRecord, attributes);
+                records[slot] = null;
+                metricStrategies.strategy(slot).record(metricRecord, attributes);
             }
         }
     }
 
-    private void processPerRequestMetrics(MetricCollection requestMetrics) {
-        Map<String, MetricRecord<?>> metricsMap = extractMetrics(requestMetrics);
+    private void processPerRequestMetrics(MetricCollection requestMetrics, PublishScratch scratch) {
+        MetricRecord<?>[] records = scratch.perRequest;
 
-        // Extract attributes for per-request metrics
-        String operationName = getStringMetricValue(metricsMap, CoreMetric.OPERATION_NAME.name());
-        boolean isSuccess = getBooleanMetricValue(metricsMap, CoreMetric.API_CALL_SUCCESSFUL.name());
-        int retryCount = getIntMetricValue(metricsMap, CoreMetric.RETRY_COUNT.name());
-        Attributes attributes = toPerRequestAttributes(operationName, isSuccess, retryCount);
+        // Route every record to its slot and extract the per-request attributes in a single pass
+        String operationName = null;
+        boolean isSuccess = false;
+        int retryCount = 0;
+        String serviceEndpoint = null;
+        boolean hasRecords = false;
+        for (MetricRecord<?> metricRecord : requestMetrics) {
+            SdkMetric<?> metric = metricRecord.metric();
+            if (metric == CoreMetric.OPERATION_NAME) {
+                operationName = stringValue(metricRecord);
+            } else if (metric == CoreMetric.API_CALL_SUCCESSFUL) {
+                isSuccess = booleanValue(metricRecord);
+            } else if (metric == CoreMetric.RETRY_COUNT) {
+                retryCount = intValue(metricRecord);
+            } else if (metric == CoreMetric.SERVICE_ENDPOINT) {
+                serviceEndpoint = endpointValue(metricRecord);
+            } else {
+                int slot = perRequestMetrics.slotOf(metric);
+                if (slot != MetricDispatchTable.NO_SLOT) {
+                    records[slot] = metricRecord;
+                    hasRecords = true;
+                }
+                if (metric == CoreMetric.API_CALL_DURATION) {
+                    scratch.apiCallNanos = durationNanos(metricRecord);
+                }
+            }
+        }
+        scratch.operationName = limit(operationNameLimiter, operationName == null ? "null" : operationName);
+        scratch.operationId = operationIds.idOf(scratch.operationName);
+        scratch.isSuccess = isSuccess;
+        scratch.retryCount = retryCount;
+        scratch.serviceEndpoint = serviceEndpoint == null ? "unknown" : serviceEndpoint;
 
         // Report per-request metrics
-        recordMetrics(metricsMap, attributes, perRequestMetrics);
+        if (hasRecords) {
+            Attributes attributes = toAttributes(AttributesCache.LEVEL_PER_REQUEST, scratch);
+            recordMetrics(records, attributes, perRequestMetrics);
+        }
+        if (callCounters != null) {
+            callCounters.apiCalls.add(1, counterAttributes(AttributesCache.LEVEL_REQUEST_COUNTERS, scratch));
+            if (retryCount > 0) {
+                callCounters.retries.add(retryCount, counterAttributes(AttributesCache.LEVEL_ATTEMPT_COUNTERS, scratch));
+            }
+        }
+        if (sloCounters != null) {
+            sloCounters.record(operationName, scratch);
+        }
 
         // Process per-attempt metrics
-        for (MetricCollection attemptMetrics : requestMetrics.children()) {
-            processPerAttemptMetrics(attemptMetrics, attributes);
+        if (!processAttempts) {
+            return;
+        }
+        List<MetricCollection> children = requestMetrics.children();
+        for (int i = 0, size = children.size(); i < size; i++) {
+            processPerAttemptMetrics(children.get(i), scratch);
+        }
+        if (latencyAttribution != null && scratch.apiCallNanos >= 0) {
+            latencyAttribution.record(scratch);
+        }
+        if (liveLatencies != null) {
+            liveLatencies.record(scratch.operationId, scratch.operationName, scratch.lastStatusCode,
+                    LatencyMetric.API_CALL_DURATION, scratch.apiCallNanos, liveLatencyNanos(scratch));
         }
     }
 
-    private void processPerAttemptMetrics(MetricCollection attemptMetrics, Attributes parentAttributes) {
-        Map<String, MetricRecord<?>> metricsMap = extractMetrics(attemptMetrics);
+    private void processPerAttemptMetrics(MetricCollection attemptMetrics, PublishScratch scratch) {
+        MetricRecord<?>[] records = scratch.perAttempt;
 
         // Extract ErrorType if present
-        String errorType = getStringMetricValue(metricsMap, CoreMetric.ERROR_TYPE.name());
-
-        // Build attributes including attempt number and error type
-        Attributes attributes = toAttemptAttributes(parentAttributes, errorType);
+        String errorType = null;
+        scratch.lastStatusCode = 0;
+        boolean hasRecords = false;
+        for (MetricRecord<?> metricRecord : attemptMetrics) {
+            SdkMetric<?> metric = metricRecord.metric();
+            if (metric == CoreMetric.ERROR_TYPE) {
+                errorType = stringValue(metricRecord);
+            } else {
+                int slot = perAttemptMetrics.slotOf(metric);
+                if (slot != MetricDispatchTable.NO_SLOT) {
+                    records[slot] = metricRecord;
+                    hasRecords = true;
+                }
+                if (liveLatencies != null) {
+                    if (metric == CoreMetric.SERVICE_CALL_DURATION) {
+                        scratch.attemptServiceCallNanos = durationNanos(metricRecord);
+                    } else if (metric == CoreMetric.TIME_TO_FIRST_BYTE) {
+                        scratch.attemptTimeToFirstByteNanos = durationNanos(metricRecord);
+                    }
+                }
+                if (latencyAttribution != null) {
+                    if (metric == CoreMetric.SERVICE_CALL_DURATION) {
+                        scratch.serviceCallNanos += Math.max(durationNanos(metricRecord), 0);
+                    } else if (metric == CoreMetric.BACKOFF_DELAY_DURATION) {
+                        scratch.backoffDelayNanos += Math.max(durationNanos(metricRecord), 0);
+                    }
+                }
+            }
+        }
+        scratch.errorType = limit(errorTypeLimiter, errorType == null ? "no_error" : errorType);
+        scratch.errorTypeId = errorTypeIds.idOf(scratch.errorType);
+        if (saturationClient != null) {
+            saturationClient.recordAttempt(THROTTLING_ERROR_TYPE.equals(errorType));
+        }
 
         // Report per-attempt metrics
-        recordMetrics(metricsMap, attributes, perAttemptMetrics);
+        if (hasRecords) {
+            Attributes attributes = toAttributes(AttributesCache.LEVEL_PER_ATTEMPT, scratch);
+            recordMetrics(records, attributes, perAttemptMetrics);
+        }
+        if (callCounters != null) {
+            callCounters.attempts.add(1, counterAttributes(AttributesCache.LEVEL_ATTEMPT_COUNTERS, scratch));
+            if (errorType != null) {
+                callCounters.errors.add(1, counterAttributes(AttributesCache.LEVEL_ERROR_COUNTERS, scratch));
+                if (THROTTLING_ERROR_TYPE.equals(errorType)) {
+                    callCounters.throttlingErrors.add(1,
+                            counterAttributes(AttributesCache.LEVEL_ATTEMPT_COUNTERS, scratch));
+                }
+            }
+        }
 
         // Process HTTP metrics
-        for (MetricCollection httpMetricsCollection : attemptMetrics.children()) {
-            processHttpMetrics(httpMetricsCollection, attributes);
+        if (processHttp) {
+            List<MetricCollection> children = attemptMetrics.children();
+            for (int i = 0, size = children.size(); i < size; i++) {
+                processHttpMetrics(children.get(i), scratch);
+            }
+        }
+
+        if (liveLatencies != null) {
+            // The status code of the attempt is only known once its HTTP metrics are processed
+            long nowNanos = liveLatencyNanos(scratch);
+            liveLatencies.record(scratch.operationId, scratch.operationName, scratch.lastStatusCode,
+                    LatencyMetric.SERVICE_CALL_DURATION, scratch.attemptServiceCallNanos, nowNanos);
+            liveLatencies.record(scratch.operationId, scratch.operationName, scratch.lastStatusCode,
+                    LatencyMetric.TIME_TO_FIRST_BYTE, scratch.attemptTimeToFirstByteNanos, nowNanos);
+            scratch.attemptServiceCallNanos = -1;
+            scratch.attemptTimeToFirstByteNanos = -1;
         }
     }
 
-    private void processHttpMetrics(MetricCollection httpMetricsCollection, Attributes parentAttributes) {
-        Map<String, MetricRecord<?>> metricsMap = extractMetrics(httpMetricsCollection);
+    /**
+     * The time at which the live latencies of the collection being published are recorded, read once per collection.
+     */
+    private static long liveLatencyNanos(PublishScratch scratch) {
+        if (scratch.liveLatencyNanos == PublisherSelfMetrics.NOT_TIMED) {
+            scratch.liveLatencyNanos = System.nanoTime();
+        }
+        return scratch.liveLatencyNanos;
+    }
 
-        // Extract HTTP status code
-        int httpStatusCode = getIntMetricValue(metricsMap, HttpMetric.HTTP_STATUS_CODE.name());
-        Attributes attributes = toHttpAttributes(parentAttributes, httpStatusCode);
+    private void processHttpMetrics(MetricCollection httpMetricsCollection, PublishScratch scratch) {
+        MetricRecord<?>[] records = scratch.http;
+
+        // Extract HTTP status code, and the connection pool state when it is reported by gauges
+        int httpStatusCode = 0;
+        String httpClientName = null;
+        long pendingAcquires = -1;
+        long acquireNanos = -1;
+        boolean hasPoolState = false;
+        boolean hasRecords = false;
+        for (MetricRecord<?> metricRecord : httpMetricsCollection) {
+            SdkMetric<?> metric = metricRecord.metric();
+            if (metric == HttpMetric.HTTP_STATUS_CODE) {
+                httpStatusCode = intValue(metricRecord);
+            } else if (metric == HttpMetric.HTTP_CLIENT_NAME) {
+                httpClientName = stringValue(metricRecord);
+            } else {
+                int slot = httpMetrics.slotOf(metric);
+                if (latencyAttribution != null && metric == HttpMetric.CONCURRENCY_ACQUIRE_DURATION) {
+                    scratch.concurrencyAcquireNanos += Math.max(durationNanos(metricRecord), 0);
+                }
+                if (saturationClient != null) {
+                    if (metric == HttpMetric.PENDING_CONCURRENCY_ACQUIRES) {
+                        pendingAcquires = intValue(metricRecord);
+                    } else if (metric == HttpMetric.CONCURRENCY_ACQUIRE_DURATION) {
+                        acquireNanos = durationNanos(metricRecord);
+                    }
+                }
+                if (slot != MetricDispatchTable.NO_SLOT) {
+                    records[slot] = metricRecord;
+                    hasRecords = true;
+                } else if (connectionPoolGauges != null) {
+                    int gauge = ConnectionPoolGauges.indexOf(metric);
+                    if (gauge >= 0) {
+                        scratch.poolState[gauge] = intValue(metricRecord);
+                        hasPoolState = true;
+                    }
+                }
+            }
+        }
+        if (httpStatusCode != 0) {
+            scratch.lastStatusCode = httpStatusCode;
+        }
+        if (saturationClient != null) {
+            saturationClient.recordHttpRequest(pendingAcquires, acquireNanos);
+        }
+        if (hasPoolState) {
+            connectionPoolCells.update(httpClientName, scratch.poolState);
+            Arrays.fill(scratch.poolState, ConnectionPoolGauges.NO_VALUE);
+        }
+        if (!hasRecords) {
+            return;
+        }
+        scratch.httpStatusCode = httpStatusCode;
+        scratch.httpClientName = httpClientName == null ? "unknown" : httpClientName;
+
+        Attributes attributes = toAttributes(AttributesCache.LEVEL_HTTP, scratch);
 
         // Report HTTP metrics
-        recordMetrics(metricsMap, attributes, httpMetrics);
+        recordMetrics(records, attributes, httpMetrics);
     }
 
-    private Map<String, MetricRecord<?>> extractMetrics(MetricCollection metricCollection) {
-        Map<String, MetricRecord<?>> metricMap = new HashMap<>();
-        for (MetricRecord<?> metricRecord : metricCollection) {
-            metricMap.put(metricRecord.metric().name(), metricRecord);
+    private static String stringValue(MetricRecord<?> metricRecord) {
+        Object value = metricRecord.value();
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * The scheme and authority of the given {@code SERVICE_ENDPOINT} record, without any path or query. The result is
+     * cached by authority, so that endpoints whose path varies share one entry; once the cache holds
+     * {@code attributesCacheMaximumSize} authorities, new ones are built on every call instead of evicting the others.
+     */
+    private String endpointValue(MetricRecord<?> metricRecord) {
+        Object value = metricRecord.value();
+        if (!(value instanceof URI)) {
+            return null;
+        }
+        URI uri = (URI) value;
+        String scheme = uri.getScheme();
+        String authority = uri.getRawAuthority();
+        if (scheme == null || authority == null) {
+            return uri.toString();
+        }
+        String endpoint = serviceEndpoints.get(authority);
+        if (endpoint != null && endpoint.startsWith(scheme) && endpoint.charAt(scheme.length()) == ':') {
+            return endpoint;
+        }
+        endpoint = scheme + "://" + authority;
+        if (serviceEndpoints.size() < attributesCacheMaximumSize) {
+            serviceEndpoints.put(authority, endpoint);
+        }
+        return endpoint;
+    }
+
+    private static boolean booleanValue(MetricRecord<?> metricRecord) {
+        Object value = metricRecord.value();
+        return value instanceof Boolean && (Boolean) value;
+    }
+
+    /**
+     * The value of a duration record in nanoseconds, or -1 if it is not a duration.
+     */
+    private static long durationNanos(MetricRecord<?> metricRecord) {
+        Object value = metricRecord.value();
+        return value instanceof Duration ? ((Duration) value).toNanos() : -1;
+    }
+
+    private static int intValue(MetricRecord<?> metricRecord) {
+        Object value = metricRecord.value();
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private Attributes toAttributes(int level, PublishScratch scratch) {
+        // Dimensions that the level does not carry are zeroed, so that their values share a single cache entry
+        int mask = dimensionMasks[level];
+        long key = AttributesCache.key(level,
+                (mask & MetricDimension.OPERATION_NAME.bit()) != 0 ? scratch.operationId : 0,
+                (mask & MetricDimension.IS_SUCCESS.bit()) != 0 && scratch.isSuccess,
+                (mask & MetricDimension.RETRY_COUNT.bit()) != 0 ? scratch.retryCount : 0,
+                (mask & MetricDimension.ERROR_TYPE.bit()) != 0 ? scratch.errorTypeId : 0,
+                (mask & MetricDimension.HTTP_STATUS_CODE.bit()) != 0 ? scratch.httpStatusCode : 0);
+        // The endpoint and the client name are only resolved to ids when they are part of the attributes
+        long scope = AttributesCache.scope(viewId,
+                (mask & MetricDimension.SERVICE_ENDPOINT.bit()) != 0 ? serviceEndpointIds.idOf(scratch.serviceEndpoint) : 0,
+                (mask & MetricDimension.HTTP_CLIENT_NAME.bit()) != 0 ? httpClientNameIds.idOf(scratch.httpClientName) : 0);
+        if (key == AttributesCache.UNCACHEABLE || scope == AttributesCache.UNCACHEABLE) {
+            return overflowAttributes(level, mask, scratch);
+        }
+        Attributes attributes = attributesCache.get(key, scope);
+        if (attributes == null) {
+            attributes = buildAttributes(level, scratch);
+            attributesCache.put(key, scope, attributes);
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns the small, fixed attribute set of a counter: the base attributes and the operation name, along with
+     * whether the call succeeded or the error type, depending on the level.
+     */
+    private Attributes counterAttributes(int level, PublishScratch scratch) {
+        boolean withSuccess = level == AttributesCache.LEVEL_REQUEST_COUNTERS;
+        boolean withErrorType = level == AttributesCache.LEVEL_ERROR_COUNTERS;
+        long key = AttributesCache.key(level, scratch.operationId, withSuccess && scratch.isSuccess, 0,
+                withErrorType ? scratch.errorTypeId : 0, 0);
+        AttributesCache.OverflowKey overflowKey = null;
+        Attributes attributes;
+        if (key == AttributesCache.UNCACHEABLE) {
+            overflowKey = new AttributesCache.OverflowKey(level, viewId, scratch.operationName,
+                    withSuccess && scratch.isSuccess, 0, withErrorType ? scratch.errorType : null, 0, null, null);
+            attributes = attributesCache.getOverflow(overflowKey);
+        } else {
+            attributes = attributesCache.get(key, AttributesCache.scope(viewId, 0, 0));
+        }
+        if (attributes == null) {
+            AttributesBuilder builder = Attributes.builder()
+                    .put(MetricDimension.OPERATION_NAME.attributeName(), scratch.operationName);
+            if (withSuccess) {
+                builder.put(MetricDimension.IS_SUCCESS.attributeName(), scratch.isSuccess);
+            }
+            builder.putAll(baseAttributes);
+            if (withErrorType) {
+                builder.put(MetricDimension.ERROR_TYPE.attributeName(), scratch.errorType);
+            }
+            attributes = builder.build();
+            if (overflowKey != null) {
+                attributesCache.putOverflow(overflowKey, attributes);
+            } else {
+                attributesCache.put(key, AttributesCache.scope(viewId, 0, 0), attributes);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns the attributes of a series that cannot be packed into a cache key, from the overflow map of the cache.
+     */
+    private Attributes overflowAttributes(int level, int mask, PublishScratch scratch) {
+        AttributesCache.OverflowKey key = new AttributesCache.OverflowKey(level, viewId,
+                (mask & MetricDimension.OPERATION_NAME.bit()) != 0 ? scratch.operationName : null,
+                (mask & MetricDimension.IS_SUCCESS.bit()) != 0 && scratch.isSuccess,
+                (mask & MetricDimension.RETRY_COUNT.bit()) != 0 ? scratch.retryCount : 0,
+                (mask & MetricDimension.ERROR_TYPE.bit()) != 0 ? scratch.errorType : null,
+                (mask & MetricDimension.HTTP_STATUS_CODE.bit()) != 0 ? scratch.httpStatusCode : 0,
+                (mask & MetricDimension.SERVICE_ENDPOINT.bit()) != 0 ? scratch.serviceEndpoint : null,
+                (mask & MetricDimension.HTTP_CLIENT_NAME.bit()) != 0 ? scratch.httpClientName : null);
+        Attributes attributes = attributesCache.getOverflow(key);
+        if (attributes == null) {
+            attributes = buildAttributes(level, scratch);
+            attributesCache.putOverflow(key, attributes);
+        }
+        return attributes;
+    }
+
+    private Attributes buildAttributes(int level, PublishScratch scratch) {
+        int mask = dimensionMasks[level];
+        AttributesBuilder builder = Attributes.builder();
+        if ((mask & MetricDimension.OPERATION_NAME.bit()) != 0) {
+            builder.put(MetricDimension.OPERATION_NAME.attributeName(), scratch.operationName);
+        }
+        if ((mask & MetricDimension.IS_SUCCESS.bit()) != 0) {
+            builder.put(MetricDimension.IS_SUCCESS.attributeName(), scratch.isSuccess);
+        }
+        if ((mask & MetricDimension.RETRY_COUNT.bit()) != 0) {
+            builder.put(MetricDimension.RETRY_COUNT.attributeName(), scratch.retryCount);
+        }
+        builder.putAll(this.baseAttributes);
+        if ((mask & MetricDimension.ERROR_TYPE.bit()) != 0) {
+            builder.put(MetricDimension.ERROR_TYPE.attributeName(), scratch.errorType);
+        }
+        if ((mask & MetricDimension.HTTP_STATUS_CODE.bit()) != 0) {
+            builder.put(MetricDimension.HTTP_STATUS_CODE.attributeName(), scratch.httpStatusCode);
+        }
+        if ((mask & MetricDimension.SERVICE_ENDPOINT.bit()) != 0) {
+            builder.put(MetricDimension.SERVICE_ENDPOINT.attributeName(), scratch.serviceEndpoint);
+        }
+        if ((mask & MetricDimension.HTTP_CLIENT_NAME.bit()) != 0) {
+            builder.put(MetricDimension.HTTP_CLIENT_NAME.attributeName(), scratch.httpClientName);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns a snapshot of the sampling decisions. All counts are zero when sampling is disabled.
+     */
+    public SamplingStats samplingStats() {
+        return sampler == null ? new SamplingStats(0, 0, 0, 0, Collections.emptyMap()) : sampler.stats();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the attribute cache.
+     */
+    public AttributesCacheStats attributesCacheStats() {
+        return attributesCache.stats();
+    }
+
+    /**
+     * Returns a snapshot of the cardinality limit of the given dimension. All counts are zero when the dimension is
+     * not limited.
+     */
+    public CardinalityLimitStats cardinalityLimitStats(MetricDimension dimension) {
+        CardinalityLimiter limiter = dimension == MetricDimension.OPERATION_NAME
+                ? operationNameLimiter
+                : dimension == MetricDimension.ERROR_TYPE ? errorTypeLimiter : null;
+        return limiter == null ? new CardinalityLimitStats(0, 0, 0, 0) : limiter.stats();
+    }
+
+    /**
+     * Returns the flight recorder of this publisher. It keeps no calls when it is disabled.
+     */
+    public FlightRecorder flightRecorder() {
+        return flightRecorder == null ? DISABLED_FLIGHT_RECORDER : flightRecorder;
+    }
+
+    /**
+     * Returns the live latency percentiles of this publisher. Every snapshot is empty when they are disabled.
+     */
+    public LiveLatencies liveLatencies() {
+        return liveLatencies == null ? DISABLED_LIVE_LATENCIES : liveLatencies;
+    }
+
+    /**
+     * Prepares the attribute sets of the operations of the given service client interface, such as
+     * {@code DynamoDbClient.class}, whose operations are the methods that take an {@link SdkRequest} named after them,
+     * such as {@code getItem(GetItemRequest)}. Paginators and convenience methods, such as
+     * {@code listTablesPaginator(ListTablesRequest)} or {@code getObjectAsBytes(GetObjectRequest)}, are skipped.
+     *
+     * @see #warmUp(Collection)
+     */
+    public void warmUp(Class<?> clientInterface) {
+        Objects.requireNonNull(clientInterface, "clientInterface must not be null");
+        warmUp(operationNamesOf(clientInterface));
+    }
+
+    static Set<String> operationNamesOf(Class<?> clientInterface) {
+        Set<String> operationNames = new LinkedHashSet<>();
+        for (Method method : clientInterface.getMethods()) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            if (parameterTypes.length == 0 || !SdkRequest.class.isAssignableFrom(parameterTypes[0])) {
+                continue;
+            }
+            String requestName = parameterTypes[0].getSimpleName();
+            if (!requestName.endsWith("Request")) {
+                continue;
+            }
+            String operationName = requestName.substring(0, requestName.length() - "Request".length());
+            String methodName = method.getName();
+            if (!methodName.isEmpty()
+                    && operationName.equals(Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1))) {
+                operationNames.add(operationName);
+            }
         }
-        return metricMap;
+        return operationNames;
+    }
+
+    /**
+     * Prepares the attribute sets of the given operations, for successful and failed calls with up to 3 retries, the
+     * error types of the AWS SDK and common HTTP status codes.
+     *
+     * @see #warmUp(Collection, int, Collection, Collection)
+     */
+    public void warmUp(Collection<String> operationNames) {
+        warmUp(operationNames, WARM_UP_MAX_RETRY_COUNT, WARM_UP_ERROR_TYPES, WARM_UP_STATUS_CODES);
     }
 
-    private String getStringMetricValue(Map<String, MetricRecord<?>> metricsMap, String metricName) {
-        MetricRecord<?> metricRecord = metricsMap.get(metricName);
-        if (metricRecord != null) {
-            Object value = metricRecord.value();
-            if (value instanceof String) {
-                return (String) value;
+    /**
+     * Prepares the attribute sets that the calls of the given operations are expected to use, so that the first calls
+     * after a deploy find them in the attribute cache instead of building them while traffic is already at full rate.
+     * Successful calls are prepared with no error and the 2xx status codes, failed calls with every error type and
+     * the other status codes, both with every retry count up to the given one. The most common combinations are
+     * prepared first, and preparation stops once the attribute cache is full. The service endpoint and the HTTP client
+     * name are not known in advance, so attribute sets that carry them are not prepared; nor are the series of the
+     * OpenTelemetry SDK, which are only created by a recording. The prepared names do not count as occurrences for the
+     * cardinality limits.
+     *
+     * @param maxRetryCount the highest retry count prepared
+     * @param errorTypes    the {@link CoreMetric#ERROR_TYPE}s prepared for failed calls
+     * @param statusCodes   the HTTP status codes prepared
+     */
+    public void warmUp(Collection<String> operationNames, int maxRetryCount, Collection<String> errorTypes,
+                       Collection<Integer> statusCodes) {
+        Objects.requireNonNull(operationNames, "operationNames must not be null");
+        Objects.requireNonNull(errorTypes, "errorTypes must not be null");
+        Objects.requireNonNull(statusCodes, "statusCodes must not be null");
+        if (maxRetryCount < 0) {
+            throw new IllegalArgumentException("maxRetryCount must not be negative, but was " + maxRetryCount);
+        }
+        List<Integer> successStatusCodes = new ArrayList<>();
+        List<Integer> errorStatusCodes = new ArrayList<>();
+        for (int statusCode : statusCodes) {
+            if (statusCode >= 200 && statusCode < 300) {
+                successStatusCodes.add(statusCode);
+            } else {
+                errorStatusCodes.add(statusCode);
+            }
+        }
+        PublishScratch scratch = new PublishScratch(perRequestMetrics, perAttemptMetrics, httpMetrics);
+        // The common case of every operation first, then retries, then failures
+        for (int retryCount = 0; retryCount <= maxRetryCount; retryCount++) {
+            for (String operationName : operationNames) {
+                if (!warmUp(scratch, operationName, true, retryCount, null, successStatusCodes)) {
+                    return;
+                }
+            }
+        }
+        for (String errorType : errorTypes) {
+            for (int retryCount = 0; retryCount <= maxRetryCount; retryCount++) {
+                for (String operationName : operationNames) {
+                    if (!warmUp(scratch, operationName, false, retryCount, errorType, errorStatusCodes)) {
+                        return;
+                    }
+                }
             }
         }
-        return null;
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private boolean getBooleanMetricValue(Map<String, MetricRecord<?>> metricsMap, String metricName) {
-        MetricRecord<?> metricRecord = metricsMap.get(metricName);
-        if (metricRecord != null) {
-            Object value = metricRecord.value();
-            if (value instanceof Boolean) {
-                return (Boolean) value;
+    /**
+     * Prepares the attribute sets of the calls of an operation with the given outcome.
+     *
+     * @return {@code false} if the attribute cache is full
+     */
+    private boolean warmUp(PublishScratch scratch, String operationName, boolean isSuccess, int retryCount,
+                           String errorType, List<Integer> statusCodes) {
+        if (attributesCache.stats().size() >= attributesCacheMaximumSize) {
+            return false;
+        }
+        scratch.operationName = admitUncounted(operationNameLimiter, operationName);
+        scratch.operationId = operationIds.idOf(scratch.operationName);
+        scratch.isSuccess = isSuccess;
+        scratch.retryCount = retryCount;
+        scratch.errorType = admitUncounted(errorTypeLimiter, errorType == null ? "no_error" : errorType);
+        scratch.errorTypeId = errorTypeIds.idOf(scratch.errorType);
+        if (isWarmedUp(AttributesCache.LEVEL_PER_REQUEST)) {
+            toAttributes(AttributesCache.LEVEL_PER_REQUEST, scratch);
+        }
+        if (callCounters != null || sloCounters != null) {
+            counterAttributes(AttributesCache.LEVEL_REQUEST_COUNTERS, scratch);
+            counterAttributes(AttributesCache.LEVEL_ATTEMPT_COUNTERS, scratch);
+            if (errorType != null) {
+                counterAttributes(AttributesCache.LEVEL_ERROR_COUNTERS, scratch);
             }
         }
-        return false;
+        if (processAttempts && isWarmedUp(AttributesCache.LEVEL_PER_ATTEMPT)) {
+            toAttributes(AttributesCache.LEVEL_PER_ATTEMPT, scratch);
+        }
+        if (processHttp && isWarmedUp(AttributesCache.LEVEL_HTTP)) {
+            for (int statusCode : statusCodes) {
+                scratch.httpStatusCode = statusCode;
+                toAttributes(AttributesCache.LEVEL_HTTP, scratch);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the attribute sets of the given level can be prepared, as they do not carry a dimension that is only
+     * known once a call is made.
+     */
+    private boolean isWarmedUp(int level) {
+        int unknownDimensions = MetricDimension.SERVICE_ENDPOINT.bit() | MetricDimension.HTTP_CLIENT_NAME.bit();
+        return (dimensionMasks[level] & unknownDimensions) == 0;
+    }
+
+    private static String admitUncounted(CardinalityLimiter limiter, String value) {
+        return limiter == null ? value : limiter.admitUncounted(value);
+    }
+
+    /**
+     * A builder for {@link OtelMetricPublisher}. The defaults match {@link #OtelMetricPublisher(OpenTelemetry)}.
+     */
+    public static final class Builder {
+        private final OpenTelemetry openTelemetry;
+        private String metricPrefix = DEFAULT_METRIC_PREFIX;
+        private Executor executor = ForkJoinPool.commonPool();
+        private Attributes baseAttributes = Attributes.empty();
+        private int pipelineQueueCapacity;
+        private int pipelineConsumerThreads = 1;
+        private int pipelineBatchSize = 64;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+        private Duration closeTimeout = Duration.ofSeconds(5);
+        private int attributesCacheMaximumSize = 4096;
+        private Duration preAggregationFlushInterval;
+        private TimeUnit durationUnit = TimeUnit.NANOSECONDS;
+        private final Map<HistogramType, List<Double>> bucketBoundaries = new EnumMap<>(HistogramType.class);
+        private double samplingRate = 1.0;
+        private final Map<String, Double> operationSamplingRates = new HashMap<>();
+        private Duration slowCallThreshold;
+        private int maxSampledCollectionsPerSecond;
+        private boolean connectionPoolGauges;
+        private boolean connectionPoolGaugeIntervalMaximum;
+        private final MetricEnablement metricEnablement = new MetricEnablement();
+        private boolean counters;
+        private boolean selfMetrics;
+        private int slowestCallsPerOperation;
+        private int recentCalls;
+        private boolean latencyAttribution;
+        private boolean propagateContext;
+        private Duration exemplarThreshold;
+        private Duration liveLatencyWindow;
+        private boolean liveLatenciesByStatusCode;
+        private SaturationListener saturationListener;
+        private Duration saturationWindow = Duration.ofSeconds(1);
+        private double pendingAcquireRatio = 0.1;
+        private Duration acquireDurationThreshold = Duration.ofMillis(10);
+        private double throttlingRate = 0.05;
+        private final Map<MetricDimension, Integer> cardinalityLimits = new EnumMap<>(MetricDimension.class);
+        private Duration sloLatencyThreshold;
+        private final Map<String, Duration> operationSloLatencyThresholds = new HashMap<>();
+        private Path captureDirectory;
+        private int captureSegmentSize;
+        private int captureMaxSegments;
+        private final Map<MetricFamily, Set<MetricDimension>> dimensions = new EnumMap<>(MetricFamily.class);
+
+        private Builder(OpenTelemetry openTelemetry) {
+            this.openTelemetry = openTelemetry;
+        }
+
+        /**
+         * The prefix of all metric names, {@code aws.sdk} by default.
+         */
+        public Builder metricPrefix(String metricPrefix) {
+            this.metricPrefix = metricPrefix;
+            return this;
+        }
+
+        /**
+         * The executor that publishes metrics asynchronously, {@link ForkJoinPool#commonPool()} by default. A
+         * {@code null} executor publishes metrics synchronously on the calling thread. Ignored when the batching
+         * pipeline is enabled.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Attributes added to every reported metric.
+         */
+        public Builder baseAttributes(Attributes baseAttributes) {
+            this.baseAttributes = baseAttributes;
+            return this;
+        }
+
+        /**
+         * Publishes metrics through a bounded lock-free queue drained by dedicated consumer threads instead of an
+         * executor. Publishing then costs the SDK's completion threads a single enqueue.
+         *
+         * @param queueCapacity the maximum number of queued collections, rounded up to a power of two
+         */
+        public Builder batchingPipeline(int queueCapacity) {
+            if (queueCapacity < 2) {
+                throw new IllegalArgumentException("queueCapacity must be at least 2, but was " + queueCapacity);
+            }
+            this.pipelineQueueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * The number of threads that drain the batching pipeline, 1 by default.
+         */
+        public Builder pipelineConsumerThreads(int consumerThreads) {
+            if (consumerThreads < 1) {
+                throw new IllegalArgumentException("consumerThreads must be positive, but was " + consumerThreads);
+            }
+            this.pipelineConsumerThreads = consumerThreads;
+            return this;
+        }
+
+        /**
+         * The maximum number of collections a consumer thread takes from the queue at once, 64 by default.
+         */
+        public Builder pipelineBatchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be positive, but was " + batchSize);
+            }
+            this.pipelineBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * What to do when the batching pipeline is full, {@link OverflowPolicy#DROP_NEWEST} by default.
+         */
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy must not be null");
+            return this;
+        }
+
+        /**
+         * How long {@link OtelMetricPublisher#close()} waits for the batching pipeline to drain, 5 seconds by default.
+         */
+        public Builder closeTimeout(Duration closeTimeout) {
+            this.closeTimeout = Objects.requireNonNull(closeTimeout, "closeTimeout must not be null");
+            return this;
+        }
+
+        /**
+         * The maximum number of attribute sets kept by the attribute cache, 4096 by default. When the cache is full,
+         * rarely used attribute sets are evicted and rebuilt on their next use.
+         */
+        public Builder attributesCacheMaximumSize(int maximumSize) {
+            if (maximumSize < 1) {
+                throw new IllegalArgumentException("maximumSize must be positive, but was " + maximumSize);
+            }
+            this.attributesCacheMaximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Limits the number of distinct values of the given dimension, which must be
+         * {@link MetricDimension#OPERATION_NAME} or {@link MetricDimension#ERROR_TYPE}. The first {@code maxValues}
+         * values are reported as they come; once the limit is reached, a value only replaces the least frequent one
+         * when it becomes more frequent, and the other values are reported as {@code other}, so that a dynamic
+         * operation or a buggy client cannot create an unbounded number of series. How many values were folded is
+         * available through {@link OtelMetricPublisher#cardinalityLimitStats(MetricDimension)}. Not limited by default.
+         * <p>
+         * Folding a value costs {@code O(log maxValues)} under a lock that publishing threads only try; checking
+         * whether it became frequent enough to be admitted scans the admitted values in {@code O(maxValues)}, which
+         * only happens when its count exceeds the last known minimum.
+         */
+        public Builder cardinalityLimit(MetricDimension dimension, int maxValues) {
+            Objects.requireNonNull(dimension, "dimension must not be null");
+            if (dimension != MetricDimension.OPERATION_NAME && dimension != MetricDimension.ERROR_TYPE) {
+                throw new IllegalArgumentException("Only the operation name and the error type can be limited, but was "
+                        + dimension);
+            }
+            if (maxValues < 1) {
+                throw new IllegalArgumentException("maxValues must be positive, but was " + maxValues);
+            }
+            this.cardinalityLimits.put(dimension, maxValues);
+            return this;
+        }
+
+        /**
+         * Pre-aggregates long histograms (durations and concurrency) on the publishing threads in striped lock-free
+         * buckets, and replays them into OpenTelemetry every {@code flushInterval}. Recording then costs a few array
+         * increments instead of an OpenTelemetry SDK storage lookup, at the price of exporting data up to one flush
+         * interval late. The exported count, sum, min, max and bucket counts match direct recording as long as the
+         * SDK aggregates these histograms with the boundaries given to {@link #bucketBoundaries(HistogramType, List)},
+         * which is the case unless a View overrides them. Only applies to durations recorded in nanoseconds and to
+         * concurrency histograms. Disabled by default.
+         * <p>
+         * With {@link #propagateContext()}, the recordings of calls whose context is restored bypass pre-aggregation and
+         * are recorded directly with their context, so that they still carry exemplars.
+         * <p>
+         * Each series holds up to one stripe per processor, at most 16, and each stripe two sets of four
+         * {@code long} arrays with one slot per bucket: about 1.2 KiB per stripe and 19 KiB per series with the 16
+         * default buckets. Every histogram pre-aggregates at most 256 series, or the attributes cache maximum size if it
+         * is smaller, and records the others directly, so each histogram holds at most about 5 MiB.
+         */
+        public Builder preAggregation(Duration flushInterval) {
+            Objects.requireNonNull(flushInterval, "flushInterval must not be null");
+            if (flushInterval.isZero() || flushInterval.isNegative()) {
+                throw new IllegalArgumentException("flushInterval must be positive, but was " + flushInterval);
+            }
+            this.preAggregationFlushInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * The unit of duration histograms: {@link TimeUnit#NANOSECONDS} (the default), {@link TimeUnit#MICROSECONDS},
+         * {@link TimeUnit#MILLISECONDS} or {@link TimeUnit#SECONDS}. Nanoseconds are recorded into long histograms,
+         * the other units into double histograms with fractional values.
+         */
+        public Builder durationUnit(TimeUnit durationUnit) {
+            Objects.requireNonNull(durationUnit, "durationUnit must not be null");
+            unitOf(durationUnit);
+            this.durationUnit = durationUnit;
+            return this;
+        }
+
+        /**
+         * The explicit bucket boundaries advised to the OpenTelemetry SDK for all histograms of the given type.
+         * Duration boundaries are expressed in the configured {@link #durationUnit(TimeUnit)}, and are rounded to whole
+         * numbers along with concurrency boundaries when recorded into long histograms. An empty list gives no advice,
+         * so the SDK defaults or a View apply. By default, each type uses the boundaries of
+         * {@link HistogramType}, which fit the range of AWS API calls.
+         *
+         * @param boundaries strictly ascending, finite boundaries
+         */
+        public Builder bucketBoundaries(HistogramType type, List<Double> boundaries) {
+            Objects.requireNonNull(type, "type must not be null");
+            Objects.requireNonNull(boundaries, "boundaries must not be null");
+            List<Double> copy = new ArrayList<>(boundaries);
+            for (int i = 0; i < copy.size(); i++) {
+                Double boundary = copy.get(i);
+                if (boundary == null || boundary.isNaN() || boundary.isInfinite()) {
+                    throw new IllegalArgumentException("boundaries must be finite, but were " + boundaries);
+                }
+                if (i > 0 && copy.get(i - 1) >= boundary) {
+                    throw new IllegalArgumentException("boundaries must be strictly ascending, but were " + boundaries);
+                }
+            }
+            this.bucketBoundaries.put(type, Collections.unmodifiableList(copy));
+            return this;
+        }
+
+        /**
+         * The probability of publishing a collection, 1 by default. Calls not reported as successful, retried calls and
+         * slow calls are always published. The decision is made in {@link OtelMetricPublisher#publish(MetricCollection)}, before the
+         * collection is queued or processed; {@link OtelMetricPublisher#samplingStats()} estimates the number of
+         * collections that would have been published without sampling.
+         *
+         * @param rate a probability in (0, 1]
+         */
+        public Builder samplingRate(double rate) {
+            this.samplingRate = checkSamplingRate(rate);
+            return this;
+        }
+
+        /**
+         * The probability of publishing a collection of the given operation, overriding
+         * {@link #samplingRate(double)}.
+         *
+         * @param operationName the operation name, as reported by {@link CoreMetric#OPERATION_NAME}
+         * @param rate          a probability in (0, 1]
+         */
+        public Builder samplingRate(String operationName, double rate) {
+            Objects.requireNonNull(operationName, "operationName must not be null");
+            this.operationSamplingRates.put(operationName, checkSamplingRate(rate));
+            return this;
+        }
+
+        /**
+         * Samples collections adaptively, so that at most about {@code maxCollectionsPerSecond} collections that are
+         * not always published are published per second. The configured sampling rates still apply as upper bounds.
+         * Disabled by default.
+         */
+        public Builder adaptiveSampling(int maxCollectionsPerSecond) {
+            if (maxCollectionsPerSecond < 1) {
+                throw new IllegalArgumentException("maxCollectionsPerSecond must be positive, but was "
+                        + maxCollectionsPerSecond);
+            }
+            this.maxSampledCollectionsPerSecond = maxCollectionsPerSecond;
+            return this;
+        }
+
+        /**
+         * Calls whose {@link CoreMetric#API_CALL_DURATION} exceeds this threshold are always published when sampling is
+         * enabled, and kept as recent calls by the flight recorder. Not set by default.
+         */
+        public Builder slowCallThreshold(Duration threshold) {
+            Objects.requireNonNull(threshold, "threshold must not be null");
+            if (threshold.isNegative()) {
+                throw new IllegalArgumentException("threshold must not be negative, but was " + threshold);
+            }
+            this.slowCallThreshold = threshold;
+            return this;
+        }
+
+        private static double checkSamplingRate(double rate) {
+            if (!(rate > 0.0 && rate <= 1.0)) {
+                throw new IllegalArgumentException("rate must be in (0, 1], but was " + rate);
+            }
+            return rate;
+        }
+
+        /**
+         * Reports {@code available_concurrency}, {@code leased_concurrency}, {@code max_concurrency} and
+         * {@code pending_concurrency_acquires} as observable gauges holding the latest value of each HTTP client,
+         * instead of histograms recorded on every HTTP call with the per-request attributes. The gauges carry the base
+         * attributes and {@code http_client_name}. Disabled by default.
+         *
+         * @param trackIntervalMaximum also report {@code leased_concurrency_max} and
+         *                             {@code pending_concurrency_acquires_max}, the maximum since the previous
+         *                             collection, so that short saturation spikes are not lost. The maximum is reset
+         *                             on every collection, so it needs a single metric reader.
+         */
+        public Builder connectionPoolGauges(boolean trackIntervalMaximum) {
+            this.connectionPoolGauges = true;
+            this.connectionPoolGaugeIntervalMaximum = trackIntervalMaximum;
+            return this;
+        }
+
+        /**
+         * Disables every metric of the given family, except the metrics enabled with
+         * {@link #enableMetrics(SdkMetric[])}. All families are enabled by default.
+         */
+        public Builder disableFamily(MetricFamily family) {
+            metricEnablement.setFamilyEnabled(Objects.requireNonNull(family, "family must not be null"), false);
+            return this;
+        }
+
+        /**
+         * Re-enables a family disabled with {@link #disableFamily(MetricFamily)}.
+         */
+        public Builder enableFamily(MetricFamily family) {
+            metricEnablement.setFamilyEnabled(Objects.requireNonNull(family, "family must not be null"), true);
+            return this;
+        }
+
+        /**
+         * Stops reporting the given metrics. Their instruments are not created, and their records are skipped.
+         */
+        public Builder disableMetrics(SdkMetric<?>... metrics) {
+            for (SdkMetric<?> metric : metrics) {
+                metricEnablement.setMetricEnabled(Objects.requireNonNull(metric, "metric must not be null"), false);
+            }
+            return this;
+        }
+
+        /**
+         * Reports the given metrics even if their family is disabled.
+         */
+        public Builder enableMetrics(SdkMetric<?>... metrics) {
+            for (SdkMetric<?> metric : metrics) {
+                metricEnablement.setMetricEnabled(Objects.requireNonNull(metric, "metric must not be null"), true);
+            }
+            return this;
+        }
+
+        /**
+         * The dimensions carried by the metrics of the given family, in addition to the base attributes. By default,
+         * every family carries all the dimensions available to it. Dropping dimensions reduces the number of exported
+         * series and of cached attribute sets.
+         *
+         * @throws IllegalArgumentException if a dimension is not available to the family, see
+         *                                  {@link MetricDimension#isAvailableTo(MetricFamily)}
+         */
+        public Builder dimensions(MetricFamily family, Set<MetricDimension> dimensions) {
+            Objects.requireNonNull(family, "family must not be null");
+            Objects.requireNonNull(dimensions, "dimensions must not be null");
+            Set<MetricDimension> copy = EnumSet.noneOf(MetricDimension.class);
+            for (MetricDimension dimension : dimensions) {
+                if (!dimension.isAvailableTo(family)) {
+                    throw new IllegalArgumentException(dimension + " is not available to " + family + " metrics");
+                }
+                copy.add(dimension);
+            }
+            this.dimensions.put(family, copy);
+            return this;
+        }
+
+        private Set<MetricDimension> dimensionsOf(MetricFamily family) {
+            Set<MetricDimension> configured = dimensions.get(family);
+            if (configured != null) {
+                return configured;
+            }
+            Set<MetricDimension> available = EnumSet.noneOf(MetricDimension.class);
+            for (MetricDimension dimension : MetricDimension.values()) {
+                if (dimension.isDefault() && dimension.isAvailableTo(family)) {
+                    available.add(dimension);
+                }
+            }
+            return available;
+        }
+
+        /**
+         * Also reports monotonic counters with small, fixed attribute sets: {@code api_calls} by operation and
+         * outcome, {@code api_call_attempts}, {@code retries} and {@code throttling_errors} by operation, and
+         * {@code attempt_errors} by operation and error type. Disabled by default. Counters count every call, including
+         * the calls dropped by sampling.
+         */
+        public Builder counters() {
+            this.counters = true;
+            return this;
+        }
+
+        /**
+         * Also reports metrics about the publisher itself under the {@value PublisherSelfMetrics#INSTRUMENTATION_SCOPE}
+         * instrumentation scope: the publish latency, the processing time per collection, dropped collections by
+         * reason, the queue depth of the batching pipeline, type mismatches and failures per metric, and the size,
+         * hit ratio and evictions of the attribute cache. Disabled by default.
+         */
+        public Builder selfMetrics() {
+            this.selfMetrics = true;
+            return this;
+        }
+
+        /**
+         * Sets the latency objective of the operations without their own threshold, and reports
+         * {@code slo.good_calls}, the calls that succeeded within their threshold, and {@code slo.total_calls}, by
+         * operation only. Each request is classified once, from its API call duration and success, including the
+         * requests dropped by sampling. Combined with {@link #disableFamily(MetricFamily)}, this tracks burn rates
+         * without exporting duration histograms. No objective is set by default.
+         */
+        public Builder sloLatencyThreshold(Duration threshold) {
+            this.sloLatencyThreshold = checkSloLatencyThreshold(threshold);
+            return this;
+        }
+
+        /**
+         * Sets the latency objective of the given operation, overriding {@link #sloLatencyThreshold(Duration)}. When
+         * only operation thresholds are set, the calls of other operations are not counted.
+         *
+         * @param operationName the operation name, as reported by {@link CoreMetric#OPERATION_NAME}
+         */
+        public Builder sloLatencyThreshold(String operationName, Duration threshold) {
+            Objects.requireNonNull(operationName, "operationName must not be null");
+            this.operationSloLatencyThresholds.put(operationName, checkSloLatencyThreshold(threshold));
+            return this;
+        }
+
+        private static Duration checkSloLatencyThreshold(Duration threshold) {
+            Objects.requireNonNull(threshold, "threshold must not be null");
+            if (threshold.isNegative() || threshold.isZero()) {
+                throw new IllegalArgumentException("threshold must be positive, but was " + threshold);
+            }
+            return threshold;
+        }
+
+        /**
+         * Also reports duration histograms derived from the whole collection tree of every request:
+         * {@code total_service_call_duration}, {@code total_backoff_delay_duration} and
+         * {@code total_concurrency_acquire_duration} sum their metric across attempts, and
+         * {@code client_overhead_duration} is the API call duration minus the total service call duration. They are
+         * computed in the same pass as the other metrics, with the per-request dimensions. Disabled by default.
+         */
+        public Builder latencyAttribution() {
+            this.latencyAttribution = true;
+            return this;
+        }
+
+        /**
+         * Captures the OpenTelemetry {@link Context} of the calling request when its span is sampled, and restores it
+         * while the metrics of the call are recorded, so that histograms can carry exemplars pointing at the trace of
+         * the call even when metrics are published asynchronously. Calls without a sampled span are recorded without a
+         * context. Disabled by default.
+         */
+        public Builder propagateContext() {
+            this.propagateContext = true;
+            return this;
+        }
+
+        /**
+         * Propagates the context of sampled calls as {@link #propagateContext()} does, but only for the calls whose
+         * {@link CoreMetric#API_CALL_DURATION} is at least the given threshold, so that exemplars point at tail latency
+         * traces.
+         */
+        public Builder exemplarThreshold(Duration threshold) {
+            Objects.requireNonNull(threshold, "threshold must not be null");
+            if (threshold.isNegative()) {
+                throw new IllegalArgumentException("threshold must not be negative, but was " + threshold);
+            }
+            this.propagateContext = true;
+            this.exemplarThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Keeps the latency percentiles of every operation over a sliding window of the given length, from the
+         * {@link CoreMetric#API_CALL_DURATION}, {@link CoreMetric#SERVICE_CALL_DURATION} and
+         * {@link CoreMetric#TIME_TO_FIRST_BYTE} of every call. They are available through
+         * {@link OtelMetricPublisher#liveLatencies()}. Disabled by default.
+         * <p>
+         * Each tracked operation, or operation and status code pair, uses about 33 KiB per metric, and at most 1024 of
+         * them (or the attribute cache maximum size, if smaller) are tracked, so live latencies use up to about
+         * 100 MiB.
+         *
+         * @param byStatusCode whether the latencies are also tracked per HTTP status code
+         */
+        public Builder liveLatencies(Duration window, boolean byStatusCode) {
+            Objects.requireNonNull(window, "window must not be null");
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("window must be positive, but was " + window);
+            }
+            this.liveLatencyWindow = window;
+            this.liveLatenciesByStatusCode = byStatusCode;
+            return this;
+        }
+
+        /**
+         * Notifies the given listener when the connection pool of a client saturates, or when the service throttles
+         * too many of its attempts, and when it recovers. The signals are evaluated off the publishing threads, once
+         * per {@link #saturationWindow(Duration)}, against the {@link #saturationThresholds(double, Duration, double)}.
+         * Disabled by default.
+         */
+        public Builder saturationListener(SaturationListener listener) {
+            this.saturationListener = Objects.requireNonNull(listener, "listener must not be null");
+            return this;
+        }
+
+        /**
+         * The period over which the saturation signals are evaluated. Defaults to 1 second.
+         */
+        public Builder saturationWindow(Duration window) {
+            Objects.requireNonNull(window, "window must not be null");
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("window must be positive, but was " + window);
+            }
+            this.saturationWindow = window;
+            return this;
+        }
+
+        /**
+         * The thresholds of the saturation signals. Default to 10% of HTTP requests finding pending acquires, a mean
+         * acquire duration of 10 milliseconds, and 5% of attempts throttled.
+         *
+         * @param pendingAcquireRatio the ratio of HTTP requests that report pending concurrency acquires
+         * @param acquireDuration     the mean concurrency acquire duration
+         * @param throttlingRate      the ratio of attempts that fail with a throttling error
+         */
+        public Builder saturationThresholds(double pendingAcquireRatio, Duration acquireDuration, double throttlingRate) {
+            Objects.requireNonNull(acquireDuration, "acquireDuration must not be null");
+            if (!(pendingAcquireRatio > 0.0 && pendingAcquireRatio <= 1.0)) {
+                throw new IllegalArgumentException("pendingAcquireRatio must be in (0, 1], but was " + pendingAcquireRatio);
+            }
+            if (acquireDuration.isNegative() || acquireDuration.isZero()) {
+                throw new IllegalArgumentException("acquireDuration must be positive, but was " + acquireDuration);
+            }
+            if (!(throttlingRate > 0.0 && throttlingRate <= 1.0)) {
+                throw new IllegalArgumentException("throttlingRate must be in (0, 1], but was " + throttlingRate);
+            }
+            this.pendingAcquireRatio = pendingAcquireRatio;
+            this.acquireDurationThreshold = acquireDuration;
+            this.throttlingRate = throttlingRate;
+            return this;
+        }
+
+        /**
+         * Captures every published {@link MetricCollection}, before sampling, into memory-mapped segment files of the
+         * given directory, so that production traffic can be replayed offline with {@link MetricCaptureReplayer}.
+         * Metrics and strings are written once per segment, and collections refer to them by id. A new segment is
+         * started when the current one is full, and the oldest segments are deleted beyond {@code maxSegments}.
+         * Collections are encoded on the publishing thread without allocating, and only copied into the segment under
+         * a lock, so capture is cheap enough to be enabled briefly in production. That lock is shared by all the
+         * publishing threads, so with many of them capturing at once they take turns for each copy. Disabled by
+         * default.
+         *
+         * @param segmentSize the size of a segment file, in bytes
+         * @param maxSegments the number of segment files kept
+         */
+        public Builder capture(Path directory, int segmentSize, int maxSegments) {
+            Objects.requireNonNull(directory, "directory must not be null");
+            if (segmentSize < MIN_CAPTURE_SEGMENT_SIZE) {
+                throw new IllegalArgumentException("segmentSize must be at least " + MIN_CAPTURE_SEGMENT_SIZE
+                        + ", but was " + segmentSize);
+            }
+            if (maxSegments < 1) {
+                throw new IllegalArgumentException("maxSegments must be positive, but was " + maxSegments);
+            }
+            this.captureDirectory = directory;
+            this.captureSegmentSize = segmentSize;
+            this.captureMaxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * Keeps the slowest calls of every operation, and the most recent calls that failed or exceeded the
+         * {@link #slowCallThreshold(Duration)}, with the duration of every phase of each call. The kept calls are
+         * available through {@link OtelMetricPublisher#flightRecorder()}. Disabled by default.
+         *
+         * @param slowestCallsPerOperation the number of slowest calls kept per operation, or 0
+         * @param recentCalls              the number of recent failed or slow calls kept, or 0
+         */
+        public Builder flightRecorder(int slowestCallsPerOperation, int recentCalls) {
+            if (slowestCallsPerOperation < 0) {
+                throw new IllegalArgumentException(
+                        "slowestCallsPerOperation must not be negative, but was " + slowestCallsPerOperation);
+            }
+            if (recentCalls < 0) {
+                throw new IllegalArgumentException("recentCalls must not be negative, but was " + recentCalls);
+            }
+            this.slowestCallsPerOperation = slowestCallsPerOperation;
+            this.recentCalls = recentCalls;
+            return this;
+        }
+
+        /**
+         * Only reports the counters of {@link #counters()}, for clients where histograms are too expensive. Metrics
+         * enabled with {@link #enableMetrics(SdkMetric[])} are still reported.
+         */
+        public Builder countersOnly() {
+            this.counters = true;
+            for (MetricFamily family : MetricFamily.values()) {
+                disableFamily(family);
+            }
+            return this;
+        }
+
+        public OtelMetricPublisher build() {
+            return new OtelMetricPublisher(this);
+        }
+
+        /**
+         * Builds a registry whose publishers share one set of instruments, one attribute cache, and the configured
+         * executor or pipeline. Each publisher of the registry adds its own attributes to the base attributes.
+         */
+        public OtelMetricPublisherRegistry buildRegistry() {
+            return new OtelMetricPublisherRegistry(new OtelMetricPublisher(this));
+        }
+    }
+
+    /**
+     * Monotonic counters of calls, attempts, retries, throttled attempts and failed attempts.
+     */
+    private final class CallCounters {
+        private final LongCounter apiCalls;
+        private final LongCounter attempts;
+        private final LongCounter retries;
+        private final LongCounter throttlingErrors;
+        private final LongCounter errors;
+
+        private CallCounters(Meter meter) {
+            this.apiCalls = meter.counterBuilder(metricPrefix + "api_calls")
+                    .setDescription("The number of API calls, by operation and outcome")
+                    .build();
+            this.attempts = meter.counterBuilder(metricPrefix + "api_call_attempts")
+                    .setDescription("The number of API call attempts, by operation")
+                    .build();
+            this.retries = meter.counterBuilder(metricPrefix + "retries")
+                    .setDescription("The number of retried API call attempts, by operation")
+                    .build();
+            this.throttlingErrors = meter.counterBuilder(metricPrefix + "throttling_errors")
+                    .setDescription("The number of API call attempts that were throttled by the service, by operation")
+                    .build();
+            this.errors = meter.counterBuilder(metricPrefix + "attempt_errors")
+                    .setDescription("The number of failed API call attempts, by operation and error type")
+                    .build();
+        }
     }
 
-    private int getIntMetricValue(Map<String, MetricRecord<?>> metricsMap, String metricName) {
-        MetricRecord<?> metricRecord = metricsMap.get(metricName);
-        if (metricRecord != null) {
-            Object value = metricRecord.value();
-            if (value instanceof Number) {
-                return ((Number) value).intValue();
-            }
-        }
-        return 0;
-    }
-
-    private Attributes toPerRequestAttributes(String operationName, boolean isSuccess, int retryCount) {
-        String nullSafeOperationName = operationName == null ? "null" : operationName;
-        return perRequestAttributesCache
-                .computeIfAbsent(nullSafeOperationName, op -> new ConcurrentHashMap<>())
-                .computeIfAbsent(isSuccess, success -> new ConcurrentHashMap<>())
-                .computeIfAbsent(retryCount, rc -> Attributes.builder()
-                        .put("request_operation_name", nullSafeOperationName)
-                        .put("request_is_success", isSuccess)
-                        .put("request_retry_count", retryCount)
-                        .putAll(this.baseAttributes)
-                        .build());
-    }
-
-    private Attributes toAttemptAttributes(Attributes parentAttributes, String errorType) {
-        String safeErrorType = errorType == null ? "no_error" : errorType;
-        return perAttemptAttributesCache
-                .computeIfAbsent(parentAttributes, attr -> new ConcurrentHashMap<>())
-                .computeIfAbsent(safeErrorType, type ->
-                        Attributes.builder()
-                                .putAll(parentAttributes)
-                                .put("attempt_error_type", type)
-                                .build());
-    }
-
-    private Attributes toHttpAttributes(Attributes parentAttributes, int httpStatusCode) {
-        return perHttpAttributesCache
-                .computeIfAbsent(parentAttributes, attr -> new ConcurrentHashMap<>())
-                .computeIfAbsent(httpStatusCode, code ->
-                        Attributes.builder()
-                                .putAll(parentAttributes)
-                                .put("http_status_code", code)
-                                .build());
+    /**
+     * Counters of the calls that met their latency objective, and of all calls, by operation only. A call is good when
+     * it succeeded within the latency threshold of its operation; calls without a reported duration are not good.
+     */
+    private final class SloCounters {
+        private final LongCounter goodCalls;
+        private final LongCounter totalCalls;
+        /**
+         * The threshold of operations without their own, or -1 if only those operations are tracked.
+         */
+        private final long defaultThresholdNanos;
+        private final Map<String, Long> operationThresholdNanos = new HashMap<>();
+
+        private SloCounters(Meter meter, Duration defaultThreshold, Map<String, Duration> operationThresholds) {
+            this.goodCalls = meter.counterBuilder(metricPrefix + "slo.good_calls")
+                    .setDescription("The number of API calls that succeeded within their latency objective, by operation")
+                    .build();
+            this.totalCalls = meter.counterBuilder(metricPrefix + "slo.total_calls")
+                    .setDescription("The number of API calls that have a latency objective, by operation")
+                    .build();
+            this.defaultThresholdNanos = defaultThreshold == null ? -1 : defaultThreshold.toNanos();
+            for (Map.Entry<String, Duration> entry : operationThresholds.entrySet()) {
+                operationThresholdNanos.put(entry.getKey(), entry.getValue().toNanos());
+            }
+        }
+
+        /**
+         * Classifies the request whose per-request metrics are in the given scratch.
+         *
+         * @param operationName the reported operation name, before any cardinality limit
+         */
+        private void record(String operationName, PublishScratch scratch) {
+            Long operationThreshold = operationName == null ? null : operationThresholdNanos.get(operationName);
+            long thresholdNanos = operationThreshold == null ? defaultThresholdNanos : operationThreshold;
+            if (thresholdNanos < 0) {
+                return;
+            }
+            Attributes attributes = counterAttributes(AttributesCache.LEVEL_ATTEMPT_COUNTERS, scratch);
+            totalCalls.add(1, attributes);
+            if (scratch.isSuccess && scratch.apiCallNanos >= 0 && scratch.apiCallNanos <= thresholdNanos) {
+                goodCalls.add(1, attributes);
+            }
+        }
+    }
+
+    /**
+     * Histograms derived from the whole collection tree of a request, telling apart the time spent in the service from
+     * the time spent in the client.
+     */
+    private final class LatencyAttribution {
+        private final DurationStrategy serviceCallDuration;
+        private final DurationStrategy backoffDelayDuration;
+        private final DurationStrategy concurrencyAcquireDuration;
+        private final DurationStrategy clientOverheadDuration;
+
+        private LatencyAttribution(Meter meter) {
+            this.serviceCallDuration = durationHistogram(meter, "total_service_call_duration",
+                    "The total time spent in service calls across all attempts of a request");
+            this.backoffDelayDuration = durationHistogram(meter, "total_backoff_delay_duration",
+                    "The total time the SDK waited before retrying the attempts of a request");
+            this.concurrencyAcquireDuration = durationHistogram(meter, "total_concurrency_acquire_duration",
+                    "The total time spent acquiring a connection from the pool across all attempts of a request");
+            this.clientOverheadDuration = durationHistogram(meter, "client_overhead_duration",
+                    "The part of the API call duration that was not spent in service calls, such as pool waits, signing, marshalling and backoff delays");
+        }
+
+        private void record(PublishScratch scratch) {
+            Attributes attributes = toAttributes(AttributesCache.LEVEL_PER_REQUEST, scratch);
+            serviceCallDuration.recordNanos(scratch.serviceCallNanos, attributes);
+            backoffDelayDuration.recordNanos(scratch.backoffDelayNanos, attributes);
+            concurrencyAcquireDuration.recordNanos(scratch.concurrencyAcquireNanos, attributes);
+            clientOverheadDuration.recordNanos(Math.max(scratch.apiCallNanos - scratch.serviceCallNanos, 0), attributes);
+        }
+    }
+
+    /**
+     * A collection queued by a view, which must be published with the view's base attributes, or queued along with its
+     * publish time or context.
+     */
+    private static final class QueuedPublish {
+        private final OtelMetricPublisher publisher;
+        private final MetricCollection metricCollection;
+        private final long publishNanos;
+        private final Context context;
+
+        private QueuedPublish(OtelMetricPublisher publisher, MetricCollection metricCollection, long publishNanos,
+                              Context context) {
+            this.publisher = publisher;
+            this.metricCollection = metricCollection;
+            this.publishNanos = publishNanos;
+            this.context = context;
+        }
+    }
+
+    /**
+     * Per-thread scratch space for the collection currently being published. The record arrays are indexed by the
+     * slots of the corresponding {@link MetricDispatchTable}; each tree level has its own array because a request's
+     * records are still pending while its attempts are processed. The remaining fields hold the dimensions of the
+     * request, attempt and HTTP call that are currently being processed.
+     */
+    private static final class PublishScratch {
+        private final MetricRecord<?>[] perRequest;
+        private final MetricRecord<?>[] perAttempt;
+        private final MetricRecord<?>[] http;
+
+        private String operationName;
+        private int operationId;
+        private boolean isSuccess;
+        private int retryCount;
+        private String errorType;
+        private int errorTypeId;
+        private int httpStatusCode;
+        private String serviceEndpoint;
+        private String httpClientName;
+        private long apiCallNanos = -1;
+        private long serviceCallNanos;
+        private long backoffDelayNanos;
+        private long concurrencyAcquireNanos;
+        private long attemptServiceCallNanos = -1;
+        private long attemptTimeToFirstByteNanos = -1;
+        private int lastStatusCode;
+        private long liveLatencyNanos = PublisherSelfMetrics.NOT_TIMED;
+        private final long[] poolState = new long[ConnectionPoolGauges.GAUGE_COUNT];
+
+        private PublishScratch(MetricDispatchTable perRequestMetrics,
+                               MetricDispatchTable perAttemptMetrics,
+                               MetricDispatchTable httpMetrics) {
+            this.perRequest = new MetricRecord<?>[perRequestMetrics.size()];
+            this.perAttempt = new MetricRecord<?>[perAttemptMetrics.size()];
+            this.http = new MetricRecord<?>[httpMetrics.size()];
+            Arrays.fill(poolState, ConnectionPoolGauges.NO_VALUE);
+        }
+
+        private void clear() {
+            Arrays.fill(perRequest, null);
+            Arrays.fill(perAttempt, null);
+            Arrays.fill(http, null);
+            Arrays.fill(poolState, ConnectionPoolGauges.NO_VALUE);
+            operationName = null;
+            errorType = null;
+            serviceEndpoint = null;
+            httpClientName = null;
+            apiCallNanos = -1;
+            serviceCallNanos = 0;
+            backoffDelayNanos = 0;
+            concurrencyAcquireNanos = 0;
+            attemptServiceCallNanos = -1;
+            attemptTimeToFirstByteNanos = -1;
+            lastStatusCode = 0;
+            liveLatencyNanos = PublisherSelfMetrics.NOT_TIMED;
+        }
     }
 }
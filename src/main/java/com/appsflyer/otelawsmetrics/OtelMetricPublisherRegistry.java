@@ -0,0 +1,91 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates lightweight {@link OtelMetricPublisher}s for many AWS SDK clients that report to the same
+ * {@link OpenTelemetry} with the same metric prefix.
+ * <p>
+ * The instruments, the attribute cache, the executor or batching pipeline, the sampler and the pre-aggregated
+ * histograms are created once, by {@link OtelMetricPublisher.Builder#buildRegistry()}. Each publisher created by
+ * {@link #publisher(Attributes)} only holds its own base attributes, so heap footprint and construction time stay flat
+ * as the number of clients grows. All publishers share the bounded attribute cache.
+ * <p>
+ * Closing a publisher of the registry, as the AWS SDK does when its client is closed, does not close the shared state;
+ * {@link #close()} does.
+ */
+public final class OtelMetricPublisherRegistry implements AutoCloseable {
+    private final OtelMetricPublisher shared;
+    private final AtomicInteger nextViewId = new AtomicInteger(1);
+
+    OtelMetricPublisherRegistry(OtelMetricPublisher shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Creates a publisher whose base attributes are the registry's base attributes followed by the given ones, for
+     * example the client name or region.
+     */
+    public OtelMetricPublisher publisher(Attributes attributes) {
+        Objects.requireNonNull(attributes, "attributes must not be null");
+        int viewId = nextViewId.getAndIncrement();
+        if (viewId <= 0) {
+            throw new IllegalStateException("Too many publishers were created by this registry");
+        }
+        return shared.newView(attributes, viewId);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the attribute cache shared by the publishers of this registry.
+     */
+    public AttributesCacheStats attributesCacheStats() {
+        return shared.attributesCacheStats();
+    }
+
+    /**
+     * Returns a snapshot of the cardinality limit of the given dimension, shared by the publishers of this registry.
+     */
+    public CardinalityLimitStats cardinalityLimitStats(MetricDimension dimension) {
+        return shared.cardinalityLimitStats(dimension);
+    }
+
+    /**
+     * Returns a snapshot of the sampling decisions of the publishers of this registry.
+     */
+    public SamplingStats samplingStats() {
+        return shared.samplingStats();
+    }
+
+    /**
+     * Returns the flight recorder shared by the publishers of this registry.
+     */
+    public FlightRecorder flightRecorder() {
+        return shared.flightRecorder();
+    }
+
+    /**
+     * Returns the live latency percentiles shared by the publishers of this registry.
+     */
+    public LiveLatencies liveLatencies() {
+        return shared.liveLatencies();
+    }
+
+    /**
+     * Replays the pre-aggregated histograms of the publishers of this registry, see {@link OtelMetricPublisher#flush()}.
+     */
+    public void flush() {
+        shared.flush();
+    }
+
+    /**
+     * Closes the state shared by the publishers of this registry, see {@link OtelMetricPublisher#close()}.
+     */
+    @Override
+    public void close() {
+        shared.close();
+    }
+}
@@ -0,0 +1,22 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * What the batching pipeline of an {@link OtelMetricPublisher} does with a {@code MetricCollection} that is published
+ * while its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the collection that is being published.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Evict the oldest queued collection to make room for the one that is being published.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Publish the collection synchronously on the calling thread.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,284 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.context.Context;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link LongHistogram} that accumulates recordings locally and periodically replays them into a delegate
+ * histogram, so that the hot path costs a few array increments instead of an OpenTelemetry SDK storage lookup.
+ * <p>
+ * Every series, identified by the {@link Attributes} instance handed out by the attribute cache, holds striped bucket
+ * accumulators; a recording thread picks a stripe by its id, so concurrent threads rarely share one. Each stripe is
+ * double-buffered with a {@link WriterReaderPhaser}: recording is wait-free, and {@link #flush()} swaps the buffers
+ * before reading them.
+ * <p>
+ * A flush replays each bucket's count, sum, minimum and maximum exactly: the minimum and the maximum are recorded once,
+ * and the rest of the sum is spread evenly over the remaining count. Every replayed value falls in the same bucket as
+ * the original ones, so the exported count, sum, min, max and bucket counts match direct recording as long as the
+ * configured boundaries refine the boundaries used by the SDK aggregation.
+ * <p>
+ * Series are looked up by identity in a table of at most {@code maximumSeries} slots, rounded up to a power of two,
+ * which bounds the memory of the histogram: each series holds up to {@code stripes} stripes of two accumulators, each
+ * made of four {@code long} arrays with one slot per bucket. A series that recorded nothing since the previous flush is
+ * evicted, so that attributes rebuilt by the attribute cache do not keep their slot: it is removed from the table,
+ * retired, and flushed once more. A recording that finds its series retired inside the writer critical section retries
+ * with a new series, and a recording that entered it before the retirement is replayed by that last flush, so no
+ * recording is lost. Recordings for attributes that are not yet known when the probe window is full, or that carry an
+ * explicit {@link Context}, go straight to the delegate. So do recordings made while the current context holds a
+ * sampled span, when exemplars are enabled, since the replay cannot carry their context.
+ * <p>
+ * The replay still makes one delegate {@code record} per aggregated value, so the CPU cost of the SDK storage is moved
+ * from the publishing threads to the flushing thread, not reduced.
+ */
+final class PreAggregatingLongHistogram implements LongHistogram {
+    private static final int PROBE_LIMIT = 16;
+
+    private final LongHistogram delegate;
+    private final double[] boundaries;
+    private final int stripeMask;
+    private final AtomicReferenceArray<Series> series;
+    private final int seriesMask;
+    private final boolean exemplars;
+
+    /**
+     * @param exemplars whether recordings made in the context of a sampled span go straight to the delegate with that
+     *                  context, so that they can carry exemplars
+     */
+    PreAggregatingLongHistogram(LongHistogram delegate, List<Double> boundaries, int stripes, int maximumSeries,
+                                boolean exemplars) {
+        this.delegate = delegate;
+        this.exemplars = exemplars;
+        this.boundaries = new double[boundaries.size()];
+        for (int i = 0; i < this.boundaries.length; i++) {
+            this.boundaries[i] = boundaries.get(i);
+        }
+        int stripeCount = Integer.highestOneBit(Math.max(1, stripes) - 1) << 1;
+        this.stripeMask = Math.max(1, stripeCount) - 1;
+        int capacity = Integer.highestOneBit(Math.max(PROBE_LIMIT, maximumSeries) - 1) << 1;
+        this.series = new AtomicReferenceArray<>(capacity);
+        this.seriesMask = capacity - 1;
+    }
+
+    @Override
+    public void record(long value) {
+        record(value, Attributes.empty());
+    }
+
+    @Override
+    public void record(long value, Attributes attributes) {
+        if (exemplars) {
+            Context context = Context.current();
+            if (Span.fromContext(context).getSpanContext().isSampled()) {
+                delegate.record(value, attributes, context);
+                return;
+            }
+        }
+        int bucket = bucketOf(value);
+        while (true) {
+            Series target = seriesFor(attributes);
+            if (target == null) {
+                delegate.record(value, attributes);
+                return;
+            }
+            if (target.stripe((int) Thread.currentThread().getId() & stripeMask).record(target, value, bucket)) {
+                return;
+            }
+            // The series was evicted concurrently, it is no longer in the table
+        }
+    }
+
+    @Override
+    public void record(long value, Attributes attributes, Context context) {
+        delegate.record(value, attributes, context);
+    }
+
+    /**
+     * Replays everything accumulated since the previous flush into the delegate histogram.
+     */
+    synchronized void flush() {
+        for (int i = 0; i < series.length(); i++) {
+            Series entry = series.get(i);
+            if (entry != null && !entry.flush() && series.compareAndSet(i, entry, null)) {
+                // Replay the recordings that raced with the eviction, later ones see the series retired
+                entry.retired = true;
+                entry.flush();
+            }
+        }
+    }
+
+    int bucketOf(long value) {
+        double[] bounds = boundaries;
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (value <= bounds[middle]) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private Series seriesFor(Attributes attributes) {
+        int hash = System.identityHashCode(attributes);
+        int index = (hash ^ (hash >>> 16)) & seriesMask;
+        for (int probe = 0; probe < PROBE_LIMIT; probe++) {
+            int slot = (index + probe) & seriesMask;
+            Series entry = series.get(slot);
+            if (entry == null) {
+                Series created = new Series(attributes);
+                if (series.compareAndSet(slot, null, created)) {
+                    return created;
+                }
+                entry = series.get(slot);
+            }
+            if (entry.attributes == attributes) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private final class Series {
+        private final Attributes attributes;
+        private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(stripeMask + 1);
+        private volatile boolean retired;
+
+        private Series(Attributes attributes) {
+            this.attributes = attributes;
+        }
+
+        private Stripe stripe(int index) {
+            Stripe stripe = stripes.get(index);
+            if (stripe == null) {
+                stripes.compareAndSet(index, null, new Stripe());
+                stripe = stripes.get(index);
+            }
+            return stripe;
+        }
+
+        /**
+         * @return whether anything was recorded since the previous flush
+         */
+        private boolean flush() {
+            boolean recorded = false;
+            for (int i = 0; i < stripes.length(); i++) {
+                Stripe stripe = stripes.get(i);
+                if (stripe != null) {
+                    recorded |= stripe.flushInto(delegate, attributes);
+                }
+            }
+            return recorded;
+        }
+    }
+
+    private final class Stripe {
+        private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+        private volatile Accumulator active = new Accumulator(boundaries.length + 1);
+        private Accumulator inactive = new Accumulator(boundaries.length + 1);
+
+        /**
+         * @return {@code false} if the series of this stripe is retired, and nothing was recorded
+         */
+        private boolean record(Series owner, long value, int bucket) {
+            long criticalValue = phaser.writerCriticalSectionEnter();
+            try {
+                if (owner.retired) {
+                    return false;
+                }
+                active.record(value, bucket);
+                return true;
+            } finally {
+                phaser.writerCriticalSectionExit(criticalValue);
+            }
+        }
+
+        private boolean flushInto(LongHistogram target, Attributes attributes) {
+            synchronized (phaser.readerLock()) {
+                Accumulator recorded = active;
+                active = inactive;
+                phaser.flipPhase();
+                inactive = recorded;
+                return recorded.replayInto(target, attributes);
+            }
+        }
+    }
+
+    /**
+     * The count, sum, minimum and maximum of every bucket.
+     */
+    private static final class Accumulator {
+        private final AtomicLongArray counts;
+        private final AtomicLongArray sums;
+        private final AtomicLongArray minimums;
+        private final AtomicLongArray maximums;
+
+        private Accumulator(int buckets) {
+            this.counts = new AtomicLongArray(buckets);
+            this.sums = new AtomicLongArray(buckets);
+            this.minimums = new AtomicLongArray(buckets);
+            this.maximums = new AtomicLongArray(buckets);
+            resetExtremes();
+        }
+
+        private void record(long value, int bucket) {
+            counts.incrementAndGet(bucket);
+            sums.addAndGet(bucket, value);
+            long minimum;
+            while (value < (minimum = minimums.get(bucket)) && !minimums.compareAndSet(bucket, minimum, value)) {
+                // Retry with the updated minimum
+            }
+            long maximum;
+            while (value > (maximum = maximums.get(bucket)) && !maximums.compareAndSet(bucket, maximum, value)) {
+                // Retry with the updated maximum
+            }
+        }
+
+        private boolean replayInto(LongHistogram target, Attributes attributes) {
+            boolean replayed = false;
+            for (int bucket = 0; bucket < counts.length(); bucket++) {
+                long count = counts.get(bucket);
+                if (count == 0) {
+                    continue;
+                }
+                replayed = true;
+                long sum = sums.get(bucket);
+                long minimum = minimums.get(bucket);
+                long maximum = maximums.get(bucket);
+                target.record(minimum, attributes);
+                if (count > 1) {
+                    target.record(maximum, attributes);
+                }
+                long remaining = count - 2;
+                if (remaining > 0) {
+                    // Spread the rest of the sum evenly, each value stays within [minimum, maximum]
+                    long rest = sum - minimum - maximum;
+                    long quotient = Math.floorDiv(rest, remaining);
+                    long remainder = Math.floorMod(rest, remaining);
+                    for (long i = 0; i < remaining; i++) {
+                        target.record(i < remainder ? quotient + 1 : quotient, attributes);
+                    }
+                }
+                counts.set(bucket, 0);
+                sums.set(bucket, 0);
+            }
+            resetExtremes();
+            return replayed;
+        }
+
+        private void resetExtremes() {
+            for (int bucket = 0; bucket < minimums.length(); bucket++) {
+                minimums.set(bucket, Long.MAX_VALUE);
+                maximums.set(bucket, Long.MIN_VALUE);
+            }
+        }
+    }
+}
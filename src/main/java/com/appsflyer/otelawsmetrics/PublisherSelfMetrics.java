@@ -0,0 +1,239 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import software.amazon.awssdk.metrics.MetricRecord;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics about the publisher itself, reported under their own instrumentation scope.
+ * <p>
+ * The hot path only increments {@link LongAdder}s and records the publish latency into a single histogram without
+ * attributes. Everything else, including the attribute cache statistics, the queue depth and the per-strategy error
+ * counts, is read by observable instruments when metrics are collected.
+ */
+final class PublisherSelfMetrics {
+    /**
+     * The instrumentation scope of the publisher's own metrics.
+     */
+    static final String INSTRUMENTATION_SCOPE = "com.appsflyer.otelawsmetrics.publisher";
+    /**
+     * Marks a collection whose publish time was not captured.
+     */
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final AttributeKey<String> REASON = AttributeKey.stringKey("reason");
+    private static final AttributeKey<String> METRIC = AttributeKey.stringKey("metric");
+    private static final AttributeKey<String> DIMENSION = AttributeKey.stringKey("dimension");
+    private static final AttributeKey<String> OPERATION_NAME_KEY =
+            AttributeKey.stringKey(MetricDimension.OPERATION_NAME.attributeName());
+    private static final Attributes OPERATION_NAME =
+            Attributes.of(DIMENSION, MetricDimension.OPERATION_NAME.attributeName());
+    private static final Attributes ERROR_TYPE = Attributes.of(DIMENSION, MetricDimension.ERROR_TYPE.attributeName());
+    private static final Attributes REJECTED = Attributes.of(REASON, "executor_rejected");
+    private static final Attributes PIPELINE = Attributes.of(REASON, "pipeline");
+    private static final Attributes SAMPLING = Attributes.of(REASON, "sampling");
+    private static final List<Long> LATENCY_BOUNDARIES = Arrays.asList(
+            1_000L, 2_500L, 5_000L, 10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L,
+            250_000_000L, 500_000_000L, 1_000_000_000L);
+
+    private final Meter meter;
+    private final String prefix;
+    private final LongHistogram publishLatency;
+    private final LongAdder processedCollections = new LongAdder();
+    private final LongAdder processingNanos = new LongAdder();
+    private final LongAdder rejectedCollections = new LongAdder();
+    private final List<StrategyStats> strategyStats = new CopyOnWriteArrayList<>();
+    private final List<AutoCloseable> callbacks = new CopyOnWriteArrayList<>();
+    private volatile BatchingPublishPipeline<?> pipeline;
+
+    /**
+     * @param sampler the sampler of the publisher, or {@code null} when sampling is disabled
+     */
+    PublisherSelfMetrics(Meter meter, String metricPrefix, AttributesCache attributesCache,
+                         MetricCollectionSampler sampler) {
+        this.meter = meter;
+        this.prefix = metricPrefix + "publisher.";
+        this.publishLatency = meter.histogramBuilder(prefix + "publish_latency")
+                .setDescription("The time from the publication of a collection until all of its metrics are recorded")
+                .setUnit("ns")
+                .ofLongs()
+                .setExplicitBucketBoundariesAdvice(LATENCY_BOUNDARIES)
+                .build();
+        callbacks.add(meter.counterBuilder(prefix + "processed_collections")
+                .setDescription("The number of collections whose metrics were recorded")
+                .buildWithCallback(measurement -> measurement.record(processedCollections.sum())));
+        callbacks.add(meter.counterBuilder(prefix + "processing_time")
+                .setDescription("The total time spent recording the metrics of collections")
+                .setUnit("ns")
+                .buildWithCallback(measurement -> measurement.record(processingNanos.sum())));
+        callbacks.add(meter.counterBuilder(prefix + "dropped_collections")
+                .setDescription("The number of collections that were not published, by reason")
+                .buildWithCallback(measurement -> {
+                    measurement.record(rejectedCollections.sum(), REJECTED);
+                    BatchingPublishPipeline<?> observedPipeline = pipeline;
+                    if (observedPipeline != null) {
+                        measurement.record(observedPipeline.droppedCollections(), PIPELINE);
+                    }
+                    if (sampler != null) {
+                        measurement.record(sampler.stats().droppedCount(), SAMPLING);
+                    }
+                }));
+        if (sampler != null) {
+            callbacks.add(meter.counterBuilder(prefix + "sampling.estimated_collections")
+                    .setDescription("The estimated number of collections before sampling, by operation")
+                    .ofDoubles()
+                    .buildWithCallback(measurement -> sampler.stats().estimatedCountByOperation().forEach(
+                            (operationName, estimate) -> measurement.record(estimate,
+                                    Attributes.of(OPERATION_NAME_KEY, operationName)))));
+        }
+        callbacks.add(meter.counterBuilder(prefix + "strategy_type_mismatches")
+                .setDescription("The number of records whose value type does not match their metric's strategy, by metric")
+                .buildWithCallback(measurement -> {
+                    for (StrategyStats stats : strategyStats) {
+                        long count = stats.typeMismatches.sum();
+                        if (count > 0) {
+                            measurement.record(count, stats.attributes);
+                        }
+                    }
+                }));
+        callbacks.add(meter.counterBuilder(prefix + "strategy_errors")
+                .setDescription("The number of records whose strategy failed, by metric")
+                .buildWithCallback(measurement -> {
+                    for (StrategyStats stats : strategyStats) {
+                        long count = stats.errors.sum();
+                        if (count > 0) {
+                            measurement.record(count, stats.attributes);
+                        }
+                    }
+                }));
+        callbacks.add(meter.gaugeBuilder(prefix + "attributes_cache.size")
+                .setDescription("The number of cached attribute sets")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(attributesCache.stats().size())));
+        callbacks.add(meter.gaugeBuilder(prefix + "attributes_cache.hit_ratio")
+                .setDescription("The ratio of attribute cache lookups that were hits, since the publisher was built")
+                .buildWithCallback(measurement -> {
+                    AttributesCacheStats stats = attributesCache.stats();
+                    long lookups = stats.hitCount() + stats.missCount();
+                    if (lookups > 0) {
+                        measurement.record((double) stats.hitCount() / lookups);
+                    }
+                }));
+        callbacks.add(meter.counterBuilder(prefix + "attributes_cache.evictions")
+                .setDescription("The number of attribute sets evicted from the cache")
+                .buildWithCallback(measurement -> measurement.record(attributesCache.stats().evictionCount())));
+    }
+
+    /**
+     * Also reports the queue depth and the drops of the given batching pipeline.
+     */
+    void observe(BatchingPublishPipeline<?> observedPipeline) {
+        this.pipeline = observedPipeline;
+        callbacks.add(meter.gaugeBuilder(prefix + "queue_depth")
+                .setDescription("The number of collections waiting in the batching pipeline")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(observedPipeline.queueSize())));
+    }
+
+    /**
+     * Also reports the number of values that the given limiters folded, by dimension.
+     *
+     * @param operationNameLimiter the limiter of the operation names, or {@code null}
+     * @param errorTypeLimiter     the limiter of the error types, or {@code null}
+     */
+    void observe(CardinalityLimiter operationNameLimiter, CardinalityLimiter errorTypeLimiter) {
+        callbacks.add(meter.counterBuilder(prefix + "cardinality_limit.folded")
+                .setDescription("The number of occurrences of values reported as other, by dimension")
+                .buildWithCallback(measurement -> {
+                    if (operationNameLimiter != null) {
+                        measurement.record(operationNameLimiter.stats().foldedCount(), OPERATION_NAME);
+                    }
+                    if (errorTypeLimiter != null) {
+                        measurement.record(errorTypeLimiter.stats().foldedCount(), ERROR_TYPE);
+                    }
+                }));
+    }
+
+    /**
+     * Unregisters the callbacks of the observable instruments, which are no longer reported.
+     */
+    void close() {
+        for (AutoCloseable callback : callbacks) {
+            try {
+                callback.close();
+            } catch (Exception e) {
+                // Observable instruments do not throw on close, keep closing the others
+            }
+        }
+    }
+
+    /**
+     * Records that a collection was processed.
+     *
+     * @param publishNanos the {@link System#nanoTime()} at which the collection was published, or
+     *                     {@link #NOT_TIMED} if it was processed on the publishing thread
+     */
+    void recordProcessed(long startNanos, long endNanos, long publishNanos) {
+        processedCollections.increment();
+        processingNanos.add(endNanos - startNanos);
+        publishLatency.record(endNanos - (publishNanos == NOT_TIMED ? startNanos : publishNanos));
+    }
+
+    void recordRejected() {
+        rejectedCollections.increment();
+    }
+
+    /**
+     * Wraps the strategy of the given metric so that its type mismatches and failures are counted.
+     *
+     * @param valueType the type of values the strategy records
+     */
+    MetricStrategy counting(String metricName, Class<?> valueType, MetricStrategy delegate) {
+        StrategyStats stats = new StrategyStats(Attributes.of(METRIC, metricName));
+        strategyStats.add(stats);
+        return new CountingMetricStrategy(delegate, valueType, stats);
+    }
+
+    private static final class StrategyStats {
+        private final Attributes attributes;
+        private final LongAdder typeMismatches = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private StrategyStats(Attributes attributes) {
+            this.attributes = attributes;
+        }
+    }
+
+    private static final class CountingMetricStrategy implements MetricStrategy {
+        private final MetricStrategy delegate;
+        private final Class<?> valueType;
+        private final StrategyStats stats;
+
+        private CountingMetricStrategy(MetricStrategy delegate, Class<?> valueType, StrategyStats stats) {
+            this.delegate = delegate;
+            this.valueType = valueType;
+            this.stats = stats;
+        }
+
+        @Override
+        public void record(MetricRecord<?> metricRecord, Attributes attributes) {
+            if (!valueType.isInstance(metricRecord.value())) {
+                stats.typeMismatches.increment();
+            }
+            try {
+                delegate.record(metricRecord, attributes);
+            } catch (RuntimeException e) {
+                stats.errors.increment();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A call kept by the {@link FlightRecorder}, with the duration of every phase of the call.
+ */
+public final class RecordedCall {
+    private final String operationName;
+    private final Instant recordedAt;
+    private final long durationNanos;
+    private final boolean isSuccess;
+    private final int retryCount;
+    private final String errorType;
+    private final Map<String, Duration> phases;
+
+    RecordedCall(String operationName, Instant recordedAt, long durationNanos, boolean isSuccess, int retryCount,
+                 String errorType, Map<String, Duration> phases) {
+        this.operationName = operationName;
+        this.recordedAt = recordedAt;
+        this.durationNanos = durationNanos;
+        this.isSuccess = isSuccess;
+        this.retryCount = retryCount;
+        this.errorType = errorType;
+        this.phases = Collections.unmodifiableMap(phases);
+    }
+
+    public String operationName() {
+        return operationName;
+    }
+
+    /**
+     * When the call was published.
+     */
+    public Instant recordedAt() {
+        return recordedAt;
+    }
+
+    /**
+     * The total duration of the call, inclusive of all retries.
+     */
+    public Duration duration() {
+        return Duration.ofNanos(durationNanos);
+    }
+
+    public boolean isSuccess() {
+        return isSuccess;
+    }
+
+    public int retryCount() {
+        return retryCount;
+    }
+
+    /**
+     * The error type of the last failed attempt, or {@code null} if no attempt failed.
+     */
+    public String errorType() {
+        return errorType;
+    }
+
+    /**
+     * The duration metrics of the call, in the order they were reported. Metrics of the call itself are keyed by
+     * their SDK name, for example {@code CredentialsFetchDuration}; metrics of attempts and HTTP requests are prefixed
+     * with their path in the collection tree, for example {@code ApiCallAttempt[1].HttpClient[0].ConcurrencyAcquireDuration}.
+     */
+    public Map<String, Duration> phases() {
+        return phases;
+    }
+
+    long durationNanos() {
+        return durationNanos;
+    }
+
+    void appendJson(StringBuilder json) {
+        json.append("{\"operationName\":");
+        FlightRecorder.appendJsonString(json, operationName);
+        json.append(",\"recordedAt\":\"").append(recordedAt).append('"');
+        json.append(",\"durationNanos\":").append(durationNanos);
+        json.append(",\"success\":").append(isSuccess);
+        json.append(",\"retryCount\":").append(retryCount);
+        json.append(",\"errorType\":");
+        FlightRecorder.appendJsonString(json, errorType);
+        json.append(",\"phases\":{");
+        boolean first = true;
+        for (Map.Entry<String, Duration> phase : phases.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            FlightRecorder.appendJsonString(json, phase.getKey());
+            json.append(':').append(phase.getValue().toNanos());
+        }
+        json.append("}}");
+    }
+
+    @Override
+    public String toString() {
+        return "RecordedCall{operationName=" + operationName + ", recordedAt=" + recordedAt
+                + ", duration=" + duration() + ", isSuccess=" + isSuccess + ", retryCount=" + retryCount
+                + ", errorType=" + errorType + ", phases=" + phases + "}";
+    }
+}
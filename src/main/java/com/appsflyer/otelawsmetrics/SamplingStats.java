@@ -0,0 +1,70 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A point-in-time snapshot of the sampling decisions of an {@link OtelMetricPublisher}.
+ */
+public final class SamplingStats {
+    private final long sampledCount;
+    private final long alwaysSampledCount;
+    private final long droppedCount;
+    private final double estimatedCount;
+    private final Map<String, Double> estimatedCountByOperation;
+
+    SamplingStats(long sampledCount, long alwaysSampledCount, long droppedCount, double estimatedCount,
+                  Map<String, Double> estimatedCountByOperation) {
+        this.sampledCount = sampledCount;
+        this.alwaysSampledCount = alwaysSampledCount;
+        this.droppedCount = droppedCount;
+        this.estimatedCount = estimatedCount;
+        this.estimatedCountByOperation = Collections.unmodifiableMap(estimatedCountByOperation);
+    }
+
+    /**
+     * The number of collections that were kept by a random sampling decision.
+     */
+    public long sampledCount() {
+        return sampledCount;
+    }
+
+    /**
+     * The number of collections that were kept regardless of the sampling rate, because the call failed, was retried or
+     * was slow.
+     */
+    public long alwaysSampledCount() {
+        return alwaysSampledCount;
+    }
+
+    /**
+     * The number of collections that were not published.
+     */
+    public long droppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * The estimated number of collections that would have been published without sampling: every sampled collection
+     * counts for the inverse of the probability it was sampled with, and every always sampled collection counts for
+     * one.
+     */
+    public double estimatedCount() {
+        return estimatedCount;
+    }
+
+    /**
+     * The {@link #estimatedCount()} of every operation, since operations can be sampled with different probabilities.
+     * Beyond 1024 operations, the others are estimated together under {@code other}.
+     */
+    public Map<String, Double> estimatedCountByOperation() {
+        return estimatedCountByOperation;
+    }
+
+    @Override
+    public String toString() {
+        return "SamplingStats{sampledCount=" + sampledCount + ", alwaysSampledCount=" + alwaysSampledCount
+                + ", droppedCount=" + droppedCount + ", estimatedCount=" + estimatedCount
+                + ", estimatedCountByOperation=" + estimatedCountByOperation + "}";
+    }
+}
@@ -0,0 +1,165 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.Attributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches the connection pool and throttling signals of every client, and notifies a {@link SaturationListener} when
+ * one of them crosses its threshold.
+ * <p>
+ * The publishing threads only increment the {@link LongAdder}s of the current window. A dedicated thread evaluates
+ * every window: a signal becomes saturated when its value reaches its threshold over at least {@value #MIN_SAMPLES}
+ * samples, and recovers once it falls below half of the threshold. After a change, the state of a signal is held for
+ * {@value #HOLD_WINDOWS} windows, so that the listener is notified at most once per signal and client over that
+ * period.
+ */
+final class SaturationDetector {
+    private static final Logger log = LoggerFactory.getLogger(SaturationDetector.class);
+    static final int MIN_SAMPLES = 20;
+    static final int HOLD_WINDOWS = 5;
+    static final double RECOVERY_RATIO = 0.5;
+    private static final SaturationSignal[] SIGNALS = SaturationSignal.values();
+
+    private final SaturationListener listener;
+    private final double[] thresholds = new double[SIGNALS.length];
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService evaluator;
+
+    SaturationDetector(SaturationListener listener, Duration window, double pendingAcquireRatio,
+                       Duration acquireDuration, double throttlingRate) {
+        this.listener = listener;
+        thresholds[SaturationSignal.PENDING_ACQUIRES.ordinal()] = pendingAcquireRatio;
+        thresholds[SaturationSignal.ACQUIRE_DURATION.ordinal()] = acquireDuration.toNanos();
+        thresholds[SaturationSignal.THROTTLING.ordinal()] = throttlingRate;
+        this.evaluator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "otel-aws-metrics-saturation-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long windowNanos = window.toNanos();
+        evaluator.scheduleAtFixedRate(this::evaluate, windowNanos, windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts watching a client, whose events carry the given attributes.
+     */
+    Client newClient(Attributes clientAttributes) {
+        Client client = new Client(clientAttributes);
+        clients.add(client);
+        return client;
+    }
+
+    void remove(Client client) {
+        clients.remove(client);
+    }
+
+    void close() {
+        evaluator.shutdownNow();
+    }
+
+    /**
+     * Evaluates the window that just ended for every client. Runs on the evaluator thread only.
+     */
+    void evaluate() {
+        Instant now = Instant.now();
+        for (Client client : clients) {
+            long httpRequests = client.httpRequests.sumThenReset();
+            long pendingAcquires = client.pendingAcquires.sumThenReset();
+            long acquires = client.acquires.sumThenReset();
+            long acquireNanos = client.acquireNanos.sumThenReset();
+            long attempts = client.attempts.sumThenReset();
+            long throttledAttempts = client.throttledAttempts.sumThenReset();
+
+            client.evaluate(SaturationSignal.PENDING_ACQUIRES, httpRequests,
+                    ratio(pendingAcquires, httpRequests), now);
+            client.evaluate(SaturationSignal.ACQUIRE_DURATION, acquires, ratio(acquireNanos, acquires), now);
+            client.evaluate(SaturationSignal.THROTTLING, attempts, ratio(throttledAttempts, attempts), now);
+        }
+    }
+
+    private static double ratio(long numerator, long denominator) {
+        return denominator == 0 ? 0 : (double) numerator / denominator;
+    }
+
+    /**
+     * The signals of one client: the window counters written by the publishing threads, and the saturation state
+     * owned by the evaluator thread.
+     */
+    final class Client {
+        private final Attributes clientAttributes;
+        private final LongAdder httpRequests = new LongAdder();
+        private final LongAdder pendingAcquires = new LongAdder();
+        private final LongAdder acquires = new LongAdder();
+        private final LongAdder acquireNanos = new LongAdder();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder throttledAttempts = new LongAdder();
+        private final boolean[] saturated = new boolean[SIGNALS.length];
+        private final int[] heldWindows = new int[SIGNALS.length];
+
+        private Client(Attributes clientAttributes) {
+            this.clientAttributes = clientAttributes;
+        }
+
+        /**
+         * Records the connection pool signals of an HTTP request.
+         *
+         * @param pendingAcquires the reported number of pending acquires, or a negative value if it was not reported
+         * @param acquireNanos    the reported acquire duration, or a negative value if it was not reported
+         */
+        void recordHttpRequest(long pendingAcquires, long acquireNanos) {
+            if (pendingAcquires >= 0) {
+                httpRequests.increment();
+                if (pendingAcquires > 0) {
+                    this.pendingAcquires.increment();
+                }
+            }
+            if (acquireNanos >= 0) {
+                acquires.increment();
+                this.acquireNanos.add(acquireNanos);
+            }
+        }
+
+        void recordAttempt(boolean isThrottled) {
+            attempts.increment();
+            if (isThrottled) {
+                throttledAttempts.increment();
+            }
+        }
+
+        private void evaluate(SaturationSignal signal, long samples, double value, Instant now) {
+            int index = signal.ordinal();
+            if (heldWindows[index] > 0) {
+                heldWindows[index]--;
+                return;
+            }
+            double threshold = thresholds[index];
+            boolean isSaturated;
+            if (saturated[index]) {
+                isSaturated = value >= threshold * RECOVERY_RATIO;
+            } else {
+                isSaturated = samples >= MIN_SAMPLES && value >= threshold;
+            }
+            if (isSaturated == saturated[index]) {
+                return;
+            }
+            saturated[index] = isSaturated;
+            heldWindows[index] = HOLD_WINDOWS - 1;
+            try {
+                listener.onSaturationChanged(new SaturationEvent(clientAttributes, signal, isSaturated, value,
+                        threshold, now));
+            } catch (RuntimeException e) {
+                log.warn("The saturation listener failed", e);
+            }
+        }
+    }
+}
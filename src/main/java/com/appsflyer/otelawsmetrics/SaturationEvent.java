@@ -0,0 +1,70 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.Attributes;
+
+import java.time.Instant;
+
+/**
+ * A change of the saturation state of a client, for one {@link SaturationSignal}.
+ */
+public final class SaturationEvent {
+    private final Attributes clientAttributes;
+    private final SaturationSignal signal;
+    private final boolean isSaturated;
+    private final double value;
+    private final double threshold;
+    private final Instant timestamp;
+
+    SaturationEvent(Attributes clientAttributes, SaturationSignal signal, boolean isSaturated, double value,
+                    double threshold, Instant timestamp) {
+        this.clientAttributes = clientAttributes;
+        this.signal = signal;
+        this.isSaturated = isSaturated;
+        this.value = value;
+        this.threshold = threshold;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * The base attributes of the publisher of the client, which tell apart the clients of a registry.
+     */
+    public Attributes clientAttributes() {
+        return clientAttributes;
+    }
+
+    public SaturationSignal signal() {
+        return signal;
+    }
+
+    /**
+     * Whether the client became saturated, or recovered.
+     */
+    public boolean isSaturated() {
+        return isSaturated;
+    }
+
+    /**
+     * The value of the signal over the last evaluation window.
+     */
+    public double value() {
+        return value;
+    }
+
+    /**
+     * The threshold above which the signal is saturated.
+     */
+    public double threshold() {
+        return threshold;
+    }
+
+    public Instant timestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "SaturationEvent{clientAttributes=" + clientAttributes + ", signal=" + signal
+                + ", isSaturated=" + isSaturated + ", value=" + value + ", threshold=" + threshold
+                + ", timestamp=" + timestamp + "}";
+    }
+}
@@ -0,0 +1,13 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * Notified when a client of an {@link OtelMetricPublisher} becomes saturated or recovers, for example to shed load or
+ * slow producers down.
+ * <p>
+ * Listeners are called on the detector's own thread, never on the thread that publishes metrics; a listener that
+ * blocks delays the following evaluations.
+ */
+@FunctionalInterface
+public interface SaturationListener {
+    void onSaturationChanged(SaturationEvent event);
+}
@@ -0,0 +1,21 @@
+package com.appsflyer.otelawsmetrics;
+
+/**
+ * The signals watched by the saturation detector of an {@link OtelMetricPublisher}.
+ */
+public enum SaturationSignal {
+    /**
+     * The ratio of HTTP requests that found other requests waiting for a connection or a stream of the pool.
+     */
+    PENDING_ACQUIRES,
+
+    /**
+     * The mean time taken to acquire a connection or a stream from the pool, in nanoseconds.
+     */
+    ACQUIRE_DURATION,
+
+    /**
+     * The ratio of API call attempts that were throttled by the service.
+     */
+    THROTTLING
+}
@@ -0,0 +1,110 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A histogram of nanosecond latencies over a sliding window, with log-linear buckets in the style of HdrHistogram.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} nanoseconds have a bucket each; above, every power of two is split into
+ * {@value #SUB_BUCKETS} buckets, so that a bucket is at most about 3% wide relatively to its values. Values above
+ * 2<sup>37</sup> nanoseconds, about 137 seconds, share the last bucket, but the exact maximum is tracked separately.
+ * Each slice holds {@value #BUCKETS} long counts, so a histogram uses about 33 KiB.
+ * <p>
+ * The window is split into {@value #SLICES} slices, each covering a fixed period and recycled once it is older than
+ * the window. Recording is wait-free: the first writer of a new period resets the recycled slice, and a few values
+ * recorded concurrently with the reset may be lost. Reading merges the slices of the current window, so its cost only
+ * depends on the number of buckets.
+ */
+final class SlidingWindowHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 31;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_SHIFT + 1) * SUB_BUCKETS;
+    static final int SLICES = 4;
+
+    private final long sliceNanos;
+    private final Slice[] slices = new Slice[SLICES];
+
+    SlidingWindowHistogram(long windowNanos) {
+        this.sliceNanos = Math.max(1, windowNanos / SLICES);
+        for (int i = 0; i < SLICES; i++) {
+            slices[i] = new Slice();
+        }
+    }
+
+    void record(long nanos, long nowNanos) {
+        long period = Math.floorDiv(nowNanos, sliceNanos);
+        Slice slice = slices[(int) Math.floorMod(period, (long) SLICES)];
+        long slicePeriod = slice.period.get();
+        if (slicePeriod != period) {
+            if (slicePeriod > period) {
+                // A late writer, whose period is already recycled
+                return;
+            }
+            if (slice.period.compareAndSet(slicePeriod, period)) {
+                slice.reset();
+            }
+        }
+        slice.counts.incrementAndGet(bucketOf(nanos));
+        slice.maximum.accumulate(nanos);
+    }
+
+    /**
+     * Adds the bucket counts of the current window to the given array.
+     *
+     * @return the maximum value of the current window, or 0 if it is empty
+     */
+    long addTo(long[] counts, long nowNanos) {
+        long period = Math.floorDiv(nowNanos, sliceNanos);
+        long maximum = 0;
+        for (Slice slice : slices) {
+            long slicePeriod = slice.period.get();
+            if (slicePeriod > period - SLICES && slicePeriod <= period) {
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    counts[bucket] += slice.counts.get(bucket);
+                }
+                maximum = Math.max(maximum, slice.maximum.get());
+            }
+        }
+        return maximum;
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The highest value that falls into the given bucket.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    private static final class Slice {
+        private final AtomicLong period = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAccumulator maximum = new LongAccumulator(Math::max, 0);
+
+        private void reset() {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts.set(bucket, 0);
+            }
+            maximum.reset();
+        }
+    }
+}
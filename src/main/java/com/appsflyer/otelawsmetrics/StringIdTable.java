@@ -0,0 +1,40 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns dense integer ids to strings, up to a fixed capacity, so that they can be packed into primitive cache keys.
+ * Ids are never reclaimed; once the table is full, new strings get {@link #NO_ID}, and the series that carry them are
+ * cached by value in the overflow map of the {@link AttributesCache}.
+ */
+final class StringIdTable {
+    static final int NO_ID = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final int capacity;
+
+    StringIdTable(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the id of the given string, assigning one if needed, or {@link #NO_ID} if the table is full.
+     */
+    int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (nextId.get() >= capacity) {
+            return NO_ID;
+        }
+        int assigned = ids.computeIfAbsent(value, v -> nextId.getAndIncrement());
+        return assigned < capacity ? assigned : NO_ID;
+    }
+
+    int size() {
+        return Math.min(nextId.get(), capacity);
+    }
+}
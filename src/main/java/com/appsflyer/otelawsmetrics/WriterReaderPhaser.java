@@ -0,0 +1,60 @@
+package com.appsflyer.otelawsmetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets wait-free writers update a double-buffered data structure while a reader swaps the buffers, following Gil
+ * Tene's WriterReaderPhaser design.
+ * <p>
+ * Writers wrap every update in {@link #writerCriticalSectionEnter()} and {@link #writerCriticalSectionExit(long)},
+ * which costs two atomic increments. The reader holds {@link #readerLock()}, swaps the active buffer and then calls
+ * {@link #flipPhase()}, which returns once every writer that may still be using the previous buffer has left its
+ * critical section. The sign of the start epoch encodes the current phase.
+ */
+final class WriterReaderPhaser {
+    private final AtomicLong startEpoch = new AtomicLong();
+    private final AtomicLong evenEndEpoch = new AtomicLong();
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+    private final Object readerLock = new Object();
+
+    /**
+     * Enters a writer critical section.
+     *
+     * @return the value to pass to {@link #writerCriticalSectionExit(long)}
+     */
+    long writerCriticalSectionEnter() {
+        return startEpoch.getAndIncrement();
+    }
+
+    void writerCriticalSectionExit(long criticalValueAtEnter) {
+        (criticalValueAtEnter < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+    }
+
+    /**
+     * The lock that serializes readers. {@link #flipPhase()} must be called while holding it.
+     */
+    Object readerLock() {
+        return readerLock;
+    }
+
+    /**
+     * Flips the phase and waits for the writers of the previous phase to leave their critical sections.
+     */
+    void flipPhase() {
+        if (!Thread.holdsLock(readerLock)) {
+            throw new IllegalStateException("flipPhase() may only be called while holding the reader lock");
+        }
+
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+        AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (previousEndEpoch.get() != startValueAtFlip) {
+            LockSupport.parkNanos(1_000);
+        }
+    }
+}
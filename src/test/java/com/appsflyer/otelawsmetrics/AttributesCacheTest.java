@@ -0,0 +1,110 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttributesCacheTest {
+
+    @Test
+    public void testKeysAreDistinctPerDimension() {
+        long base = AttributesCache.key(AttributesCache.LEVEL_HTTP, 1, true, 0, 2, 200);
+        assertNotEquals(base, AttributesCache.key(AttributesCache.LEVEL_PER_ATTEMPT, 1, true, 0, 2, 200));
+        assertNotEquals(base, AttributesCache.key(AttributesCache.LEVEL_HTTP, 2, true, 0, 2, 200));
+        assertNotEquals(base, AttributesCache.key(AttributesCache.LEVEL_HTTP, 1, false, 0, 2, 200));
+        assertNotEquals(base, AttributesCache.key(AttributesCache.LEVEL_HTTP, 1, true, 1, 2, 200));
+        assertNotEquals(base, AttributesCache.key(AttributesCache.LEVEL_HTTP, 1, true, 0, 3, 200));
+        assertNotEquals(base, AttributesCache.key(AttributesCache.LEVEL_HTTP, 1, true, 0, 2, 500));
+    }
+
+    @Test
+    public void testValuesOutsideTheirFieldAreUncacheable() {
+        assertEquals(AttributesCache.UNCACHEABLE,
+                AttributesCache.key(AttributesCache.LEVEL_HTTP, StringIdTable.NO_ID, true, 0, 0, 200));
+        assertEquals(AttributesCache.UNCACHEABLE,
+                AttributesCache.key(AttributesCache.LEVEL_HTTP, 0, true, 256, 0, 200));
+        assertEquals(AttributesCache.UNCACHEABLE,
+                AttributesCache.key(AttributesCache.LEVEL_HTTP, 0, true, 0, 0, 1024));
+    }
+
+    @Test
+    public void testScopesAreDistinctAndBounded() {
+        long base = AttributesCache.scope(1, 2, 3);
+        assertNotEquals(base, AttributesCache.scope(2, 2, 3));
+        assertNotEquals(base, AttributesCache.scope(1, 3, 3));
+        assertNotEquals(base, AttributesCache.scope(1, 2, 4));
+        assertEquals(AttributesCache.UNCACHEABLE, AttributesCache.scope(0, StringIdTable.NO_ID, 0));
+        assertEquals(AttributesCache.UNCACHEABLE, AttributesCache.scope(0, 0, AttributesCache.MAX_SCOPE_IDS));
+    }
+
+    @Test
+    public void testHitsAndMissesAreCounted() {
+        AttributesCache cache = new AttributesCache(16);
+        long key = AttributesCache.key(AttributesCache.LEVEL_PER_REQUEST, 0, true, 0, 0, 0);
+        Attributes attributes = Attributes.of(AttributeKey.stringKey("request_operation_name"), "GetItem");
+
+        assertNull(cache.get(key));
+        cache.put(key, attributes);
+        assertSame(attributes, cache.get(key));
+        assertSame(attributes, cache.get(key));
+
+        AttributesCacheStats stats = cache.stats();
+        assertEquals(1, stats.size());
+        assertEquals(2, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(0, stats.evictionCount());
+    }
+
+    @Test
+    public void testSizeIsBoundedByEviction() {
+        AttributesCache cache = new AttributesCache(64);
+        for (int operationId = 0; operationId < 10_000; operationId++) {
+            long key = AttributesCache.key(AttributesCache.LEVEL_PER_REQUEST, operationId, true, 0, 0, 0);
+            cache.put(key, Attributes.of(AttributeKey.longKey("operation"), (long) operationId));
+        }
+
+        AttributesCacheStats stats = cache.stats();
+        assertTrue(stats.size() <= 64, "Expected at most 64 entries, but was " + stats.size());
+        assertTrue(stats.evictionCount() > 0, "Expected entries to be evicted");
+    }
+
+    @Test
+    public void testReferencedEntriesSurviveEviction() {
+        AttributesCache cache = new AttributesCache(8);
+        long hotKey = AttributesCache.key(AttributesCache.LEVEL_PER_REQUEST, 0, true, 0, 0, 0);
+        Attributes hot = Attributes.of(AttributeKey.stringKey("request_operation_name"), "GetItem");
+        cache.put(hotKey, hot);
+
+        // The hot entry is read before every insert, so the second chance policy always evicts another entry
+        for (int operationId = 1; operationId < 1_000; operationId++) {
+            assertSame(hot, cache.get(hotKey), "Expected the hot entry to survive insert " + operationId);
+            long key = AttributesCache.key(AttributesCache.LEVEL_PER_REQUEST, operationId, true, 0, 0, 0);
+            cache.put(key, Attributes.of(AttributeKey.longKey("operation"), (long) operationId));
+        }
+    }
+
+    @Test
+    public void testOverflowSeriesAreCachedByValue() {
+        AttributesCache cache = new AttributesCache(2);
+        Attributes attributes = Attributes.of(AttributeKey.stringKey("request_operation_name"), "GetItem");
+        AttributesCache.OverflowKey key = new AttributesCache.OverflowKey(AttributesCache.LEVEL_PER_REQUEST, 0,
+                "GetItem", true, 0, null, 0, null, null);
+
+        assertNull(cache.getOverflow(key));
+        cache.putOverflow(key, attributes);
+        assertSame(attributes, cache.getOverflow(new AttributesCache.OverflowKey(AttributesCache.LEVEL_PER_REQUEST, 0,
+                "GetItem", true, 0, null, 0, null, null)));
+        assertNull(cache.getOverflow(new AttributesCache.OverflowKey(AttributesCache.LEVEL_PER_REQUEST, 0,
+                "GetItem", false, 0, null, 0, null, null)));
+        assertEquals(3, cache.stats().overflowCount());
+
+        // The overflow map is bounded by the maximum size of the cache
+        for (int i = 0; i < 10; i++) {
+            cache.putOverflow(new AttributesCache.OverflowKey(AttributesCache.LEVEL_PER_REQUEST, 0, "Op" + i, true, 0,
+                    null, 0, null, null), attributes);
+        }
+        assertNull(cache.getOverflow(key));
+    }
+}
@@ -0,0 +1,175 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.internal.DefaultMetricCollection;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchingPublishPipelineTest {
+
+    @Test
+    public void testDropNewestKeepsQueuedCollections() throws InterruptedException {
+        BlockingSink sink = new BlockingSink();
+        BatchingPublishPipeline<MetricCollection> pipeline = new BatchingPublishPipeline<>(sink, 2, 1, 1,
+                OverflowPolicy.DROP_NEWEST, "test-pipeline-");
+
+        // The first collection occupies the consumer, the next two fill the queue
+        pipeline.submit(collection("first"));
+        sink.awaitBlocked();
+        pipeline.submit(collection("second"));
+        pipeline.submit(collection("third"));
+        pipeline.submit(collection("fourth"));
+
+        sink.release();
+        pipeline.close(Duration.ofSeconds(5));
+
+        assertEquals(Arrays.asList("first", "second", "third"), sink.names());
+        assertEquals(1, pipeline.droppedCollections());
+    }
+
+    @Test
+    public void testDropOldestEvictsQueuedCollections() throws InterruptedException {
+        BlockingSink sink = new BlockingSink();
+        BatchingPublishPipeline<MetricCollection> pipeline = new BatchingPublishPipeline<>(sink, 2, 1, 1,
+                OverflowPolicy.DROP_OLDEST, "test-pipeline-");
+
+        pipeline.submit(collection("first"));
+        sink.awaitBlocked();
+        pipeline.submit(collection("second"));
+        pipeline.submit(collection("third"));
+        pipeline.submit(collection("fourth"));
+
+        sink.release();
+        pipeline.close(Duration.ofSeconds(5));
+
+        assertEquals(Arrays.asList("first", "third", "fourth"), sink.names());
+        assertEquals(1, pipeline.droppedCollections());
+    }
+
+    @Test
+    public void testCallerRunsPublishesOnTheCallingThread() throws InterruptedException {
+        BlockingSink sink = new BlockingSink();
+        BatchingPublishPipeline<MetricCollection> pipeline = new BatchingPublishPipeline<>(sink, 2, 1, 1,
+                OverflowPolicy.CALLER_RUNS, "test-pipeline-");
+
+        pipeline.submit(collection("first"));
+        sink.awaitBlocked();
+        pipeline.submit(collection("second"));
+        pipeline.submit(collection("third"));
+        // The queue is full, so this one is published right away by the test thread
+        pipeline.submit(collection("fourth"));
+        assertEquals(Arrays.asList("first", "fourth"), sink.names());
+
+        sink.release();
+        pipeline.close(Duration.ofSeconds(5));
+
+        assertEquals(Arrays.asList("first", "fourth", "second", "third"), sink.names());
+        assertEquals(0, pipeline.droppedCollections());
+    }
+
+    @Test
+    public void testCloseDrainsQueuedCollections() {
+        List<String> published = Collections.synchronizedList(new ArrayList<>());
+        BatchingPublishPipeline<MetricCollection> pipeline = new BatchingPublishPipeline<>(c -> published.add(c.name()), 1024, 2, 16,
+                OverflowPolicy.DROP_NEWEST, "test-pipeline-");
+
+        for (int i = 0; i < 500; i++) {
+            pipeline.submit(collection("collection-" + i));
+        }
+        pipeline.close(Duration.ofSeconds(5));
+
+        assertEquals(500, published.size());
+        assertEquals(0, pipeline.queueSize());
+
+        // Collections published after close are dropped
+        pipeline.submit(collection("late"));
+        assertEquals(500, published.size());
+        assertEquals(1, pipeline.droppedCollections());
+    }
+
+    @Test
+    public void testParkedConsumerIsWokenByProducer() throws InterruptedException {
+        CountDownLatch published = new CountDownLatch(1);
+        BatchingPublishPipeline<MetricCollection> pipeline = new BatchingPublishPipeline<>(c -> published.countDown(),
+                16, 2, 4, OverflowPolicy.DROP_NEWEST, "test-pipeline-");
+
+        // Idle consumers park without a deadline
+        Thread.sleep(100);
+        pipeline.submit(collection("after-idle"));
+
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        pipeline.close(Duration.ofSeconds(5));
+        assertEquals(0, pipeline.droppedCollections());
+    }
+
+    @Test
+    public void testConsumerSurvivesFailingAndInterruptingSinks() throws InterruptedException {
+        CountDownLatch published = new CountDownLatch(1);
+        BatchingPublishPipeline<MetricCollection> pipeline = new BatchingPublishPipeline<>(c -> {
+            switch (c.name()) {
+                case "error":
+                    throw new AssertionError("failed to publish");
+                case "interrupt":
+                    Thread.currentThread().interrupt();
+                    break;
+                default:
+                    published.countDown();
+            }
+        }, 16, 1, 1, OverflowPolicy.DROP_NEWEST, "test-pipeline-");
+
+        pipeline.submit(collection("error"));
+        pipeline.submit(collection("interrupt"));
+        Thread.sleep(100);
+        pipeline.submit(collection("after"));
+
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        pipeline.close(Duration.ofSeconds(5));
+        assertEquals(1, pipeline.droppedCollections());
+    }
+
+    private static MetricCollection collection(String name) {
+        return new DefaultMetricCollection(name, Collections.emptyMap(), Collections.emptyList());
+    }
+
+    /**
+     * A sink that blocks inside the first collection it receives on the consumer thread until released.
+     */
+    private static final class BlockingSink implements Consumer<MetricCollection> {
+        private final Queue<String> names = new ConcurrentLinkedQueue<>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void accept(MetricCollection metricCollection) {
+            names.add(metricCollection.name());
+            if (Thread.currentThread().getName().startsWith("test-pipeline-") && blocked.getCount() > 0) {
+                blocked.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue(blocked.await(5, TimeUnit.SECONDS), "The consumer thread did not pick up the first collection");
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        List<String> names() {
+            return new ArrayList<>(names);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CardinalityLimiterTest {
+
+    @Test
+    public void testFoldsValuesBeyondTheLimit() {
+        CardinalityLimiter limiter = new CardinalityLimiter(2);
+        assertEquals("GetItem", limiter.limit("GetItem"));
+        assertEquals("PutItem", limiter.limit("PutItem"));
+        assertEquals(CardinalityLimiter.OTHER, limiter.limit("Query"));
+        assertEquals("GetItem", limiter.limit("GetItem"));
+
+        CardinalityLimitStats stats = limiter.stats();
+        assertEquals(2, stats.maxValues());
+        assertEquals(2, stats.admittedValues());
+        assertEquals(1, stats.foldedCount());
+        assertEquals(0, stats.promotionCount());
+    }
+
+    @Test
+    public void testFrequentValueReplacesTheLeastFrequent() {
+        CardinalityLimiter limiter = new CardinalityLimiter(2);
+        for (int i = 0; i < 10; i++) {
+            limiter.limit("GetItem");
+        }
+        limiter.limit("PutItem");
+        for (int i = 0; i < 100; i++) {
+            limiter.limit("request-" + i);
+        }
+
+        // Query needs a guaranteed count above the one of PutItem before it is reported as itself
+        assertEquals(CardinalityLimiter.OTHER, limiter.limit("Query"));
+        String reported = CardinalityLimiter.OTHER;
+        for (int i = 0; i < 10 && reported.equals(CardinalityLimiter.OTHER); i++) {
+            reported = limiter.limit("Query");
+        }
+        assertEquals("Query", reported);
+        assertEquals(CardinalityLimiter.OTHER, limiter.limit("PutItem"));
+        assertEquals("GetItem", limiter.limit("GetItem"));
+        assertEquals(1, limiter.stats().promotionCount());
+        assertEquals(2, limiter.stats().admittedValues());
+    }
+
+    @Test
+    public void testFrequentValuesAreAdmittedAmongManyRareOnes() {
+        CardinalityLimiter limiter = new CardinalityLimiter(16);
+        for (int i = 0; i < 16; i++) {
+            limiter.limit("rare-" + i);
+        }
+        // Four frequent values interleaved with a stream of rare ones that keeps churning the sketch
+        for (int round = 0; round < 200; round++) {
+            for (int value = 0; value < 4; value++) {
+                limiter.limit("frequent-" + value);
+            }
+            limiter.limit("rare-" + (16 + round));
+        }
+
+        for (int value = 0; value < 4; value++) {
+            assertEquals("frequent-" + value, limiter.limit("frequent-" + value));
+        }
+        assertEquals(CardinalityLimiter.OTHER, limiter.limit("rare-1000"));
+        assertEquals(16, limiter.stats().admittedValues());
+    }
+}
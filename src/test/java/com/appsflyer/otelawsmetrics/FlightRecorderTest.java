@@ -0,0 +1,80 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightRecorderTest {
+
+    @Test
+    public void testKeepsTheSlowestCallsPerOperation() {
+        FlightRecorder recorder = new FlightRecorder(3, 0, null);
+        for (int millis = 1; millis <= 100; millis++) {
+            recorder.record(request("GetItem", true, millis));
+            recorder.record(request("PutItem", true, 1_000 - millis));
+        }
+
+        List<RecordedCall> slowest = recorder.slowestCalls("GetItem");
+        assertEquals(Arrays.asList(Duration.ofMillis(100), Duration.ofMillis(99), Duration.ofMillis(98)),
+                Arrays.asList(slowest.get(0).duration(), slowest.get(1).duration(), slowest.get(2).duration()));
+        assertEquals(Duration.ofMillis(999), recorder.slowestCalls("PutItem").get(0).duration());
+        assertTrue(recorder.recentCalls().isEmpty());
+    }
+
+    @Test
+    public void testKeepsThePhasesOfRecentFailedAndSlowCalls() {
+        FlightRecorder recorder = new FlightRecorder(0, 2, Duration.ofSeconds(1));
+        recorder.record(request("GetItem", false, 5));
+        recorder.record(request("GetItem", true, 5));
+        recorder.record(request("GetItem", true, 2_000));
+        recorder.record(request("PutItem", false, 7));
+
+        List<RecordedCall> recent = recorder.recentCalls();
+        assertEquals(2, recent.size());
+        RecordedCall failed = recent.get(0);
+        assertEquals("PutItem", failed.operationName());
+        assertFalse(failed.isSuccess());
+        assertEquals("Throttling", failed.errorType());
+        assertEquals(Duration.ofMillis(3), failed.phases().get("CredentialsFetchDuration"));
+        assertEquals(Duration.ofMillis(2),
+                failed.phases().get("ApiCallAttempt[0].HttpClient[0].ConcurrencyAcquireDuration"));
+        assertEquals(Duration.ofMillis(2_000), recent.get(1).duration());
+    }
+
+    @Test
+    public void testDumpsJson() {
+        FlightRecorder recorder = new FlightRecorder(1, 1, null);
+        recorder.record(request("Get\"Item", false, 5));
+
+        String json = recorder.toJson();
+        assertTrue(json.startsWith("{\"slowestCalls\":{\"Get\\\"Item\":[{\"operationName\":\"Get\\\"Item\""), json);
+        assertTrue(json.contains("\"ApiCallAttempt[0].ServiceCallDuration\":4000000"), json);
+        assertTrue(json.contains("\"recentCalls\":[{"), json);
+    }
+
+    private static MetricCollection request(String operationName, boolean isSuccess, long apiCallMillis) {
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, operationName);
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, isSuccess);
+        requestCollector.reportMetric(CoreMetric.RETRY_COUNT, 0);
+        requestCollector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(apiCallMillis));
+        requestCollector.reportMetric(CoreMetric.CREDENTIALS_FETCH_DURATION, Duration.ofMillis(3));
+
+        MetricCollector attemptCollector = requestCollector.createChild("ApiCallAttempt");
+        attemptCollector.reportMetric(CoreMetric.SERVICE_CALL_DURATION, Duration.ofMillis(4));
+        if (!isSuccess) {
+            attemptCollector.reportMetric(CoreMetric.ERROR_TYPE, "Throttling");
+        }
+        MetricCollector httpCollector = attemptCollector.createChild("HttpClient");
+        httpCollector.reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, Duration.ofMillis(2));
+        return requestCollector.collect();
+    }
+}
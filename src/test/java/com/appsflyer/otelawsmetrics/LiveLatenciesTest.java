@@ -0,0 +1,77 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveLatenciesTest {
+
+    @Test
+    public void testPercentilesAreAccurateWithinBucketPrecision() {
+        LiveLatencies latencies = new LiveLatencies(Duration.ofMinutes(1), false, 16);
+        long now = System.nanoTime();
+        for (int micros = 1; micros <= 10_000; micros++) {
+            latencies.record(0, "GetItem", 200, LatencyMetric.API_CALL_DURATION, TimeUnit.MICROSECONDS.toNanos(micros), now);
+        }
+
+        LatencySnapshot snapshot = latencies.snapshot("GetItem", LatencyMetric.API_CALL_DURATION);
+        assertEquals(10_000, snapshot.count());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(5_000), snapshot.p50().toNanos(), 5_000 * 1_000 * 0.04);
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(9_900), snapshot.p99().toNanos(), 9_900 * 1_000 * 0.04);
+        assertEquals(Duration.ofMillis(10), snapshot.max());
+        assertEquals(0, latencies.snapshot("GetItem", LatencyMetric.SERVICE_CALL_DURATION).count());
+        assertEquals(0, latencies.snapshot("PutItem", LatencyMetric.API_CALL_DURATION).count());
+    }
+
+    @Test
+    public void testOldValuesLeaveTheWindow() {
+        long windowNanos = TimeUnit.SECONDS.toNanos(4);
+        LiveLatencies latencies = new LiveLatencies(Duration.ofNanos(windowNanos), false, 16);
+        long start = System.nanoTime() - 2 * windowNanos;
+        latencies.record(0, "GetItem", 0, LatencyMetric.API_CALL_DURATION, 1_000_000_000L, start);
+        latencies.record(0, "GetItem", 0, LatencyMetric.API_CALL_DURATION, 1_000L, System.nanoTime());
+
+        LatencySnapshot snapshot = latencies.snapshot("GetItem", LatencyMetric.API_CALL_DURATION);
+        assertEquals(1, snapshot.count());
+        assertEquals(Duration.ofNanos(1_000), snapshot.max());
+    }
+
+    @Test
+    public void testLatenciesByStatusCode() {
+        LiveLatencies latencies = new LiveLatencies(Duration.ofMinutes(1), true, 16);
+        long now = System.nanoTime();
+        latencies.record(0, "GetItem", 200, LatencyMetric.SERVICE_CALL_DURATION, 1_000L, now);
+        latencies.record(0, "GetItem", 503, LatencyMetric.SERVICE_CALL_DURATION, 5_000_000L, now);
+
+        assertEquals(Duration.ofMillis(5), latencies.snapshot("GetItem", 503, LatencyMetric.SERVICE_CALL_DURATION).max());
+        assertEquals(1, latencies.snapshot("GetItem", 200, LatencyMetric.SERVICE_CALL_DURATION).count());
+        assertEquals(2, latencies.snapshot("GetItem", LatencyMetric.SERVICE_CALL_DURATION).count());
+    }
+
+    @Test
+    public void testNumberOfSeriesIsBounded() {
+        LiveLatencies latencies = new LiveLatencies(Duration.ofMinutes(1), false, 4);
+        long now = System.nanoTime();
+        for (int operationId = 0; operationId < 32; operationId++) {
+            latencies.record(operationId, "Operation" + operationId, 200, LatencyMetric.API_CALL_DURATION, 1_000L, now);
+        }
+
+        int tracked = 0;
+        for (int operationId = 0; operationId < 32; operationId++) {
+            tracked += latencies.snapshot("Operation" + operationId, LatencyMetric.API_CALL_DURATION).count();
+        }
+        assertEquals(4, tracked);
+    }
+
+    @Test
+    public void testBucketsBoundTheirValues() {
+        for (long value : new long[]{0, 1, 31, 32, 63, 64, 1_000, 123_456_789, 68_000_000_000L, 137_000_000_000L}) {
+            int bucket = SlidingWindowHistogram.bucketOf(value);
+            assertTrue(SlidingWindowHistogram.highestValueOf(bucket) >= value, "value " + value);
+            assertTrue(bucket == 0 || SlidingWindowHistogram.highestValueOf(bucket - 1) < value, "value " + value);
+        }
+    }
+}
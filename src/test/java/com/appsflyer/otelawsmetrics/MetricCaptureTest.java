@@ -0,0 +1,124 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricCaptureTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReplaysCapturedCollections() throws IOException {
+        MetricCapture capture = new MetricCapture(directory, 64 * 1024, 4);
+        capture.capture(createRequest("GetItem", "Throttling", 503));
+        capture.capture(createRequest("PutItem", null, 200));
+        capture.close();
+
+        List<MetricCollection> replayed = MetricCaptureReplayer.read(directory);
+        assertEquals(2, replayed.size());
+        MetricCollection request = replayed.get(0);
+        assertEquals("ApiCall", request.name());
+        assertEquals("GetItem", request.metricValues(CoreMetric.OPERATION_NAME).get(0));
+        assertEquals(Duration.ofMillis(10), request.metricValues(CoreMetric.API_CALL_DURATION).get(0));
+        assertEquals(URI.create("https://dynamodb.us-east-1.amazonaws.com"),
+                request.metricValues(CoreMetric.SERVICE_ENDPOINT).get(0));
+        MetricCollection attempt = request.children().get(0);
+        assertEquals("Throttling", attempt.metricValues(CoreMetric.ERROR_TYPE).get(0));
+        MetricCollection http = attempt.children().get(0);
+        assertEquals(503, http.metricValues(HttpMetric.HTTP_STATUS_CODE).get(0));
+        assertEquals(false, request.metricValues(CoreMetric.API_CALL_SUCCESSFUL).get(0));
+        assertEquals("PutItem", replayed.get(1).metricValues(CoreMetric.OPERATION_NAME).get(0));
+        assertEquals(true, replayed.get(1).metricValues(CoreMetric.API_CALL_SUCCESSFUL).get(0));
+    }
+
+    @Test
+    public void testRotatesAndDeletesTheOldestSegments() throws IOException {
+        MetricCapture capture = new MetricCapture(directory, 64 * 1024, 2);
+        for (int i = 0; i < 2000; i++) {
+            capture.capture(createRequest("GetItem", null, 200));
+        }
+        capture.close();
+
+        List<Path> segments = MetricCapture.segmentsOf(directory);
+        assertEquals(2, segments.size());
+        assertEquals(0, capture.droppedCollections());
+        List<MetricCollection> replayed = new ArrayList<>();
+        MetricCaptureReplayer.forEach(directory, replayed::add);
+        assertTrue(replayed.size() > 0 && replayed.size() < 2000);
+        for (MetricCollection request : replayed) {
+            assertEquals("GetItem", request.metricValues(CoreMetric.OPERATION_NAME).get(0));
+        }
+    }
+
+    @Test
+    public void testHighCardinalityValuesDoNotFillTheSegments() throws IOException {
+        MetricCapture capture = new MetricCapture(directory, 64 * 1024, 100);
+        int total = 10_000;
+        for (int i = 0; i < total; i++) {
+            MetricCollector requestCollector = MetricCollector.create("ApiCall");
+            requestCollector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+            requestCollector.reportMetric(CoreMetric.AWS_REQUEST_ID, "request-" + i);
+            requestCollector.reportMetric(CoreMetric.AWS_EXTENDED_REQUEST_ID, "extended-request-" + i);
+            capture.capture(requestCollector.collect());
+        }
+        capture.close();
+
+        assertEquals(0, capture.droppedCollections());
+        assertTrue(MetricCapture.segmentsOf(directory).size() > 3, "Expected the capture to rotate several times");
+        List<MetricCollection> replayed = MetricCaptureReplayer.read(directory);
+        assertEquals(total, replayed.size());
+        assertEquals("request-" + (total - 1),
+                replayed.get(total - 1).metricValues(CoreMetric.AWS_REQUEST_ID).get(0));
+    }
+
+    @Test
+    public void testEncodesStringsAsUtf8() throws IOException {
+        String text = "a\u00e9\u20ac\ud83d\ude00";
+        String unpaired = "x\ud83dy";
+        MetricCapture capture = new MetricCapture(directory, 64 * 1024, 4);
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, text);
+        requestCollector.reportMetric(CoreMetric.AWS_REQUEST_ID, text);
+        requestCollector.reportMetric(CoreMetric.AWS_EXTENDED_REQUEST_ID, unpaired);
+        capture.capture(requestCollector.collect());
+        capture.close();
+
+        MetricCollection request = MetricCaptureReplayer.read(directory).get(0);
+        assertEquals(text, request.metricValues(CoreMetric.OPERATION_NAME).get(0));
+        assertEquals(text, request.metricValues(CoreMetric.AWS_REQUEST_ID).get(0));
+        // Unpaired surrogates are replaced, as String.getBytes does
+        assertEquals("x?y", request.metricValues(CoreMetric.AWS_EXTENDED_REQUEST_ID).get(0));
+    }
+
+    private static MetricCollection createRequest(String operationName, String errorType, int httpStatusCode) {
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, operationName);
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, errorType == null);
+        requestCollector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(10));
+        requestCollector.reportMetric(CoreMetric.SERVICE_ENDPOINT, URI.create("https://dynamodb.us-east-1.amazonaws.com"));
+
+        MetricCollector attemptCollector = requestCollector.createChild("ApiCallAttempt");
+        attemptCollector.reportMetric(CoreMetric.SERVICE_CALL_DURATION, Duration.ofMillis(8));
+        if (errorType != null) {
+            attemptCollector.reportMetric(CoreMetric.ERROR_TYPE, errorType);
+        }
+
+        MetricCollector httpCollector = attemptCollector.createChild("HttpClient");
+        httpCollector.reportMetric(HttpMetric.HTTP_STATUS_CODE, httpStatusCode);
+        return requestCollector.collect();
+    }
+}
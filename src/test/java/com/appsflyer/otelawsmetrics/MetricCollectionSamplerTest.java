@@ -0,0 +1,129 @@
+package com.appsflyer.otelawsmetrics;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricCollectionSamplerTest {
+
+    private static final double NEVER = Double.MIN_VALUE;
+
+    @Test
+    public void testFailedRetriedAndSlowCallsAreAlwaysSampled() {
+        MetricCollectionSampler sampler = new MetricCollectionSampler(NEVER, Collections.emptyMap(),
+                Duration.ofSeconds(1), 0);
+
+        assertTrue(sampler.sample(request("GetItem", false, 0, Duration.ofMillis(5))));
+        assertTrue(sampler.sample(request("GetItem", true, 2, Duration.ofMillis(5))));
+        assertTrue(sampler.sample(request("GetItem", true, 0, Duration.ofSeconds(2))));
+        assertFalse(sampler.sample(request("GetItem", true, 0, Duration.ofMillis(5))));
+
+        SamplingStats stats = sampler.stats();
+        assertEquals(3, stats.alwaysSampledCount());
+        assertEquals(0, stats.sampledCount());
+        assertEquals(1, stats.droppedCount());
+    }
+
+    @Test
+    public void testCallsWithoutSuccessFlagAreAlwaysSampled() {
+        MetricCollectionSampler sampler = new MetricCollectionSampler(NEVER, Collections.emptyMap(), null, 0);
+        MetricCollector collector = MetricCollector.create("ApiCall");
+        collector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        collector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(5));
+
+        // The publisher counts such calls as failures, so they must not be dropped as successes
+        assertTrue(sampler.sample(collector.collect()));
+        assertEquals(1, sampler.stats().alwaysSampledCount());
+    }
+
+    @Test
+    public void testOperationRateOverridesDefaultRate() {
+        MetricCollectionSampler sampler = new MetricCollectionSampler(NEVER,
+                Collections.singletonMap("PutItem", 1.0), null, 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sampler.sample(request("PutItem", true, 0, Duration.ofMillis(5))));
+            assertFalse(sampler.sample(request("GetItem", true, 0, Duration.ofMillis(5))));
+        }
+    }
+
+    @Test
+    public void testEstimatedCountReconstructsTotal() {
+        MetricCollectionSampler sampler = new MetricCollectionSampler(0.1, Collections.emptyMap(), null, 0);
+        MetricCollection collection = request("GetItem", true, 0, Duration.ofMillis(5));
+
+        int total = 200_000;
+        for (int i = 0; i < total; i++) {
+            sampler.sample(collection);
+        }
+
+        SamplingStats stats = sampler.stats();
+        assertEquals(total, stats.sampledCount() + stats.droppedCount());
+        assertEquals(total, stats.estimatedCount(), total * 0.05);
+        assertEquals(total * 0.1, stats.sampledCount(), total * 0.1 * 0.05);
+    }
+
+    @Test
+    public void testEstimatedCountIsReportedByOperation() {
+        MetricCollectionSampler sampler = new MetricCollectionSampler(0.1,
+                Collections.singletonMap("PutItem", 1.0), null, 0);
+        MetricCollection getItem = request("GetItem", true, 0, Duration.ofMillis(5));
+        MetricCollection putItem = request("PutItem", true, 0, Duration.ofMillis(5));
+        MetricCollection failedGetItem = request("GetItem", false, 0, Duration.ofMillis(5));
+
+        for (int i = 0; i < 100_000; i++) {
+            sampler.sample(getItem);
+        }
+        for (int i = 0; i < 1_000; i++) {
+            sampler.sample(putItem);
+            sampler.sample(failedGetItem);
+        }
+
+        Map<String, Double> estimated = sampler.stats().estimatedCountByOperation();
+        assertEquals(new HashSet<>(Arrays.asList("GetItem", "PutItem")), estimated.keySet());
+        assertEquals(101_000, estimated.get("GetItem"), 100_000 * 0.05);
+        assertEquals(1_000, estimated.get("PutItem"), 0.0);
+    }
+
+    @Test
+    public void testAdaptiveSamplingCapsTheSampledRate() throws InterruptedException {
+        MetricCollectionSampler sampler = new MetricCollectionSampler(1.0, Collections.emptyMap(), null, 1_000);
+        MetricCollection collection = request("GetItem", true, 0, Duration.ofMillis(5));
+
+        // Let the first window warm up the sampler, and the second one measure the incoming rate at full speed
+        runFor(sampler, collection, TimeUnit.MILLISECONDS.toNanos(2_100));
+        long sampledBefore = sampler.stats().sampledCount();
+        runFor(sampler, collection, TimeUnit.SECONDS.toNanos(1));
+        long sampledInOneSecond = sampler.stats().sampledCount() - sampledBefore;
+
+        assertTrue(sampledInOneSecond < 3_000, "Expected about 1000 sampled collections, but was " + sampledInOneSecond);
+        assertTrue(sampler.stats().droppedCount() > 0, "Expected collections to be dropped");
+    }
+
+    private static void runFor(MetricCollectionSampler sampler, MetricCollection collection, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) {
+            sampler.sample(collection);
+        }
+    }
+
+    private static MetricCollection request(String operationName, boolean isSuccess, int retryCount,
+                                            Duration apiCallDuration) {
+        MetricCollector collector = MetricCollector.create("ApiCall");
+        collector.reportMetric(CoreMetric.OPERATION_NAME, operationName);
+        collector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, isSuccess);
+        collector.reportMetric(CoreMetric.RETRY_COUNT, retryCount);
+        collector.reportMetric(CoreMetric.API_CALL_DURATION, apiCallDuration);
+        return collector.collect();
+    }
+}
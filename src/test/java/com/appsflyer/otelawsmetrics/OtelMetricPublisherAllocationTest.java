@@ -0,0 +1,158 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricRecord;
+import software.amazon.awssdk.metrics.SdkMetric;
+import software.amazon.awssdk.metrics.internal.DefaultMetricRecord;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class OtelMetricPublisherAllocationTest {
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int MEASURED_ITERATIONS = 100_000;
+    /**
+     * Leaves room for the few allocations of the measurement itself, far below one byte per collection.
+     */
+    private static final long MAX_ALLOCATED_BYTES = 1024;
+
+    @Test
+    public void testSteadyStatePublishDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threadMXBean = threadMXBean();
+        assumeTrue(threadMXBean != null, "Thread allocation measurement is not supported by this JVM");
+
+        // A synchronous publisher backed by a no-op OpenTelemetry, so only the publisher itself is measured
+        OtelMetricPublisher publisher = new OtelMetricPublisher(OpenTelemetry.noop(), "alloc.test", null,
+                Attributes.empty());
+        MetricCollection metricCollection = createRequestCollection();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            publisher.publish(metricCollection);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            publisher.publish(metricCollection);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(allocated <= MAX_ALLOCATED_BYTES, "Expected no allocation per published collection, but "
+                + allocated + " bytes were allocated over " + MEASURED_ITERATIONS + " collections");
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        return threadMXBean;
+    }
+
+    private static MetricCollection createRequestCollection() {
+        MetricCollection http = new ReusableMetricCollection("HttpClient", Collections.emptyList(),
+                record(HttpMetric.HTTP_STATUS_CODE, 200),
+                record(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, Duration.ofNanos(1_000)),
+                record(HttpMetric.LEASED_CONCURRENCY, 3),
+                record(HttpMetric.MAX_CONCURRENCY, 50));
+        MetricCollection attempt = new ReusableMetricCollection("ApiCallAttempt", Collections.singletonList(http),
+                record(CoreMetric.SERVICE_CALL_DURATION, Duration.ofMillis(4)),
+                record(CoreMetric.SIGNING_DURATION, Duration.ofNanos(20_000)),
+                record(CoreMetric.TIME_TO_FIRST_BYTE, Duration.ofMillis(3)),
+                record(CoreMetric.AWS_REQUEST_ID, "request-id"));
+        return new ReusableMetricCollection("ApiCall", Collections.singletonList(attempt),
+                record(CoreMetric.SERVICE_ID, "DynamoDB"),
+                record(CoreMetric.OPERATION_NAME, "GetItem"),
+                record(CoreMetric.API_CALL_SUCCESSFUL, true),
+                record(CoreMetric.RETRY_COUNT, 0),
+                record(CoreMetric.API_CALL_DURATION, Duration.ofMillis(5)),
+                record(CoreMetric.MARSHALLING_DURATION, Duration.ofNanos(15_000)));
+    }
+
+    private static <T> MetricRecord<T> record(SdkMetric<T> metric, T value) {
+        return new DefaultMetricRecord<>(metric, value);
+    }
+
+    /**
+     * A {@link MetricCollection} whose iterator is reused, so that iterating it does not allocate. The SDK's own
+     * collection allocates a stream pipeline per iteration, which would hide the publisher's allocations.
+     */
+    private static final class ReusableMetricCollection implements MetricCollection {
+        private final String name;
+        private final List<MetricCollection> children;
+        private final MetricRecord<?>[] records;
+        private final ReusableIterator iterator = new ReusableIterator();
+
+        private ReusableMetricCollection(String name, List<MetricCollection> children, MetricRecord<?>... records) {
+            this.name = name;
+            this.children = children;
+            this.records = records;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> metricValues(SdkMetric<T> metric) {
+            List<T> values = new ArrayList<>();
+            for (MetricRecord<?> metricRecord : records) {
+                if (metricRecord.metric() == metric) {
+                    values.add((T) metricRecord.value());
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public List<MetricCollection> children() {
+            return children;
+        }
+
+        @Override
+        public Instant creationTime() {
+            return Instant.EPOCH;
+        }
+
+        @Override
+        public Iterator<MetricRecord<?>> iterator() {
+            iterator.index = 0;
+            return iterator;
+        }
+
+        private final class ReusableIterator implements Iterator<MetricRecord<?>> {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < records.length;
+            }
+
+            @Override
+            public MetricRecord<?> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return records[index++];
+            }
+        }
+    }
+}
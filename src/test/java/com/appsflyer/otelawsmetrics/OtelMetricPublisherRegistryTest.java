@@ -0,0 +1,107 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtelMetricPublisherRegistryTest {
+
+    private static final AttributeKey<String> CLIENT = AttributeKey.stringKey("client");
+    private static final AttributeKey<String> SERVICE = AttributeKey.stringKey("service");
+
+    private InMemoryMetricReader metricReader;
+    private OpenTelemetrySdk openTelemetry;
+
+    @BeforeEach
+    void setUp() {
+        metricReader = InMemoryMetricReader.create();
+        openTelemetry = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(metricReader).build())
+                .build();
+    }
+
+    @Test
+    public void testPublishersShareTheCacheButKeepTheirAttributes() {
+        OtelMetricPublisherRegistry registry = OtelMetricPublisher.builder(openTelemetry)
+                .executor(null)
+                .baseAttributes(Attributes.of(SERVICE, "checkout"))
+                .buildRegistry();
+        MetricPublisher first = registry.publisher(Attributes.of(CLIENT, "us-east-1"));
+        MetricPublisher second = registry.publisher(Attributes.of(CLIENT, "eu-west-1"));
+
+        for (int i = 0; i < 10; i++) {
+            first.publish(createRequest());
+            second.publish(createRequest());
+        }
+
+        Map<String, Long> countsByClient = new HashMap<>();
+        for (HistogramPointData point : apiCallDurationPoints()) {
+            assertEquals("checkout", point.getAttributes().get(SERVICE));
+            countsByClient.put(point.getAttributes().get(CLIENT), point.getCount());
+        }
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("us-east-1", 10L);
+        expected.put("eu-west-1", 10L);
+        assertEquals(expected, countsByClient);
+
+        AttributesCacheStats stats = registry.attributesCacheStats();
+        assertEquals(2, stats.size());
+        assertEquals(2, stats.missCount());
+    }
+
+    @Test
+    public void testClosingAPublisherKeepsTheSharedPipelineOpen() {
+        OtelMetricPublisherRegistry registry = OtelMetricPublisher.builder(openTelemetry)
+                .batchingPipeline(1024)
+                .buildRegistry();
+        MetricPublisher first = registry.publisher(Attributes.of(CLIENT, "first"));
+        MetricPublisher second = registry.publisher(Attributes.of(CLIENT, "second"));
+
+        first.publish(createRequest());
+        first.close();
+        for (int i = 0; i < 50; i++) {
+            second.publish(createRequest());
+        }
+        registry.close();
+
+        long total = 0;
+        for (HistogramPointData point : apiCallDurationPoints()) {
+            total += point.getCount();
+        }
+        assertEquals(51, total, "Expected every collection to be published before the registry is closed");
+    }
+
+    private Iterable<HistogramPointData> apiCallDurationPoints() {
+        for (MetricData metricData : metricReader.collectAllMetrics()) {
+            if (metricData.getName().equals("aws.sdk.api_call_duration")) {
+                return metricData.getHistogramData().getPoints();
+            }
+        }
+        throw new AssertionError("api_call_duration was not exported");
+    }
+
+    private static MetricCollection createRequest() {
+        MetricCollector collector = MetricCollector.create("ApiCall");
+        collector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        collector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, true);
+        collector.reportMetric(CoreMetric.RETRY_COUNT, 0);
+        collector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(5));
+        return collector.collect();
+    }
+}
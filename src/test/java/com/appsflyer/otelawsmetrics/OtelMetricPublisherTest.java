@@ -3,26 +3,42 @@ package com.appsflyer.otelawsmetrics;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.DoubleExemplarData;
 import io.opentelemetry.sdk.metrics.data.HistogramData;
 import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
 import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.MetricDataType;
 import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkRequest;
 import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.Http2Metric;
+import software.amazon.awssdk.http.HttpMetric;
 import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
 import software.amazon.awssdk.metrics.MetricPublisher;
 import software.amazon.awssdk.metrics.MetricRecord;
 import software.amazon.awssdk.metrics.SdkMetric;
 import software.amazon.awssdk.metrics.internal.DefaultMetricCollection;
 import software.amazon.awssdk.metrics.internal.DefaultMetricRecord;
 
+import java.net.URI;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -103,6 +119,758 @@ class OtelMetricPublisherTest {
                 .get(AttributeKey.stringKey("custom.dimension.key.2")));
     }
 
+    @Test
+    public void testAttemptAndHttpAttributes() {
+        MetricPublisher syncPublisher = new OtelMetricPublisher(GlobalOpenTelemetry.get(), basePrefix, null,
+                baseAttributes);
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+
+        Map<String, MetricData> metricsByName = new HashMap<>();
+        for (MetricData metricData : metricReader.collectAllMetrics()) {
+            metricsByName.put(metricData.getName(), metricData);
+        }
+
+        Collection<HistogramPointData> attemptPoints = metricsByName.get(basePrefix + ".service_call_duration")
+                .getHistogramData().getPoints();
+        Set<String> errorTypes = new HashSet<>();
+        for (HistogramPointData point : attemptPoints) {
+            errorTypes.add(point.getAttributes().get(AttributeKey.stringKey("attempt_error_type")));
+            assertEquals("GetItem", point.getAttributes().get(AttributeKey.stringKey("request_operation_name")));
+            assertNull(point.getAttributes().get(AttributeKey.longKey("http_status_code")));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("Throttling", "no_error")), errorTypes);
+
+        Collection<HistogramPointData> httpPoints = metricsByName.get(basePrefix + ".leased_concurrency")
+                .getHistogramData().getPoints();
+        Map<Long, String> errorTypeByStatusCode = new HashMap<>();
+        for (HistogramPointData point : httpPoints) {
+            errorTypeByStatusCode.put(point.getAttributes().get(AttributeKey.longKey("http_status_code")),
+                    point.getAttributes().get(AttributeKey.stringKey("attempt_error_type")));
+            assertEquals("CustomDimensionValue.1", point.getAttributes()
+                    .get(AttributeKey.stringKey("custom.dimension.key.1")));
+        }
+        assertEquals("Throttling", errorTypeByStatusCode.get(400L));
+        assertEquals("no_error", errorTypeByStatusCode.get(200L));
+    }
+
+    @Test
+    public void testBatchingPipelineDrainsOnClose() {
+        MetricPublisher pipelinePublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(basePrefix)
+                .baseAttributes(baseAttributes)
+                .batchingPipeline(1024)
+                .pipelineConsumerThreads(2)
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            pipelinePublisher.publish(createMockMetricCollection());
+        }
+        pipelinePublisher.close();
+
+        List<MetricData> exportedMetrics = new ArrayList<>(metricReader.collectAllMetrics());
+        assertEquals(1, exportedMetrics.size(), "Expected one metric to be exported");
+        HistogramPointData point = exportedMetrics.get(0).getHistogramData().getPoints().iterator().next();
+        assertEquals(100, point.getCount(), "Expected every queued collection to be published before close returns");
+    }
+
+    @Test
+    public void testDurationsUseLatencyBucketBoundariesByDefault() {
+        MetricPublisher syncPublisher = new OtelMetricPublisher(GlobalOpenTelemetry.get(), basePrefix, null,
+                baseAttributes);
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        HistogramPointData durationPoint = metricsByName.get(basePrefix + ".api_call_duration")
+                .getHistogramData().getPoints().iterator().next();
+        assertEquals(HistogramType.DURATION.defaultBoundaries(TimeUnit.NANOSECONDS), durationPoint.getBoundaries());
+        // 10ms falls in the (5ms, 10ms] bucket instead of the overflow bucket
+        assertEquals(1L, durationPoint.getCounts().get(durationPoint.getBoundaries().indexOf(10_000_000d)));
+
+        HistogramPointData concurrencyPoint = metricsByName.get(basePrefix + ".leased_concurrency")
+                .getHistogramData().getPoints().iterator().next();
+        assertEquals(HistogramType.CONCURRENCY.defaultBoundaries(TimeUnit.NANOSECONDS),
+                concurrencyPoint.getBoundaries());
+    }
+
+    @Test
+    public void testDurationUnitAndCustomBucketBoundaries() {
+        // A distinct prefix, so that the instruments registered by setUp() do not take precedence
+        String prefix = "custom.layout";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .durationUnit(TimeUnit.MILLISECONDS)
+                .bucketBoundaries(HistogramType.DURATION, Arrays.asList(1d, 10d, 100d))
+                .bucketBoundaries(HistogramType.CONCURRENCY, Collections.emptyList())
+                .build();
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        MetricData duration = metricsByName.get(prefix + ".api_call_duration");
+        assertEquals("ms", duration.getUnit());
+        HistogramPointData durationPoint = duration.getHistogramData().getPoints().iterator().next();
+        assertEquals(Arrays.asList(1d, 10d, 100d), durationPoint.getBoundaries());
+        assertEquals(10.0, durationPoint.getSum(), 0.0);
+        assertEquals(Arrays.asList(0L, 1L, 0L, 0L), durationPoint.getCounts());
+
+        // Without advice, the SDK default boundaries apply
+        HistogramPointData concurrencyPoint = metricsByName.get(prefix + ".leased_concurrency")
+                .getHistogramData().getPoints().iterator().next();
+        assertEquals(15, concurrencyPoint.getBoundaries().size());
+    }
+
+    @Test
+    public void testExponentialHistogramView() {
+        InMemoryMetricReader exponentialReader = InMemoryMetricReader.create();
+        SdkMeterProvider meterProvider = OtelHistogramViews.registerBase2ExponentialHistograms(
+                        SdkMeterProvider.builder().registerMetricReader(exponentialReader), basePrefix, 160, 20)
+                .build();
+        MetricPublisher syncPublisher = new OtelMetricPublisher(
+                OpenTelemetrySdk.builder().setMeterProvider(meterProvider).build(), basePrefix, null, baseAttributes);
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+
+        Collection<MetricData> exportedMetrics = exponentialReader.collectAllMetrics();
+        assertFalse(exportedMetrics.isEmpty());
+        for (MetricData metricData : exportedMetrics) {
+            assertEquals(MetricDataType.EXPONENTIAL_HISTOGRAM, metricData.getType(), metricData.getName());
+        }
+    }
+
+    @Test
+    public void testBucketBoundariesMustBeAscending() {
+        OtelMetricPublisher.Builder builder = OtelMetricPublisher.builder(GlobalOpenTelemetry.get());
+        assertThrows(IllegalArgumentException.class,
+                () -> builder.bucketBoundaries(HistogramType.DURATION, Arrays.asList(10d, 1d)));
+        assertThrows(IllegalArgumentException.class, () -> builder.durationUnit(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testConnectionPoolGauges() {
+        String prefix = "custom.pool";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .baseAttributes(baseAttributes)
+                .connectionPoolGauges(true)
+                .build();
+        syncPublisher.publish(createRequestWithPoolState("Apache", 5, 0));
+        syncPublisher.publish(createRequestWithPoolState("Apache", 2, 3));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        assertEquals(2L, onlyGaugeValue(metricsByName.get(prefix + ".leased_concurrency")));
+        assertEquals(3L, onlyGaugeValue(metricsByName.get(prefix + ".pending_concurrency_acquires")));
+        assertEquals(5L, onlyGaugeValue(metricsByName.get(prefix + ".leased_concurrency_max")));
+        LongPointData point = metricsByName.get(prefix + ".leased_concurrency").getLongGaugeData().getPoints()
+                .iterator().next();
+        assertEquals("Apache", point.getAttributes().get(AttributeKey.stringKey("http_client_name")));
+        assertEquals("CustomDimensionValue.1", point.getAttributes()
+                .get(AttributeKey.stringKey("custom.dimension.key.1")));
+        assertNull(point.getAttributes().get(AttributeKey.stringKey("request_operation_name")));
+
+        // The interval maximum restarts from the latest value after each collection
+        metricsByName = metricsByName();
+        assertEquals(2L, onlyGaugeValue(metricsByName.get(prefix + ".leased_concurrency_max")));
+
+        // A closed publisher unregisters its gauges
+        syncPublisher.close();
+        metricsByName = metricsByName();
+        assertNull(metricsByName.get(prefix + ".leased_concurrency"));
+        assertNull(metricsByName.get(prefix + ".leased_concurrency_max"));
+    }
+
+    @Test
+    public void testMetricEnablementAndDimensions() {
+        String prefix = "custom.selection";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .disableFamily(MetricFamily.PER_ATTEMPT)
+                .enableMetrics(CoreMetric.SERVICE_CALL_DURATION)
+                .dimensions(MetricFamily.PER_REQUEST, EnumSet.noneOf(MetricDimension.class))
+                .dimensions(MetricFamily.HTTP, EnumSet.of(MetricDimension.OPERATION_NAME))
+                .build();
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        assertEquals(new HashSet<>(Arrays.asList(prefix + ".api_call_duration", prefix + ".service_call_duration",
+                prefix + ".leased_concurrency")), metricsByName.keySet());
+
+        Collection<HistogramPointData> requestPoints = metricsByName.get(prefix + ".api_call_duration")
+                .getHistogramData().getPoints();
+        assertEquals(1, requestPoints.size());
+        assertEquals(Attributes.empty(), requestPoints.iterator().next().getAttributes());
+
+        // The per-attempt family keeps its default dimensions
+        assertEquals(2, metricsByName.get(prefix + ".service_call_duration").getHistogramData().getPoints().size());
+
+        Collection<HistogramPointData> httpPoints = metricsByName.get(prefix + ".leased_concurrency")
+                .getHistogramData().getPoints();
+        assertEquals(1, httpPoints.size());
+        assertEquals(Attributes.of(AttributeKey.stringKey("request_operation_name"), "GetItem"),
+                httpPoints.iterator().next().getAttributes());
+    }
+
+    @Test
+    public void testCountersOnly() {
+        String prefix = "custom.counters";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .countersOnly()
+                .build();
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        assertEquals(new HashSet<>(Arrays.asList(prefix + ".api_calls", prefix + ".api_call_attempts",
+                prefix + ".throttling_errors", prefix + ".attempt_errors")), metricsByName.keySet());
+
+        Map<Boolean, Long> callsBySuccess = new HashMap<>();
+        for (LongPointData point : metricsByName.get(prefix + ".api_calls").getLongSumData().getPoints()) {
+            assertEquals("GetItem", point.getAttributes().get(AttributeKey.stringKey("request_operation_name")));
+            assertNull(point.getAttributes().get(AttributeKey.longKey("request_retry_count")));
+            callsBySuccess.put(point.getAttributes().get(AttributeKey.booleanKey("request_is_success")),
+                    point.getValue());
+        }
+        Map<Boolean, Long> expectedCalls = new HashMap<>();
+        expectedCalls.put(true, 1L);
+        expectedCalls.put(false, 1L);
+        assertEquals(expectedCalls, callsBySuccess);
+
+        assertEquals(2L, onlySumValue(metricsByName.get(prefix + ".api_call_attempts")));
+        assertEquals(1L, onlySumValue(metricsByName.get(prefix + ".throttling_errors")));
+        LongPointData errorPoint = metricsByName.get(prefix + ".attempt_errors").getLongSumData().getPoints()
+                .iterator().next();
+        assertEquals("Throttling", errorPoint.getAttributes().get(AttributeKey.stringKey("attempt_error_type")));
+        assertEquals(1L, errorPoint.getValue());
+    }
+
+    @Test
+    public void testCountersAreNotBiasedBySampling() {
+        String prefix = "custom.sampledcounters";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .countersOnly()
+                .samplingRate(0.01)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            syncPublisher.publish(createRequestWithAttempt(null, 200));
+        }
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        Map<Boolean, Long> callsBySuccess = new HashMap<>();
+        for (LongPointData point : metricsByName.get(prefix + ".api_calls").getLongSumData().getPoints()) {
+            callsBySuccess.put(point.getAttributes().get(AttributeKey.booleanKey("request_is_success")),
+                    point.getValue());
+        }
+        Map<Boolean, Long> expectedCalls = new HashMap<>();
+        expectedCalls.put(true, 100L);
+        expectedCalls.put(false, 1L);
+        assertEquals(expectedCalls, callsBySuccess);
+        assertEquals(101L, onlySumValue(metricsByName.get(prefix + ".api_call_attempts")));
+        assertEquals(1L, onlySumValue(metricsByName.get(prefix + ".throttling_errors")));
+    }
+
+    @Test
+    public void testLiveLatenciesAreNotBiasedBySampling() {
+        OtelMetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix("custom.sampledlive")
+                .executor(null)
+                .samplingRate(0.01)
+                .slowCallThreshold(Duration.ofMillis(100))
+                .liveLatencies(Duration.ofMinutes(1), true)
+                .build();
+        // Nine calls in ten are fast and mostly dropped, the slow ones are always sampled
+        for (int i = 0; i < 90; i++) {
+            syncPublisher.publish(createRequestWithAttempt(null, 200));
+        }
+        for (int i = 0; i < 10; i++) {
+            syncPublisher.publish(createRequest(Duration.ofSeconds(1)));
+        }
+
+        LiveLatencies latencies = syncPublisher.liveLatencies();
+        LatencySnapshot apiCalls = latencies.snapshot("GetItem", LatencyMetric.API_CALL_DURATION);
+        assertEquals(100, apiCalls.count());
+        assertTrue(apiCalls.p50().compareTo(Duration.ofMillis(11)) < 0, "Expected a fast median, but was " + apiCalls);
+        assertTrue(apiCalls.p99().compareTo(Duration.ofMillis(900)) > 0, "Expected a slow tail, but was " + apiCalls);
+        assertEquals(90, latencies.snapshot("GetItem", 200, LatencyMetric.SERVICE_CALL_DURATION).count());
+        assertEquals(90, latencies.snapshot("GetItem", 200, LatencyMetric.API_CALL_DURATION).count());
+    }
+
+    @Test
+    public void testSaturationIsNotBiasedBySampling() throws InterruptedException {
+        List<SaturationEvent> events = new CopyOnWriteArrayList<>();
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix("custom.sampledsaturation")
+                .executor(null)
+                .samplingRate(0.01)
+                .saturationListener(events::add)
+                .saturationWindow(Duration.ofMillis(50))
+                .saturationThresholds(1.0, Duration.ofHours(1), 0.2)
+                .build();
+        try {
+            // One attempt in eleven is throttled, but nearly every sampled attempt is
+            for (int i = 0; i < 30; i++) {
+                for (int j = 0; j < 10; j++) {
+                    syncPublisher.publish(createRequestWithAttempt(null, 200));
+                }
+                syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+            }
+            Thread.sleep(200);
+            assertTrue(events.isEmpty(), "Expected no saturation, but got " + events);
+        } finally {
+            syncPublisher.close();
+        }
+    }
+
+    @Test
+    public void testRetriesCounter() {
+        String prefix = "custom.retries";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .counters()
+                .build();
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, true);
+        requestCollector.reportMetric(CoreMetric.RETRY_COUNT, 2);
+        requestCollector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(10));
+        syncPublisher.publish(requestCollector.collect());
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        assertEquals(2L, onlySumValue(metricsByName.get(prefix + ".retries")));
+        // Histograms are still reported alongside the counters
+        assertTrue(metricsByName.containsKey(prefix + ".api_call_duration"));
+    }
+
+    @Test
+    public void testHttp2WindowSizesAndOptionalDimensions() {
+        String prefix = "custom.http2";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .dimensions(MetricFamily.HTTP, EnumSet.of(MetricDimension.OPERATION_NAME,
+                        MetricDimension.SERVICE_ENDPOINT, MetricDimension.HTTP_CLIENT_NAME))
+                .build();
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, true);
+        requestCollector.reportMetric(CoreMetric.SERVICE_ENDPOINT, URI.create("https://dynamodb.us-east-1.amazonaws.com/v1/items?consistent=true"));
+        requestCollector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(10));
+        MetricCollector httpCollector = requestCollector.createChild("ApiCallAttempt").createChild("HttpClient");
+        httpCollector.reportMetric(HttpMetric.HTTP_CLIENT_NAME, "NettyNio");
+        httpCollector.reportMetric(Http2Metric.LOCAL_STREAM_WINDOW_SIZE_IN_BYTES, 65_535);
+        httpCollector.reportMetric(Http2Metric.REMOTE_STREAM_WINDOW_SIZE_IN_BYTES, 1_048_576);
+        syncPublisher.publish(requestCollector.collect());
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        HistogramPointData point = metricsByName.get(prefix + ".remote_stream_window_size").getHistogramData()
+                .getPoints().iterator().next();
+        assertEquals(1_048_576.0, point.getSum());
+        assertEquals("By", metricsByName.get(prefix + ".remote_stream_window_size").getUnit());
+        assertEquals("https://dynamodb.us-east-1.amazonaws.com",
+                point.getAttributes().get(AttributeKey.stringKey("service_endpoint")));
+        assertEquals("NettyNio", point.getAttributes().get(AttributeKey.stringKey("http_client_name")));
+        assertTrue(metricsByName.containsKey(prefix + ".local_stream_window_size"));
+
+        // The optional dimensions are not added to the families that keep their defaults
+        HistogramPointData requestPoint = metricsByName.get(prefix + ".api_call_duration").getHistogramData()
+                .getPoints().iterator().next();
+        assertNull(requestPoint.getAttributes().get(AttributeKey.stringKey("service_endpoint")));
+    }
+
+    @Test
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void testSelfMetrics() {
+        String prefix = "custom.self";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .selfMetrics()
+                .build();
+        syncPublisher.publish(createMockMetricCollection());
+        Map<SdkMetric<?>, List<MetricRecord<?>>> metrics = new HashMap<>();
+        metrics.put(CoreMetric.API_CALL_DURATION,
+                Collections.singletonList(new DefaultMetricRecord(CoreMetric.API_CALL_DURATION, 100L)));
+        syncPublisher.publish(new DefaultMetricCollection("ApiCall", metrics, Collections.emptyList()));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        MetricData processed = metricsByName.get(prefix + ".publisher.processed_collections");
+        assertEquals("com.appsflyer.otelawsmetrics.publisher", processed.getInstrumentationScopeInfo().getName());
+        assertEquals(2L, onlySumValue(processed));
+        assertEquals(2L, metricsByName.get(prefix + ".publisher.publish_latency").getHistogramData().getPoints()
+                .iterator().next().getCount());
+
+        LongPointData mismatches = metricsByName.get(prefix + ".publisher.strategy_type_mismatches").getLongSumData()
+                .getPoints().iterator().next();
+        assertEquals(prefix + ".api_call_duration", mismatches.getAttributes().get(AttributeKey.stringKey("metric")));
+        assertEquals(1L, mismatches.getValue());
+        assertEquals(2L, onlyGaugeValue(metricsByName.get(prefix + ".publisher.attributes_cache.size")));
+        assertFalse(metricsByName.containsKey(prefix + ".publisher.queue_depth"));
+
+        // A closed publisher unregisters its callbacks
+        syncPublisher.close();
+        metricsByName = metricsByName();
+        assertFalse(metricsByName.containsKey(prefix + ".publisher.processed_collections"));
+        assertFalse(metricsByName.containsKey(prefix + ".publisher.attributes_cache.size"));
+    }
+
+    @Test
+    public void testLatencyAttribution() {
+        String prefix = "custom.attribution";
+        MetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .latencyAttribution()
+                .build();
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, true);
+        requestCollector.reportMetric(CoreMetric.RETRY_COUNT, 1);
+        requestCollector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(100));
+        for (int attempt = 0; attempt < 2; attempt++) {
+            MetricCollector attemptCollector = requestCollector.createChild("ApiCallAttempt");
+            attemptCollector.reportMetric(CoreMetric.BACKOFF_DELAY_DURATION, Duration.ofMillis(attempt * 20));
+            attemptCollector.reportMetric(CoreMetric.SERVICE_CALL_DURATION, Duration.ofMillis(30));
+            attemptCollector.createChild("HttpClient")
+                    .reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, Duration.ofMillis(5));
+        }
+        syncPublisher.publish(requestCollector.collect());
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(60), onlyHistogramSum(metricsByName.get(prefix + ".total_service_call_duration")));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), onlyHistogramSum(metricsByName.get(prefix + ".total_backoff_delay_duration")));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), onlyHistogramSum(metricsByName.get(prefix + ".total_concurrency_acquire_duration")));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(40), onlyHistogramSum(metricsByName.get(prefix + ".client_overhead_duration")));
+    }
+
+    @Test
+    public void testExemplarsOfTailLatencyCallsPointAtTheirTrace() throws InterruptedException {
+        String prefix = "custom.exemplars";
+        ExecutorService publishExecutor = Executors.newSingleThreadExecutor();
+        MetricPublisher asyncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(publishExecutor)
+                .exemplarThreshold(Duration.ofMillis(500))
+                .build();
+        SpanContext spanContext = SpanContext.create("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+                TraceFlags.getSampled(), TraceState.getDefault());
+        try (Scope ignored = Context.root().with(Span.wrap(spanContext)).makeCurrent()) {
+            asyncPublisher.publish(createRequest(Duration.ofSeconds(1)));
+            asyncPublisher.publish(createRequest(Duration.ofMillis(1)));
+        }
+        publishExecutor.shutdown();
+        assertTrue(publishExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        HistogramPointData point = metricsByName().get(prefix + ".api_call_duration").getHistogramData().getPoints()
+                .iterator().next();
+        assertEquals(2, point.getCount());
+        assertEquals(1, point.getExemplars().size());
+        DoubleExemplarData exemplar = point.getExemplars().get(0);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), (long) exemplar.getValue());
+        assertEquals(spanContext.getTraceId(), exemplar.getSpanContext().getTraceId());
+    }
+
+    @Test
+    public void testExemplarsAreKeptWithPreAggregation() {
+        String prefix = "custom.preaggregatedexemplars";
+        OtelMetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .propagateContext()
+                .preAggregation(Duration.ofMinutes(1))
+                .build();
+        SpanContext spanContext = SpanContext.create("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+                TraceFlags.getSampled(), TraceState.getDefault());
+        try (Scope ignored = Context.root().with(Span.wrap(spanContext)).makeCurrent()) {
+            syncPublisher.publish(createRequest(Duration.ofSeconds(1)));
+        }
+        syncPublisher.publish(createRequest(Duration.ofMillis(1)));
+        syncPublisher.flush();
+
+        HistogramPointData point = metricsByName().get(prefix + ".api_call_duration").getHistogramData().getPoints()
+                .iterator().next();
+        assertEquals(2, point.getCount());
+        assertEquals(1, point.getExemplars().size());
+        DoubleExemplarData exemplar = point.getExemplars().get(0);
+        assertEquals(TimeUnit.SECONDS.toNanos(1), (long) exemplar.getValue());
+        assertEquals(spanContext.getTraceId(), exemplar.getSpanContext().getTraceId());
+        syncPublisher.close();
+    }
+
+    @Test
+    public void testLiveLatencies() {
+        OtelMetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix("custom.live")
+                .executor(null)
+                .liveLatencies(Duration.ofMinutes(1), true)
+                .build();
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+
+        LiveLatencies latencies = syncPublisher.liveLatencies();
+        assertEquals(2, latencies.snapshot("GetItem", LatencyMetric.API_CALL_DURATION).count());
+        assertEquals(Duration.ofMillis(8),
+                latencies.snapshot("GetItem", 400, LatencyMetric.SERVICE_CALL_DURATION).max());
+        assertEquals(1, latencies.snapshot("GetItem", 200, LatencyMetric.API_CALL_DURATION).count());
+    }
+
+    @Test
+    public void testSloCounters() {
+        String prefix = "custom.slo";
+        OtelMetricPublisher.Builder builder = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .sloLatencyThreshold(Duration.ofMillis(5))
+                .sloLatencyThreshold("GetItem", Duration.ofMillis(20));
+        for (MetricFamily family : MetricFamily.values()) {
+            builder.disableFamily(family);
+        }
+        MetricPublisher syncPublisher = builder.build();
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        assertEquals(new HashSet<>(Arrays.asList(prefix + ".slo.good_calls", prefix + ".slo.total_calls")),
+                metricsByName.keySet());
+        assertEquals(2L, onlySumValue(metricsByName.get(prefix + ".slo.good_calls")));
+        assertEquals(3L, onlySumValue(metricsByName.get(prefix + ".slo.total_calls")));
+        LongPointData point = metricsByName.get(prefix + ".slo.total_calls").getLongSumData().getPoints()
+                .iterator().next();
+        assertEquals(Attributes.of(AttributeKey.stringKey("request_operation_name"), "GetItem"), point.getAttributes());
+    }
+
+    @Test
+    public void testSeriesBeyondTheIdTablesAreStillCached() {
+        String prefix = "custom.overflow";
+        OtelMetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .counters()
+                .attributesCacheMaximumSize(1)
+                .build();
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+        // The error type table is full, so this error type cannot be packed into a key
+        syncPublisher.publish(createRequestWithAttempt("ServerError", 500));
+        AttributesCacheStats first = syncPublisher.attributesCacheStats();
+        assertTrue(first.overflowCount() > 0);
+
+        syncPublisher.publish(createRequestWithAttempt("ServerError", 500));
+        AttributesCacheStats second = syncPublisher.attributesCacheStats();
+        assertTrue(second.overflowCount() > first.overflowCount());
+        assertEquals(first.size(), second.size());
+
+        Set<String> errorTypes = new HashSet<>();
+        metricsByName().get(prefix + ".attempt_errors").getLongSumData().getPoints().forEach(
+                point -> errorTypes.add(point.getAttributes().get(AttributeKey.stringKey("attempt_error_type"))));
+        assertEquals(new HashSet<>(Arrays.asList("Throttling", "ServerError")), errorTypes);
+    }
+
+    @Test
+    public void testSloCountersAreNotBiasedBySampling() {
+        String prefix = "custom.sampledslo";
+        OtelMetricPublisher.Builder builder = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .samplingRate(0.01)
+                .sloLatencyThreshold(Duration.ofMillis(20));
+        for (MetricFamily family : MetricFamily.values()) {
+            builder.disableFamily(family);
+        }
+        MetricPublisher syncPublisher = builder.build();
+        for (int i = 0; i < 100; i++) {
+            syncPublisher.publish(createRequestWithAttempt(null, 200));
+        }
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+
+        Map<String, MetricData> metricsByName = metricsByName();
+        assertEquals(100L, onlySumValue(metricsByName.get(prefix + ".slo.good_calls")));
+        assertEquals(101L, onlySumValue(metricsByName.get(prefix + ".slo.total_calls")));
+    }
+
+    @Test
+    public void testWarmUpPreparesTheAttributesOfTheFirstCalls() {
+        OtelMetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix("custom.warm")
+                .executor(null)
+                .counters()
+                .build();
+        syncPublisher.warmUp(DynamoDbClient.class);
+        AttributesCacheStats warmed = syncPublisher.attributesCacheStats();
+        assertTrue(warmed.size() > 0);
+
+        syncPublisher.publish(createRequestWithAttempt(null, 200));
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+        AttributesCacheStats afterCalls = syncPublisher.attributesCacheStats();
+        assertEquals(warmed.size(), afterCalls.size());
+        assertEquals(warmed.missCount(), afterCalls.missCount());
+    }
+
+    @Test
+    public void testWarmUpSkipsPaginatorsAndConvenienceMethods() {
+        assertEquals(new HashSet<>(Arrays.asList("GetItem", "ListTables")),
+                OtelMetricPublisher.operationNamesOf(DynamoDbClient.class));
+    }
+
+    @Test
+    public void testWarmUpSkipsAttributeSetsWithDimensionsKnownOnlyAtCallTime() {
+        OtelMetricPublisher withEndpoint = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix("custom.warmendpoint")
+                .executor(null)
+                .dimensions(MetricFamily.HTTP, EnumSet.of(MetricDimension.OPERATION_NAME,
+                        MetricDimension.SERVICE_ENDPOINT))
+                .build();
+        OtelMetricPublisher withoutHttp = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix("custom.warmnohttp")
+                .executor(null)
+                .disableFamily(MetricFamily.HTTP)
+                .build();
+        withEndpoint.warmUp(DynamoDbClient.class);
+        withoutHttp.warmUp(DynamoDbClient.class);
+
+        assertEquals(withoutHttp.attributesCacheStats().size(), withEndpoint.attributesCacheStats().size());
+    }
+
+    @Test
+    public void testWarmUpDoesNotCountTowardsCardinalityLimits() {
+        OtelMetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix("custom.warmlimited")
+                .executor(null)
+                .cardinalityLimit(MetricDimension.OPERATION_NAME, 1)
+                .build();
+        syncPublisher.warmUp(Arrays.asList("GetItem", "PutItem", "Query"));
+
+        CardinalityLimitStats stats = syncPublisher.cardinalityLimitStats(MetricDimension.OPERATION_NAME);
+        assertEquals(1, stats.admittedValues());
+        assertEquals(0, stats.foldedCount());
+    }
+
+    /**
+     * The shape of a generated service client, whose operations take a request named after them.
+     */
+    private interface DynamoDbClient {
+        void getItem(GetItemRequest request);
+
+        byte[] getItemAsBytes(GetItemRequest request);
+
+        void listTables(ListTablesRequest request);
+
+        Iterable<?> listTablesPaginator(ListTablesRequest request);
+    }
+
+    private abstract static class GetItemRequest extends SdkRequest {
+    }
+
+    private abstract static class ListTablesRequest extends SdkRequest {
+    }
+
+    @Test
+    public void testCardinalityLimit() {
+        String prefix = "custom.limited";
+        OtelMetricPublisher syncPublisher = OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .metricPrefix(prefix)
+                .executor(null)
+                .countersOnly()
+                .cardinalityLimit(MetricDimension.ERROR_TYPE, 1)
+                .build();
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+        syncPublisher.publish(createRequestWithAttempt("ServiceUnavailable", 503));
+        syncPublisher.publish(createRequestWithAttempt("Throttling", 400));
+
+        Map<String, Long> errorsByType = new HashMap<>();
+        for (LongPointData point : metricsByName().get(prefix + ".attempt_errors").getLongSumData().getPoints()) {
+            errorsByType.put(point.getAttributes().get(AttributeKey.stringKey("attempt_error_type")),
+                    point.getValue());
+        }
+        Map<String, Long> expectedErrors = new HashMap<>();
+        expectedErrors.put("Throttling", 2L);
+        expectedErrors.put("other", 1L);
+        assertEquals(expectedErrors, errorsByType);
+        assertEquals(1, syncPublisher.cardinalityLimitStats(MetricDimension.ERROR_TYPE).foldedCount());
+        assertEquals(0, syncPublisher.cardinalityLimitStats(MetricDimension.OPERATION_NAME).maxValues());
+        assertThrows(IllegalArgumentException.class, () -> OtelMetricPublisher.builder(GlobalOpenTelemetry.get())
+                .cardinalityLimit(MetricDimension.HTTP_STATUS_CODE, 10));
+    }
+
+    private static MetricCollection createRequest(Duration apiCallDuration) {
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, true);
+        requestCollector.reportMetric(CoreMetric.API_CALL_DURATION, apiCallDuration);
+        return requestCollector.collect();
+    }
+
+    private static long onlyHistogramSum(MetricData metricData) {
+        Collection<HistogramPointData> points = metricData.getHistogramData().getPoints();
+        assertEquals(1, points.size(), metricData.getName());
+        return (long) points.iterator().next().getSum();
+    }
+
+    private static long onlySumValue(MetricData metricData) {
+        Collection<LongPointData> points = metricData.getLongSumData().getPoints();
+        assertEquals(1, points.size(), metricData.getName());
+        return points.iterator().next().getValue();
+    }
+
+    @Test
+    public void testDimensionMustBeAvailableToFamily() {
+        OtelMetricPublisher.Builder builder = OtelMetricPublisher.builder(GlobalOpenTelemetry.get());
+        assertThrows(IllegalArgumentException.class, () -> builder.dimensions(MetricFamily.PER_REQUEST,
+                EnumSet.of(MetricDimension.HTTP_STATUS_CODE)));
+    }
+
+    private static long onlyGaugeValue(MetricData metricData) {
+        Collection<LongPointData> points = metricData.getLongGaugeData().getPoints();
+        assertEquals(1, points.size(), metricData.getName());
+        return points.iterator().next().getValue();
+    }
+
+    private MetricCollection createRequestWithPoolState(String httpClientName, int leased, int pending) {
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, true);
+        MetricCollector httpCollector = requestCollector.createChild("ApiCallAttempt").createChild("HttpClient");
+        httpCollector.reportMetric(HttpMetric.HTTP_CLIENT_NAME, httpClientName);
+        httpCollector.reportMetric(HttpMetric.HTTP_STATUS_CODE, 200);
+        httpCollector.reportMetric(HttpMetric.LEASED_CONCURRENCY, leased);
+        httpCollector.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pending);
+        httpCollector.reportMetric(HttpMetric.MAX_CONCURRENCY, 50);
+        return requestCollector.collect();
+    }
+
+    private Map<String, MetricData> metricsByName() {
+        Map<String, MetricData> metricsByName = new HashMap<>();
+        for (MetricData metricData : metricReader.collectAllMetrics()) {
+            metricsByName.put(metricData.getName(), metricData);
+        }
+        return metricsByName;
+    }
+
+    private MetricCollection createRequestWithAttempt(String errorType, int httpStatusCode) {
+        MetricCollector requestCollector = MetricCollector.create("ApiCall");
+        requestCollector.reportMetric(CoreMetric.OPERATION_NAME, "GetItem");
+        requestCollector.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, errorType == null);
+        requestCollector.reportMetric(CoreMetric.RETRY_COUNT, 0);
+        requestCollector.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(10));
+
+        MetricCollector attemptCollector = requestCollector.createChild("ApiCallAttempt");
+        attemptCollector.reportMetric(CoreMetric.SERVICE_CALL_DURATION, Duration.ofMillis(8));
+        if (errorType != null) {
+            attemptCollector.reportMetric(CoreMetric.ERROR_TYPE, errorType);
+        }
+
+        MetricCollector httpCollector = attemptCollector.createChild("HttpClient");
+        httpCollector.reportMetric(HttpMetric.HTTP_STATUS_CODE, httpStatusCode);
+        httpCollector.reportMetric(HttpMetric.LEASED_CONCURRENCY, 1);
+        return requestCollector.collect();
+    }
+
     private MetricCollection createMockMetricCollection() {
         // Create a Map to hold the metrics
         Map<SdkMetric<?>, List<MetricRecord<?>>> metrics = new HashMap<>();
@@ -0,0 +1,159 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreAggregatingLongHistogramTest {
+
+    private static final List<Double> BOUNDARIES = Arrays.asList(
+            0d, 5d, 10d, 25d, 50d, 75d, 100d, 250d, 500d, 750d, 1_000d, 2_500d, 5_000d, 7_500d, 10_000d);
+
+    @Test
+    public void testFlushedHistogramMatchesDirectRecording() throws Exception {
+        InMemoryMetricReader directReader = InMemoryMetricReader.create();
+        InMemoryMetricReader preAggregatedReader = InMemoryMetricReader.create();
+        LongHistogram direct = histogram(directReader);
+        PreAggregatingLongHistogram preAggregated = new PreAggregatingLongHistogram(histogram(preAggregatedReader),
+                BOUNDARIES, 4, 16, false);
+
+        List<Attributes> series = Arrays.asList(
+                Attributes.of(AttributeKey.stringKey("request_operation_name"), "GetItem"),
+                Attributes.of(AttributeKey.stringKey("request_operation_name"), "PutItem"),
+                Attributes.of(AttributeKey.stringKey("request_operation_name"), "Query"));
+
+        // Record the same values into both histograms from several threads, flushing concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 20_000; i++) {
+                        long value = random.nextLong(0, 20_000);
+                        Attributes attributes = series.get(random.nextInt(series.size()));
+                        direct.record(value, attributes);
+                        preAggregated.record(value, attributes);
+                        if (i % 5_000 == 0) {
+                            preAggregated.flush();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        preAggregated.flush();
+
+        Map<Attributes, HistogramPointData> expected = points(directReader);
+        Map<Attributes, HistogramPointData> actual = points(preAggregatedReader);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Attributes attributes : expected.keySet()) {
+            HistogramPointData expectedPoint = expected.get(attributes);
+            HistogramPointData actualPoint = actual.get(attributes);
+            assertEquals(expectedPoint.getCount(), actualPoint.getCount(), "count of " + attributes);
+            assertEquals(expectedPoint.getSum(), actualPoint.getSum(), 0.0, "sum of " + attributes);
+            assertEquals(expectedPoint.getMin(), actualPoint.getMin(), 0.0, "min of " + attributes);
+            assertEquals(expectedPoint.getMax(), actualPoint.getMax(), 0.0, "max of " + attributes);
+            assertEquals(expectedPoint.getCounts(), actualPoint.getCounts(), "bucket counts of " + attributes);
+        }
+    }
+
+    @Test
+    public void testNothingIsExportedBeforeFlush() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        PreAggregatingLongHistogram preAggregated = new PreAggregatingLongHistogram(histogram(reader),
+                BOUNDARIES, 1, 16, false);
+
+        preAggregated.record(42, Attributes.empty());
+        assertTrue(reader.collectAllMetrics().isEmpty());
+
+        preAggregated.flush();
+        assertEquals(1, points(reader).get(Attributes.empty()).getCount());
+    }
+
+    @Test
+    public void testIdleSeriesAreEvicted() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        PreAggregatingLongHistogram preAggregated = new PreAggregatingLongHistogram(histogram(reader),
+                BOUNDARIES, 1, 16, false);
+        Attributes getItem = Attributes.of(AttributeKey.stringKey("request_operation_name"), "GetItem");
+
+        // Every round records with a new instance of the same attributes, as when the attribute cache rebuilds them
+        for (int round = 0; round < 1_000; round++) {
+            preAggregated.record(42, Attributes.builder().putAll(getItem).build());
+            assertEquals(round, count(reader, getItem), "Expected round " + round + " to be pre-aggregated");
+            preAggregated.flush();
+            assertEquals(round + 1, count(reader, getItem));
+        }
+    }
+
+    @Test
+    public void testSeriesBeyondMaximumAreRecordedDirectly() {
+        InMemoryMetricReader reader = InMemoryMetricReader.create();
+        PreAggregatingLongHistogram preAggregated = new PreAggregatingLongHistogram(histogram(reader),
+                BOUNDARIES, 1, 16, false);
+
+        for (int i = 0; i < 32; i++) {
+            preAggregated.record(42, Attributes.of(AttributeKey.stringKey("request_operation_name"), "Operation" + i));
+        }
+        assertEquals(16, points(reader).size(), "Expected the series beyond the table to be recorded directly");
+
+        preAggregated.flush();
+        assertEquals(32, points(reader).size());
+    }
+
+    @Test
+    public void testBucketOfMatchesInclusiveUpperBoundaries() {
+        PreAggregatingLongHistogram preAggregated = new PreAggregatingLongHistogram(
+                histogram(InMemoryMetricReader.create()), BOUNDARIES, 1, 16, false);
+
+        assertEquals(0, preAggregated.bucketOf(0));
+        assertEquals(1, preAggregated.bucketOf(1));
+        assertEquals(1, preAggregated.bucketOf(5));
+        assertEquals(2, preAggregated.bucketOf(6));
+        assertEquals(14, preAggregated.bucketOf(10_000));
+        assertEquals(15, preAggregated.bucketOf(10_001));
+    }
+
+    private static LongHistogram histogram(InMemoryMetricReader reader) {
+        return SdkMeterProvider.builder()
+                .registerMetricReader(reader)
+                .build()
+                .get("test")
+                .histogramBuilder("test.histogram")
+                .ofLongs()
+                .build();
+    }
+
+    private static long count(InMemoryMetricReader reader, Attributes attributes) {
+        HistogramPointData point = points(reader).get(attributes);
+        return point == null ? 0 : point.getCount();
+    }
+
+    private static Map<Attributes, HistogramPointData> points(InMemoryMetricReader reader) {
+        Map<Attributes, HistogramPointData> points = new HashMap<>();
+        for (MetricData metricData : reader.collectAllMetrics()) {
+            for (HistogramPointData point : metricData.getHistogramData().getPoints()) {
+                points.put(point.getAttributes(), point);
+            }
+        }
+        return points;
+    }
+}
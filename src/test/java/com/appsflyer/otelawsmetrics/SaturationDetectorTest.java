@@ -0,0 +1,80 @@
+package com.appsflyer.otelawsmetrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaturationDetectorTest {
+
+    private static final Attributes CLIENT = Attributes.of(AttributeKey.stringKey("client"), "dynamodb");
+
+    private final List<SaturationEvent> events = new ArrayList<>();
+    private final SaturationDetector detector = new SaturationDetector(events::add, Duration.ofHours(1), 0.1,
+            Duration.ofMillis(10), 0.05);
+
+    @AfterEach
+    void tearDown() {
+        detector.close();
+    }
+
+    @Test
+    public void testThrottlingFiresWithHysteresis() {
+        SaturationDetector.Client client = detector.newClient(CLIENT);
+
+        recordAttempts(client, 100, 10);
+        detector.evaluate();
+        assertEquals(1, events.size());
+        SaturationEvent saturated = events.get(0);
+        assertEquals(SaturationSignal.THROTTLING, saturated.signal());
+        assertTrue(saturated.isSaturated());
+        assertEquals(0.1, saturated.value(), 1e-9);
+        assertEquals(CLIENT, saturated.clientAttributes());
+
+        // The state is held for a few windows, then only recovers below half of the threshold
+        for (int window = 1; window < SaturationDetector.HOLD_WINDOWS; window++) {
+            recordAttempts(client, 100, 0);
+            detector.evaluate();
+        }
+        recordAttempts(client, 100, 3);
+        detector.evaluate();
+        assertEquals(1, events.size());
+        recordAttempts(client, 100, 1);
+        detector.evaluate();
+        assertEquals(2, events.size());
+        assertFalse(events.get(1).isSaturated());
+    }
+
+    @Test
+    public void testPoolSaturationNeedsEnoughSamples() {
+        SaturationDetector.Client client = detector.newClient(CLIENT);
+
+        for (int i = 0; i < SaturationDetector.MIN_SAMPLES - 1; i++) {
+            client.recordHttpRequest(5, TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        detector.evaluate();
+        assertTrue(events.isEmpty());
+
+        for (int i = 0; i < SaturationDetector.MIN_SAMPLES; i++) {
+            client.recordHttpRequest(5, TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        detector.evaluate();
+        assertEquals(2, events.size());
+        assertEquals(SaturationSignal.PENDING_ACQUIRES, events.get(0).signal());
+        assertEquals(SaturationSignal.ACQUIRE_DURATION, events.get(1).signal());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), events.get(1).value(), 1e-9);
+    }
+
+    private static void recordAttempts(SaturationDetector.Client client, int attempts, int throttled) {
+        for (int i = 0; i < attempts; i++) {
+            client.recordAttempt(i < throttled);
+        }
+    }
+}